@@ -0,0 +1,280 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * This class builds the fixtures used by the benchmarks: synthetic directory
+ * trees, a PFX file to sign the VEOs, and FileHarvests configured with the
+ * templates in 'test/Templates'. The trees are generated at benchmark setup
+ * (from a fixed seed, so each run sees the same tree) and deleted at teardown.
+ *
+ * The shapes of tree are:
+ * 'small' - 10,000 small (0.5-4KB) files, 100 to a directory;
+ * 'large' - 1,000 large files ('bench.largeSize' bytes each, default 256KB),
+ * 50 to a directory;
+ * 'deep' - a narrow tree 200 directories deep, with two files in each.
+ */
+final class BenchFixtures {
+
+    static final String PFX_PASSWORD = "benchmark";
+    private static final String[] EXTENSIONS = {".txt", ".pdf", ".doc", ".docx", ".jpg", ".tmp", ".xml", ".csv", ""};
+    private static final byte[] RANDOM = new byte[1024 * 1024]; // source of file content
+
+    static {
+        new Random(1234).nextBytes(RANDOM);
+    }
+
+    private BenchFixtures() {
+    }
+
+    /**
+     * Build a synthetic tree
+     *
+     * @param shape 'small', 'large', or 'deep'
+     * @param root the directory to create (must not exist)
+     * @return the root of the tree
+     * @throws IOException if the tree could not be built
+     */
+    static Path tree(String shape, Path root) throws IOException {
+        switch (shape) {
+            case "small":
+                return wideTree(root, 10000, 100, 512, 4096);
+            case "large":
+                int size = Integer.getInteger("bench.largeSize", 256 * 1024);
+                return wideTree(root, 1000, 50, size, size);
+            case "deep":
+                return deepTree(root, 200, 2);
+            default:
+                throw new IllegalArgumentException("Unknown tree shape '" + shape + "'");
+        }
+    }
+
+    /**
+     * Build a wide, shallow tree of files
+     */
+    private static Path wideTree(Path root, int files, int perDir, int minSize, int maxSize) throws IOException {
+        Random r;
+        Path dir;
+        int i;
+
+        r = new Random(files);
+        Files.createDirectories(root);
+        dir = root;
+        for (i = 0; i < files; i++) {
+            if (i % perDir == 0) {
+                dir = Files.createDirectory(root.resolve("dir" + (i / perDir)));
+            }
+            writeFile(dir.resolve(fileName(i)), minSize + (maxSize > minSize ? r.nextInt(maxSize - minSize) : 0), r);
+        }
+        return root;
+    }
+
+    /**
+     * Build a narrow, deep tree
+     */
+    private static Path deepTree(Path root, int depth, int filesPerLevel) throws IOException {
+        Random r;
+        Path dir;
+        int i, j;
+
+        r = new Random(depth);
+        Files.createDirectories(root);
+        dir = root;
+        for (i = 0; i < depth; i++) {
+            for (j = 0; j < filesPerLevel; j++) {
+                writeFile(dir.resolve(fileName(i * filesPerLevel + j)), 1024, r);
+            }
+            dir = Files.createDirectory(dir.resolve("d" + i));
+        }
+        return root;
+    }
+
+    /**
+     * Generate a file name. The extensions are a mix of long term
+     * preservation formats, other formats, and no extension, and some names
+     * look like temporary files so that they are excluded.
+     *
+     * @param i the number of the file
+     * @return the file name
+     */
+    static String fileName(int i) {
+        String prefix;
+
+        switch (i % 23) {
+            case 0:
+                prefix = "~$draft";
+                break;
+            case 7:
+                prefix = "Thumbs";
+                break;
+            default:
+                prefix = "Record & Report ";
+                break;
+        }
+        return prefix + i + EXTENSIONS[i % EXTENSIONS.length];
+    }
+
+    /**
+     * Write a file of random content
+     */
+    private static void writeFile(Path p, int size, Random r) throws IOException {
+        OutputStream os;
+        int n, off;
+
+        os = Files.newOutputStream(p);
+        try {
+            while (size > 0) {
+                n = Math.min(size, RANDOM.length / 2);
+                off = r.nextInt(RANDOM.length - n + 1);
+                os.write(RANDOM, off, n);
+                size -= n;
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * The ignore patterns given to the harvests. These are a mix of the
+     * forms the exclusion index handles (literal, prefix, suffix, and
+     * general regular expressions).
+     *
+     * @return the patterns
+     */
+    static List<String> patterns() {
+        ArrayList<String> l;
+
+        l = new ArrayList<>();
+        l.add("Thumbs\\.db");
+        l.add("desktop\\.ini");
+        l.add("~\\$.*");
+        l.add(".*\\.tmp");
+        l.add(".*\\.bak");
+        l.add("\\..*");
+        l.add("[0-9]+\\.log");
+        l.add("(?i)core\\.[0-9]+");
+        return l;
+    }
+
+    /**
+     * Get the templates directory ('test/Templates' unless the system
+     * property 'bench.templates' says otherwise)
+     *
+     * @return the templates directory
+     */
+    static Path templates() {
+        return Paths.get(System.getProperty("bench.templates", "test/Templates")).toAbsolutePath();
+    }
+
+    /**
+     * Generate a PFX file (a self signed RSA key) with keytool
+     *
+     * @param dir the directory in which to create it
+     * @return the PFX file
+     * @throws IOException if keytool failed
+     */
+    static Path pfx(Path dir) throws IOException {
+        Path pfx, keytool;
+        Process p;
+        int res;
+
+        pfx = dir.resolve("benchmark.pfx");
+        keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool");
+        p = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "benchmark",
+                "-keyalg", "RSA", "-keysize", "2048", "-sigalg", "SHA256withRSA",
+                "-dname", "CN=FileHarvest Benchmark", "-validity", "3650",
+                "-storetype", "PKCS12", "-keystore", pfx.toString(),
+                "-storepass", PFX_PASSWORD, "-keypass", PFX_PASSWORD)
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            res = p.waitFor();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted running keytool");
+        }
+        if (res != 0) {
+            throw new IOException("keytool failed (" + res + ")");
+        }
+        return pfx;
+    }
+
+    /**
+     * Configure a FileHarvest as the GUI would. The log messages are
+     * discarded.
+     *
+     * @param outputDir the directory in which to create the VEOs
+     * @param pfx the PFX file to sign the VEOs
+     * @return the FileHarvest
+     * @throws IOException if the output directory could not be created
+     * @throws AppFatal if the harvest could not be configured
+     */
+    static FileHarvest harvest(Path outputDir, Path pfx) throws IOException, AppFatal {
+        Job job;
+
+        Files.createDirectories(outputDir);
+        job = new Job();
+        job.templateDir = templates();
+        job.outputDir = outputDir;
+        job.pfxFile = pfx;
+        job.pfxFilePassword = PFX_PASSWORD;
+        job.filesToExclude.addAll(patterns());
+        return new FileHarvest(job, new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * Delete the contents of a directory
+     *
+     * @param dir the directory
+     * @param self true if the directory itself is to be deleted
+     * @throws IOException if something could not be deleted
+     */
+    static void delete(Path dir, boolean self) throws IOException {
+        DirectoryStream<Path> ds;
+
+        if (!Files.exists(dir)) {
+            return;
+        }
+        ds = Files.newDirectoryStream(dir);
+        try {
+            for (Path p : ds) {
+                if (Files.isDirectory(p)) {
+                    delete(p, true);
+                } else {
+                    Files.delete(p);
+                }
+            }
+        } finally {
+            ds.close();
+        }
+        if (self) {
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building a complete, signed VEO from a synthetic tree, exactly
+ * as the GUI does (FileHarvest.process()). The VEO is deleted after each
+ * operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CreateVEOBenchmark {
+
+    @Param({"small", "large", "deep"})
+    public String tree;
+
+    private Path work;      // directory holding the fixtures
+    private Path base;      // the tree being harvested
+    private Path out;       // where the VEOs are created
+    private FileHarvest fh; // the configured harvest
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, AppFatal {
+        work = Files.createTempDirectory("fhbench");
+        base = BenchFixtures.tree(tree, work.resolve("tree"));
+        out = work.resolve("out");
+        fh = BenchFixtures.harvest(out, BenchFixtures.pfx(work));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        fh.close();
+        BenchFixtures.delete(work, true);
+    }
+
+    /**
+     * Remove the VEOs built (but not the journal, which is open)
+     *
+     * @throws IOException if a VEO could not be deleted
+     */
+    @TearDown(Level.Invocation)
+    public void removeVEOs() throws IOException {
+        DirectoryStream<Path> ds;
+
+        ds = Files.newDirectoryStream(out, "FSC-*");
+        try {
+            for (Path p : ds) {
+                if (Files.isDirectory(p)) {
+                    BenchFixtures.delete(p, true);
+                } else {
+                    Files.delete(p);
+                }
+            }
+        } finally {
+            ds.close();
+        }
+    }
+
+    /**
+     * Build a VEO
+     *
+     * @return true if the VEO was built
+     */
+    @Benchmark
+    public boolean createVEO() {
+        return fh.process(base);
+    }
+}
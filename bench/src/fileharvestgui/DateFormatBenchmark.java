@@ -0,0 +1,93 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares formatting VERS dates with the shared java.time formatters
+ * (VERSDate) against the previous approach of creating a SimpleDateFormat
+ * (and a Date) for each date. The benchmarks run on four threads, as the
+ * dates are formatted by the threads building VEOs in parallel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class DateFormatBenchmark {
+
+    private long time = 1529000000000L; // a time to format
+    private final StringBuilder sb = new StringBuilder(); // reused output buffer
+
+    /**
+     * The previous versDateTime(), for comparison
+     */
+    private static String simpleDateFormat(boolean fssafe, long ms) {
+        SimpleDateFormat sdf;
+        String s;
+
+        if (fssafe) {
+            sdf = new SimpleDateFormat("yyyy-MM-dd'T'HHmmssZ");
+        } else {
+            sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+        }
+        sdf.setTimeZone(TimeZone.getDefault());
+        s = sdf.format(new Date(ms));
+        if (!fssafe) {
+            s = s.substring(0, 22) + ":" + s.substring(22, 24);
+        }
+        return s;
+    }
+
+    @Benchmark
+    public String simpleDateFormat() {
+        return simpleDateFormat(false, time++);
+    }
+
+    @Benchmark
+    public String simpleDateFormatFileSafe() {
+        return simpleDateFormat(true, time++);
+    }
+
+    @Benchmark
+    public String versDate() {
+        return VERSDate.dateTime(false, time++);
+    }
+
+    @Benchmark
+    public String versDateFileSafe() {
+        return VERSDate.dateTime(true, time++);
+    }
+
+    /**
+     * Append the date to a buffer, as the journal and signature blocks do
+     *
+     * @return the length of the buffer
+     */
+    @Benchmark
+    public int versDateAppend() {
+        sb.setLength(0);
+        VERSDate.appendDateTime(sb, false, time++);
+        return sb.length();
+    }
+}
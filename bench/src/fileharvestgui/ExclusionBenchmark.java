@@ -0,0 +1,147 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the exclusion checks made on every file and directory, using an
+ * exclusion list of 150 rules similar to the one maintained by the records
+ * team. 'patternLoop' is the old approach (every pattern tried in turn) for
+ * comparison. Each operation tests 10,000 file names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExclusionBenchmark {
+
+    private ArrayList<Pattern> patterns;    // the ignore patterns
+    private ExclusionIndex index;           // the patterns, directories and extensions compiled
+    private String[] names;                 // file names to test
+    private Path[] files;                   // files to test
+    private Path[] dirs;                    // directories to test
+
+    @Setup(Level.Trial)
+    public void setup() {
+        TreeMap<String, String> directories;
+        int i;
+
+        // 150 rules: literal names, prefixes, suffixes and general patterns
+        patterns = new ArrayList<>();
+        for (i = 0; i < 40; i++) {
+            patterns.add(Pattern.compile("Scratch" + i + "\\.dat"));
+        }
+        for (i = 0; i < 30; i++) {
+            patterns.add(Pattern.compile("~tmp" + i + ".*"));
+        }
+        for (i = 0; i < 50; i++) {
+            patterns.add(Pattern.compile(".*\\.bk" + i));
+        }
+        for (i = 0; i < 30; i++) {
+            patterns.add(Pattern.compile("[a-z]+_v" + i + "_[0-9]{4}\\.(tmp|old)"));
+        }
+        directories = new TreeMap<>();
+        for (i = 0; i < 20; i++) {
+            directories.put("/data/records/dir" + (i * 7), "/data/records/dir" + (i * 7));
+        }
+        index = new ExclusionIndex(patterns, directories, Arrays.asList("tmp", "bak", "lnk"), false);
+
+        names = new String[10000];
+        files = new Path[names.length];
+        dirs = new Path[100];
+        for (i = 0; i < names.length; i++) {
+            names[i] = BenchFixtures.fileName(i);
+            files[i] = Paths.get("/data/records/dir" + (i % dirs.length), names[i]);
+        }
+        for (i = 0; i < dirs.length; i++) {
+            dirs[i] = Paths.get("/data/records/dir" + i);
+        }
+    }
+
+    /**
+     * Test the file names against the compiled index
+     *
+     * @return number of names matched
+     */
+    @Benchmark
+    public int indexMatchName() {
+        int i, n;
+
+        n = 0;
+        for (i = 0; i < names.length; i++) {
+            if (index.matchName(names[i]) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Test the file names by trying each pattern in turn (the old approach)
+     *
+     * @return number of names matched
+     */
+    @Benchmark
+    public int patternLoop() {
+        int i, j, n;
+
+        n = 0;
+        for (i = 0; i < names.length; i++) {
+            for (j = 0; j < patterns.size(); j++) {
+                if (patterns.get(j).matcher(names[i]).matches()) {
+                    n++;
+                    break;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The full check made on each file (patterns, then extensions) and each
+     * directory (patterns, then the ignored directories)
+     *
+     * @return number of files and directories excluded
+     */
+    @Benchmark
+    public int indexMatch() {
+        int i, n;
+
+        n = 0;
+        for (i = 0; i < files.length; i++) {
+            if (index.match(files[i], false) != null) {
+                n++;
+            }
+        }
+        for (i = 0; i < dirs.length; i++) {
+            if (index.match(dirs[i], true) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.VEOError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the small operations done for every file: encoding strings for
+ * XML, formatting dates, and checking for long term preservation formats
+ * (by extension, and from the first bytes of the file); and the description
+ * of the harvest added to each VEO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+
+    private Path work;          // directory holding the fixtures
+    private FileHarvest fh;     // the configured harvest
+    private String[] names;     // file names
+    private long time;          // a time to format
+    private StringBuilder sb;   // reused output buffer
+    private Path pdf;           // a file to identify from its content
+    private FormatIdentifier formats; // identifier confirming formats from the content
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, AppFatal {
+        int i;
+
+        work = Files.createTempDirectory("fhbench");
+        fh = BenchFixtures.harvest(work.resolve("out"), BenchFixtures.pfx(work));
+        names = new String[1000];
+        for (i = 0; i < names.length; i++) {
+            names[i] = "S-40-1/Plans & Drawings/" + BenchFixtures.fileName(i);
+        }
+        time = 1529000000000L;
+        sb = new StringBuilder();
+        pdf = work.resolve("sample.pdf");
+        Files.write(pdf, "%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n1 0 obj\n".getBytes("ISO-8859-1"));
+        formats = new FormatIdentifier(true);
+        formats.addLTPF("pdf");
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        fh.close();
+        BenchFixtures.delete(work, true);
+    }
+
+    /**
+     * Encode 1000 file names
+     *
+     * @return the length of the encoded names
+     */
+    @Benchmark
+    public int xmlEncode() {
+        int i;
+
+        sb.setLength(0);
+        for (i = 0; i < names.length; i++) {
+            fh.xmlEncode(sb, names[i]);
+        }
+        return sb.length();
+    }
+
+    @Benchmark
+    public String versDateTime() {
+        return FileHarvest.versDateTime(false, time++);
+    }
+
+    @Benchmark
+    public String versDateTimeFileSafe() {
+        return FileHarvest.versDateTime(true, time++);
+    }
+
+    /**
+     * Check 1000 file names
+     *
+     * @return the number of LTPFs
+     */
+    @Benchmark
+    public int isLTPF() {
+        int i, n;
+
+        n = 0;
+        for (i = 0; i < names.length; i++) {
+            if (fh.isLTPF(names[i])) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Confirm the format of a file from its first bytes (i.e. the extra work
+     * done for each file when formats are verified)
+     *
+     * @return true if the content matched
+     */
+    @Benchmark
+    public boolean contentMatches() {
+        return formats.contentMatches(pdf, "sample.pdf");
+    }
+
+    /**
+     * Generate the description of the harvest
+     *
+     * @return the length of the description
+     * @throws VEOError if the description failed
+     */
+    @Benchmark
+    public long addHarvestDescription() throws VEOError {
+        NullVEOWriter cv;
+
+        cv = new NullVEOWriter();
+        fh.addHarvestDescription(cv, work);
+        return cv.chars;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.PFXUser;
+import VERSCommon.VEOError;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.concurrent.Future;
+
+/**
+ * A VEOWriter that renders the metadata but otherwise discards the VEO. Used
+ * to benchmark the walk of the directory tree without the cost of reading
+ * the content files or writing the zip file. The number of characters
+ * rendered is counted so that the work can't be optimised away.
+ */
+final class NullVEOWriter implements VEOWriter, Appendable {
+
+    long chars;     // number of characters of metadata rendered
+    int files;      // number of content files added
+    private final Writer counter = new Writer() { // counts the metadata written
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            chars += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            chars += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Override
+    public void addVEOReadme(Path templateDir) {
+    }
+
+    @Override
+    public void addEvent(String timestamp, String event, String initiator, String[] descriptions, String[] errors) {
+    }
+
+    @Override
+    public void addContent(Path directory) {
+    }
+
+    @Override
+    public void addInformationObject(String type, int depth) {
+        chars += type.length();
+    }
+
+    @Override
+    public void addMetadataPackage(MetadataTemplate template, String[] data) throws VEOError {
+        try {
+            template.render(this, data);
+        } catch (IOException ioe) {
+            throw new VEOError(ioe.getMessage());
+        }
+    }
+
+    @Override
+    public void addMetadataPackage(String schemaId, String syntaxId, MetadataBody metadata) throws VEOError {
+        try {
+            metadata.write(counter);
+        } catch (IOException ioe) {
+            throw new VEOError(ioe.getMessage());
+        }
+    }
+
+    @Override
+    public void addInformationPiece(String label) {
+    }
+
+    @Override
+    public Future<String> addContentFile(String file, String hash) {
+        files++;
+        return null;
+    }
+
+    @Override
+    public void finishFiles() {
+    }
+
+    @Override
+    public void sign(PFXUser user, String hashAlg) {
+    }
+
+    @Override
+    public void finalise() {
+    }
+
+    @Override
+    public void abandon() {
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) {
+        chars += csq.length();
+        return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+        chars += end - start;
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+        chars++;
+        return this;
+    }
+}
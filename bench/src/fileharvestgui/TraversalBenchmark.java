@@ -0,0 +1,86 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.VEOError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the walk of a directory tree by processTree (reading the
+ * attributes, checking the exclusions, and rendering the metadata of each
+ * file and directory) and the incremental pre-scan, without reading the
+ * content files or writing a VEO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TraversalBenchmark {
+
+    @Param({"small", "deep"})
+    public String tree;
+
+    private Path work;      // directory holding the fixtures
+    private Path base;      // the tree being walked
+    private FileHarvest fh; // the configured harvest
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, AppFatal {
+        work = Files.createTempDirectory("fhbench");
+        base = BenchFixtures.tree(tree, work.resolve("tree"));
+        fh = BenchFixtures.harvest(work.resolve("out"), BenchFixtures.pfx(work));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        fh.close();
+        BenchFixtures.delete(work, true);
+    }
+
+    /**
+     * Walk the tree as createVEO does
+     *
+     * @return the amount of metadata generated
+     * @throws VEOError if the walk failed
+     */
+    @Benchmark
+    public long processTree() throws VEOError {
+        HarvestRecord rec;
+        NullVEOWriter cv;
+
+        rec = new HarvestRecord(base, "FSC-benchmark");
+        rec.manifest = new Manifest("SHA-512");
+        rec.recMetadata[0] = "http://www.prov.vic.gov.au/records/FSC-benchmark";
+        rec.recMetadata[1] = base.toString();
+        rec.recMetadata[2] = "FSC-benchmark";
+        rec.recMetadata[3] = "benchmark";
+        rec.recMetadata[4] = "2018-06-12T12:00:00+10:00";
+        rec.recMetadata[5] = " ";
+        cv = new NullVEOWriter();
+        rec.cv = cv;
+        fh.processTree(rec, fh.readEntry(base, null));
+        return cv.chars + cv.files;
+    }
+}
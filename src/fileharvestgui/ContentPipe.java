@@ -0,0 +1,132 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * This class reads a content file once and passes the bytes both to a
+ * MessageDigest and to an output stream (i.e. the zip file), so each content
+ * file is only read once from the source. The file is read through a large
+ * direct ByteBuffer; the buffer is reused by each thread to avoid repeatedly
+ * allocating direct memory.
+ *
+ * A file that fits in the buffer can instead be read into it with read(),
+ * digested, and then written from the same buffer with write(). This lets
+ * the caller digest the file before it takes the lock on the output stream.
+ */
+final class ContentPipe {
+
+    static final int BUFSIZE = 1024 * 1024; // size of the read buffer
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFSIZE);
+        }
+    };
+
+    private ContentPipe() {
+    }
+
+    /**
+     * Read a file, feeding its bytes to a digest and an output stream. The
+     * output stream is not closed.
+     *
+     * @param file the file to read
+     * @param md the digest to update (reset before the file is read)
+     * @param out where to write the bytes
+     * @return the digest of the file
+     * @throws IOException if the file could not be read or written
+     */
+    static byte[] transfer(Path file, MessageDigest md, OutputStream out) throws IOException {
+        FileChannel fc;
+        WritableByteChannel wbc;
+        ByteBuffer bb;
+        int pos;
+
+        bb = BUFFER.get();
+        wbc = Channels.newChannel(out);
+        md.reset();
+        fc = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            bb.clear();
+            while (fc.read(bb) != -1) {
+                bb.flip();
+
+                // digest the bytes, then rewind and write the same bytes
+                pos = bb.position();
+                md.update(bb);
+                bb.position(pos);
+                while (bb.hasRemaining()) {
+                    wbc.write(bb);
+                }
+                bb.clear();
+            }
+        } finally {
+            fc.close();
+        }
+        return md.digest();
+    }
+
+    /**
+     * Read a file into the calling thread's buffer. The buffer remains valid
+     * until the thread next uses this class.
+     *
+     * @param file the file to read
+     * @param max the maximum number of bytes to read (no more than BUFSIZE
+     * are read)
+     * @return the buffer, holding the bytes read between its position (zero)
+     * and limit
+     * @throws IOException if the file could not be read
+     */
+    static ByteBuffer read(Path file, int max) throws IOException {
+        FileChannel fc;
+        ByteBuffer bb;
+
+        bb = BUFFER.get();
+        bb.clear();
+        bb.limit(Math.min(max, BUFSIZE));
+        fc = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            while (bb.hasRemaining() && fc.read(bb) != -1) {
+                // keep reading until the buffer is full or the file ends
+            }
+        } finally {
+            fc.close();
+        }
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * Write the bytes between a buffer's position and limit to an output
+     * stream. The buffer's position is not changed. The output stream is not
+     * closed.
+     *
+     * @param bb the buffer
+     * @param out where to write the bytes
+     * @throws IOException if the bytes could not be written
+     */
+    static void write(ByteBuffer bb, OutputStream out) throws IOException {
+        WritableByteChannel wbc;
+        ByteBuffer b;
+
+        wbc = Channels.newChannel(out);
+        b = bb.duplicate();
+        while (b.hasRemaining()) {
+            wbc.write(b);
+        }
+    }
+}
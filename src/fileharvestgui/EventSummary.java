@@ -0,0 +1,141 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts the events that would otherwise be reported once per
+ * file (e.g. a file that is not in a long term preservation format, or a file
+ * that was excluded). The events are counted by type and key (e.g. the file
+ * extension, or the exclusion rule), and the first few paths of each are
+ * kept as samples. At the end of a VEO one summary line is reported for
+ * each type and key, instead of one warning for each file.
+ *
+ * Events may be recorded from several threads at once.
+ */
+final class EventSummary {
+
+    static final int SAMPLES = 3;   // number of sample paths kept for each key
+
+    /**
+     * The types of event summarised. Each has a description used in the
+     * summary line; the key (if any) follows it.
+     */
+    enum Type {
+        NOT_LTPF("file(s) not in a long term preservation format (so a dummy LTPF was added) with extension"),
+        WRONG_FORMAT("file(s) whose content is not in the format of their extension (so a dummy LTPF was added) with extension"),
+        EXCLUDED("file(s) or folder(s) not included as they were excluded by");
+
+        final String description;
+
+        Type(String description) {
+            this.description = description;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Counter> counters; // counts indexed by type and key
+
+    /**
+     * The count of events of one type and key
+     */
+    private static final class Counter {
+
+        final Type type;        // the type of event
+        final String key;       // the key (e.g. extension or rule)
+        final LongAdder count;  // number of events
+        final ArrayList<String> samples; // the first few paths
+
+        Counter(Type type, String key) {
+            this.type = type;
+            this.key = key;
+            count = new LongAdder();
+            samples = new ArrayList<>(SAMPLES);
+        }
+    }
+
+    EventSummary() {
+        counters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Record an event
+     *
+     * @param type the type of event
+     * @param key the key to count the event under
+     * @param path the file or directory the event concerns
+     */
+    void record(Type type, String key, String path) {
+        Counter c;
+
+        c = counters.computeIfAbsent(type.name() + "/" + key, k -> new Counter(type, key));
+        c.count.increment();
+
+        // only lock while the samples are still being collected
+        if (c.samples.size() < SAMPLES) {
+            synchronized (c.samples) {
+                if (c.samples.size() < SAMPLES) {
+                    c.samples.add(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test if any events have been recorded
+     *
+     * @return true if none
+     */
+    boolean isEmpty() {
+        return counters.isEmpty();
+    }
+
+    /**
+     * Summarise the events: one line for each type and key, most frequent
+     * first within each type.
+     *
+     * @return the summary lines
+     */
+    List<String> summarise() {
+        ArrayList<Counter> l;
+        ArrayList<String> lines;
+        StringBuilder sb;
+        Counter c;
+        int i, j;
+
+        l = new ArrayList<>(counters.values());
+        Collections.sort(l, (a, b) -> {
+            if (a.type != b.type) {
+                return a.type.compareTo(b.type);
+            }
+            return Long.compare(b.count.sum(), a.count.sum());
+        });
+        lines = new ArrayList<>();
+        for (i = 0; i < l.size(); i++) {
+            c = l.get(i);
+            sb = new StringBuilder();
+            sb.append(c.count.sum());
+            sb.append(" ");
+            sb.append(c.type.description);
+            sb.append(" ");
+            sb.append(c.key);
+            synchronized (c.samples) {
+                for (j = 0; j < c.samples.size(); j++) {
+                    sb.append(j == 0 ? ", e.g. '" : ", '");
+                    sb.append(c.samples.get(j));
+                    sb.append("'");
+                }
+            }
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+}
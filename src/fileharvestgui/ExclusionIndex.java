@@ -0,0 +1,574 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class decides which files and directories are excluded from a
+ * harvest. It is built once, when the harvest is configured, from the ignored
+ * file name patterns, file extensions and directories, so that testing a file
+ * doesn't require running every pattern against every file name.
+ *
+ * Most file name patterns in practice are literal names ('Thumbs\.db'),
+ * prefixes ('~\$.*') or suffixes ('.*\.tmp'). These are recognised and held
+ * in a hash table, a prefix trie and a suffix trie respectively. The
+ * remaining patterns are combined into a single alternation, so the file name
+ * is scanned by one regular expression. Ignored extensions are held in a hash
+ * table and ignored directories in a trie of path components.
+ *
+ * A file name is matched exactly as before: if several patterns match, the
+ * first in the list is the one reported. The number of files and directories
+ * excluded by each rule is counted for the report at the end of the run.
+ */
+final class ExclusionIndex {
+
+    static final int PATTERN = 0;       // rule excludes file names matching a pattern
+    static final int DIRECTORY = 1;     // rule excludes a directory
+    static final int NO_EXTENSION = 2;  // rule excludes files with no extension
+    static final int EXTENSION = 3;     // rule excludes files with an extension
+
+    private final ArrayList<Rule> rules;    // all the rules, patterns first (in order)
+    private final HashMap<String, Rule> literals; // patterns that are literal file names
+    private final CharTrie prefixes;        // patterns that match a literal prefix
+    private final CharTrie suffixes;        // patterns that match a literal suffix (held reversed)
+    private Pattern combined;               // the remaining patterns as one alternation
+    private final ArrayList<Rule> combinedRules; // the patterns in the alternation
+    private final ArrayList<Rule> separate; // patterns that could not be combined
+    private final PathTrie directories;     // ignored directories
+    private final HashMap<String, Rule> extensions; // ignored extensions (lower case)
+    private final Rule noExtension;         // rule for files without an extension (null if not ignored)
+
+    /**
+     * A rule that excludes files or directories
+     */
+    static final class Rule {
+
+        final int type;         // PATTERN, DIRECTORY, NO_EXTENSION, or EXTENSION
+        final int index;        // position of the rule in the list of rules
+        final String text;      // the pattern, directory or extension as specified
+        final Pattern pattern;  // the pattern (PATTERN rules only)
+        private final LongAdder hits; // number of files or directories excluded
+
+        Rule(int type, int index, String text, Pattern pattern) {
+            this.type = type;
+            this.index = index;
+            this.text = text;
+            this.pattern = pattern;
+            hits = new LongAdder();
+        }
+
+        /**
+         * Count a file or directory excluded by this rule
+         */
+        void hit() {
+            hits.increment();
+        }
+
+        long getHits() {
+            return hits.sum();
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case PATTERN:
+                    return "pattern '" + text + "'";
+                case DIRECTORY:
+                    return "directory '" + text + "'";
+                case NO_EXTENSION:
+                    return "files with no extension";
+                default:
+                    return "extension '." + text + "'";
+            }
+        }
+    }
+
+    /**
+     * Build the index
+     *
+     * @param patterns the file name patterns to ignore, in the order they are
+     * to be tested
+     * @param directories the directories to ignore (the key is the path, the
+     * value how the directory was specified)
+     * @param extensions the extensions to ignore (without the '.')
+     * @param noExtension true if files without an extension are to be ignored
+     */
+    ExclusionIndex(List<Pattern> patterns, Map<String, String> directories, Iterable<String> extensions, boolean noExtension) {
+        ArrayList<Rule> regexes;
+        Iterator<String> it;
+        Rule r;
+        String s, lit;
+        int i;
+
+        rules = new ArrayList<>();
+        literals = new HashMap<>();
+        prefixes = new CharTrie();
+        suffixes = new CharTrie();
+        combinedRules = new ArrayList<>();
+        separate = new ArrayList<>();
+        this.directories = new PathTrie();
+        this.extensions = new HashMap<>();
+
+        // sort the patterns into literals, prefixes, suffixes and the rest
+        regexes = new ArrayList<>();
+        for (i = 0; i < patterns.size(); i++) {
+            r = new Rule(PATTERN, i, patterns.get(i).pattern(), patterns.get(i));
+            rules.add(r);
+            s = stripAnchors(r.text);
+            if ((lit = literal(s)) != null) {
+                if (!literals.containsKey(lit)) {
+                    literals.put(lit, r);
+                }
+            } else if (s.length() > 2 && s.endsWith(".*") && (lit = literal(s.substring(0, s.length() - 2))) != null) {
+                prefixes.add(lit, r);
+            } else if (s.length() > 2 && s.startsWith(".*") && (lit = literal(s.substring(2))) != null) {
+                suffixes.add(new StringBuilder(lit).reverse().toString(), r);
+            } else {
+                regexes.add(r);
+            }
+        }
+        combine(regexes);
+
+        // directories and extensions
+        it = directories.keySet().iterator();
+        while (it.hasNext()) {
+            s = it.next();
+            r = new Rule(DIRECTORY, rules.size(), directories.get(s), null);
+            rules.add(r);
+            this.directories.add(s, r);
+        }
+        if (noExtension) {
+            this.noExtension = new Rule(NO_EXTENSION, rules.size(), "", null);
+            rules.add(this.noExtension);
+        } else {
+            this.noExtension = null;
+        }
+        it = extensions.iterator();
+        while (it.hasNext()) {
+            s = it.next().toLowerCase(Locale.ROOT);
+            if (!this.extensions.containsKey(s)) {
+                r = new Rule(EXTENSION, rules.size(), s, null);
+                rules.add(r);
+                this.extensions.put(s, r);
+            }
+        }
+    }
+
+    /**
+     * Find the rule (if any) that excludes a file or directory. The hit is
+     * not counted; call Rule.hit() if the file is actually excluded.
+     *
+     * @param file the file or directory
+     * @param directory true if the file is a directory
+     * @return the rule that excludes the file, or null if it is not excluded
+     */
+    Rule match(Path file, boolean directory) {
+        String filename;
+        Rule r;
+        int i;
+
+        filename = file.getFileName().toString();
+        if ((r = matchName(filename)) != null) {
+            return r;
+        }
+        if (directory) {
+            return directories.get(file);
+        }
+        i = filename.lastIndexOf('.');
+        if (i == -1) {
+            return noExtension;
+        }
+        return extensions.get(filename.substring(i + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Find the first pattern that matches a file name
+     *
+     * @param filename the file name
+     * @return the rule, or null if no pattern matches
+     */
+    Rule matchName(String filename) {
+        Rule best, r;
+        Matcher m;
+        int i;
+
+        best = literals.get(filename);
+        r = prefixes.first(filename, false);
+        if (r != null && (best == null || r.index < best.index)) {
+            best = r;
+        }
+        r = suffixes.first(filename, true);
+        if (r != null && (best == null || r.index < best.index)) {
+            best = r;
+        }
+
+        // only run the regular expressions if they could find an earlier rule
+        if (combined != null && (best == null || combinedRules.get(0).index < best.index)) {
+            m = combined.matcher(filename);
+            if (m.matches()) {
+                for (i = 0; i < combinedRules.size(); i++) {
+                    r = combinedRules.get(i);
+                    if (best != null && r.index >= best.index) {
+                        break;
+                    }
+                    if (m.start(groupName(r.index)) != -1) {
+                        best = r;
+                        break;
+                    }
+                }
+            }
+        }
+        for (i = 0; i < separate.size(); i++) {
+            r = separate.get(i);
+            if (best != null && r.index >= best.index) {
+                break;
+            }
+            if (r.pattern.matcher(filename).matches()) {
+                best = r;
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the rules, in the order they are tested
+     *
+     * @return the rules
+     */
+    List<Rule> getRules() {
+        return rules;
+    }
+
+    /**
+     * Describe the number of files and directories excluded by each rule
+     *
+     * @return one line per rule
+     */
+    List<String> describeHits() {
+        ArrayList<String> l;
+        Rule r;
+        int i;
+
+        l = new ArrayList<>();
+        for (i = 0; i < rules.size(); i++) {
+            r = rules.get(i);
+            l.add("Excluded by " + r.toString() + ": " + r.getHits());
+        }
+        return l;
+    }
+
+    /**
+     * Combine the patterns that aren't literals, prefixes, or suffixes into
+     * one alternation. Each pattern is a named group, so the pattern that
+     * matched can be found. Patterns that contain back references or named
+     * groups would be changed by being combined, so they are left separate.
+     */
+    private void combine(ArrayList<Rule> regexes) {
+        StringBuilder sb;
+        Rule r;
+        int i, n;
+
+        sb = new StringBuilder();
+        n = 0;
+        for (i = 0; i < regexes.size(); i++) {
+            r = regexes.get(i);
+            if (r.text.matches(".*\\\\([1-9]|k<).*") || r.text.contains("(?<")) {
+                separate.add(r);
+                continue;
+            }
+            if (n > 0) {
+                sb.append('|');
+            }
+            sb.append("(?<");
+            sb.append(groupName(r.index));
+            sb.append('>');
+            sb.append(r.text);
+            sb.append(')');
+            combinedRules.add(r);
+            n++;
+        }
+        combined = null;
+        if (n == 0) {
+            return;
+        }
+        try {
+            combined = Pattern.compile(sb.toString());
+        } catch (PatternSyntaxException pse) {
+            // shouldn't happen, but if it does test each pattern in turn
+            combinedRules.clear();
+            separate.clear();
+            separate.addAll(regexes);
+        }
+    }
+
+    private static String groupName(int index) {
+        return "fhRule" + index;
+    }
+
+    /**
+     * Remove a leading '^' and a trailing '$' from a pattern; they make no
+     * difference as the whole file name is matched.
+     */
+    private static String stripAnchors(String s) {
+        if (s.startsWith("^")) {
+            s = s.substring(1);
+        }
+        if (s.endsWith("$") && !s.endsWith("\\$")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s;
+    }
+
+    /**
+     * If a pattern only matches one string, return that string
+     *
+     * @param s the pattern
+     * @return the string it matches, or null if it contains any regular
+     * expression constructs (other than escaped punctuation)
+     */
+    private static String literal(String s) {
+        StringBuilder sb;
+        int i;
+        char c;
+
+        if (s.isEmpty()) {
+            return null;
+        }
+        sb = new StringBuilder();
+        for (i = 0; i < s.length(); i++) {
+            c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+                if (i == s.length()) {
+                    return null;
+                }
+                c = s.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    return null;
+                }
+            } else if ("[](){}.*+?^$|".indexOf(c) != -1) {
+                return null;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Test if a character is a line terminator. '.' in a pattern doesn't
+     * match these, so a prefix or suffix pattern doesn't match a name
+     * containing them.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == 0x85 || c == 0x2028 || c == 0x2029;
+    }
+
+    /**
+     * A trie of strings, used to find the prefix or suffix patterns that
+     * match a file name
+     */
+    private static final class CharTrie {
+
+        private final Node root;
+
+        private static final class Node {
+
+            char[] keys = new char[0];  // the characters leading to the children
+            Node[] children = new Node[0]; // the children
+            Rule rule;                  // the first rule ending at this node (or null)
+
+            Node child(char c) {
+                int i;
+
+                for (i = 0; i < keys.length; i++) {
+                    if (keys[i] == c) {
+                        return children[i];
+                    }
+                }
+                return null;
+            }
+
+            Node addChild(char c) {
+                Node n;
+                char[] k;
+                Node[] ch;
+
+                n = new Node();
+                k = new char[keys.length + 1];
+                ch = new Node[children.length + 1];
+                System.arraycopy(keys, 0, k, 0, keys.length);
+                System.arraycopy(children, 0, ch, 0, children.length);
+                k[keys.length] = c;
+                ch[children.length] = n;
+                keys = k;
+                children = ch;
+                return n;
+            }
+        }
+
+        CharTrie() {
+            root = new Node();
+        }
+
+        /**
+         * Add a string. If several rules have the same string, the first is
+         * kept.
+         */
+        void add(String s, Rule r) {
+            Node n, next;
+            int i;
+
+            n = root;
+            for (i = 0; i < s.length(); i++) {
+                if ((next = n.child(s.charAt(i))) == null) {
+                    next = n.addChild(s.charAt(i));
+                }
+                n = next;
+            }
+            if (n.rule == null) {
+                n.rule = r;
+            }
+        }
+
+        /**
+         * Find the earliest rule whose string is a prefix (or suffix) of a
+         * file name, and whose pattern matches the rest of the name (i.e. the
+         * rest doesn't contain a line terminator).
+         *
+         * @param s the file name
+         * @param reverse true if the trie holds suffixes
+         * @return the rule, or null if none match
+         */
+        Rule first(String s, boolean reverse) {
+            Node n;
+            Rule best;
+            int i, len, last;
+
+            best = null;
+            n = root;
+            len = s.length();
+            last = -2; // position of the last line terminator (-2 = not yet found)
+            for (i = 0; i < len; i++) {
+                n = n.child(s.charAt(reverse ? len - 1 - i : i));
+                if (n == null) {
+                    break;
+                }
+                if (n.rule != null && (best == null || n.rule.index < best.index)) {
+                    if (last == -2) {
+                        last = lastTerminator(s, reverse);
+                    }
+                    if (i >= last) {
+                        best = n.rule;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Find the position of the last line terminator in a file name, in
+         * the order the name is scanned
+         *
+         * @return the position, or -1 if there is none
+         */
+        private static int lastTerminator(String s, boolean reverse) {
+            int i, len;
+
+            len = s.length();
+            for (i = len - 1; i >= 0; i--) {
+                if (isLineTerminator(s.charAt(reverse ? len - 1 - i : i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A trie of paths, indexed by the components of the path, used to find
+     * ignored directories
+     */
+    private static final class PathTrie {
+
+        private final HashMap<String, PathTrie> children; // the next components
+        private Rule rule;  // the rule if a directory ends here
+
+        PathTrie() {
+            children = new HashMap<>();
+            rule = null;
+        }
+
+        /**
+         * Add a directory
+         */
+        void add(String directory, Rule r) {
+            PathTrie t, next;
+            Path p;
+            int i;
+
+            p = Paths.get(directory);
+            t = this;
+            if (p.getRoot() != null) {
+                t = t.step(p.getRoot().toString(), true);
+            }
+            for (i = 0; i < p.getNameCount(); i++) {
+                next = t.step(p.getName(i).toString(), true);
+                t = next;
+            }
+            if (t.rule == null) {
+                t.rule = r;
+            }
+        }
+
+        /**
+         * Find the rule excluding a directory
+         *
+         * @param p the directory
+         * @return the rule, or null if the directory is not excluded
+         */
+        Rule get(Path p) {
+            PathTrie t;
+            int i;
+
+            if (children.isEmpty()) {
+                return null;
+            }
+            t = this;
+            if (p.getRoot() != null) {
+                t = t.step(p.getRoot().toString(), false);
+            }
+            for (i = 0; i < p.getNameCount() && t != null; i++) {
+                t = t.step(p.getName(i).toString(), false);
+            }
+            return t != null ? t.rule : null;
+        }
+
+        private PathTrie step(String component, boolean create) {
+            PathTrie t;
+
+            t = children.get(component);
+            if (t == null && create) {
+                t = new PathTrie();
+                children.put(component, t);
+            }
+            return t;
+        }
+    }
+}
@@ -14,13 +14,13 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.SimpleFormatter;
+import javafx.animation.AnimationTimer;
 import javafx.application.HostServices;
-import javafx.application.Platform;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
@@ -59,11 +59,29 @@ public class FXMLProgressController extends BaseVEOController implements Initial
     private TextField logFileTF;
     @FXML
     private Label statusL;
+    @FXML
+    private Label bytesDoneL;
+    @FXML
+    private Label filesRateL;
+    @FXML
+    private Label mbRateL;
+    @FXML
+    private Label etaL;
 
     Job job;                    // information shared between scenes
     HostServices hostServices;
-    private ObservableList<String> responses; // list of results generated
     CreateVEOsService cvs;      // Created to handle processing
+    HarvestProgress progress;   // bytes and files harvested (updated by the workers)
+    private LogStore log;       // the report (only the recent part is held in memory)
+    private LogView logView;    // the report as shown in the list view
+    private UiBridge<LogRecord> bridge; // messages from the harvest threads to the display
+    private AnimationTimer pulse; // updates the display
+    private long lastPulse;     // when the display was last updated (ns)
+    private final AtomicInteger veosConstCnt = new AtomicInteger(0); // number of VEOs constructed successfully
+    private final AtomicInteger veosFailedCnt = new AtomicInteger(0); // number of VEOs that failed construction
+
+    private static final long PULSE = 100000000L; // minimum time between display updates (ns)
+    private static final int BRIDGE_SIZE = 65536; // messages that may be waiting to be displayed
 
     /**
      * Initializes the controller class.
@@ -73,10 +91,26 @@ public class FXMLProgressController extends BaseVEOController implements Initial
      */
     @Override
     public void initialize(URL url, ResourceBundle rb) {
-        responses = FXCollections.observableArrayList();
-        reportLV.setItems(responses);
+        log = new LogStore(Paths.get(System.getProperty("java.io.tmpdir")));
+        logView = new LogView(log);
+        reportLV.setItems(logView);
         constVEOsPB.setProgress(0);
 
+        // the harvest threads never touch the display. They put messages into
+        // the bridge, and count progress, and the display is updated from
+        // these at most ten times a second
+        bridge = new UiBridge<>(BRIDGE_SIZE);
+        lastPulse = 0;
+        pulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (now - lastPulse >= PULSE) {
+                    lastPulse = now;
+                    updateDisplay();
+                }
+            }
+        };
+
         try {
             initTooltips();
         } catch (AppFatal af) {
@@ -88,7 +122,12 @@ public class FXMLProgressController extends BaseVEOController implements Initial
      * Called when it is necessary to close this window
      */
     public void shutdown() {
-        cvs.cancel();
+        pulse.stop();
+        bridge.close();
+        if (cvs != null) {
+            cvs.cancel();
+        }
+        log.close();
         final Stage stage = (Stage) rootAP.getScene().getWindow();
         stage.close();
     }
@@ -102,6 +141,10 @@ public class FXMLProgressController extends BaseVEOController implements Initial
         createTooltip(constVEOsPB, (String) json.get("progress"));
         createTooltip(veosConstructedL, (String) json.get("constructed"));
         createTooltip(veosFailedL, (String) json.get("failed"));
+        createTooltip(bytesDoneL, (String) json.get("bytesDone"));
+        createTooltip(filesRateL, (String) json.get("filesRate"));
+        createTooltip(mbRateL, (String) json.get("mbRate"));
+        createTooltip(etaL, (String) json.get("eta"));
         createTooltip(finishB, (String) json.get("finish"));
         createTooltip(logFileTF, (String) json.get("logFile"));
     }
@@ -116,10 +159,72 @@ public class FXMLProgressController extends BaseVEOController implements Initial
 
         this.job = job;
         this.baseDirectory = baseDirectory;
+
+        // the workers count the content as it is written
+        progress = new HarvestProgress(job.items.size());
+        pulse.start();
         cvs = new CreateVEOsService();
         cvs.start();
     }
 
+    /**
+     * Add a line to the report. May be called from any thread.
+     *
+     * @param mesg the line
+     */
+    private void report(String mesg) {
+        bridge.publish(new LogRecord(Level.INFO, mesg));
+    }
+
+    /**
+     * Move the messages published since the last update into the report,
+     * and show the counts and progress. Called on the FX application thread
+     * by the pulse.
+     */
+    private void updateDisplay() {
+        if (bridge.drain(r -> log.add(r.getLevel(), r.getMessage())) > 0) {
+            logView.refresh();
+            reportLV.scrollTo(logView.size() - 1);
+        }
+        veosConstructedL.setText(Integer.toString(veosConstCnt.get()));
+        veosFailedL.setText(Integer.toString(veosFailedCnt.get()));
+        showProgress();
+    }
+
+    /**
+     * The harvest has stopped; show the final state
+     *
+     * @param status the status to show
+     */
+    private void finished(String status) {
+        pulse.stop();
+        updateDisplay();
+        statusL.setText(status);
+    }
+
+    /**
+     * Show the progress of the job by bytes, the rate of harvesting, and the
+     * estimated time to finish.
+     */
+    private void showProgress() {
+        long eta;
+
+        progress.sample();
+        if (progress.isScanned()) {
+            statusL.setText("Working");
+            constVEOsPB.setProgress(progress.getFraction());
+            bytesDoneL.setText(HarvestProgress.formatBytes(progress.getBytesDone()) + " of " + HarvestProgress.formatBytes(progress.getBytesTotal()));
+        } else {
+            statusL.setText("Scanning");
+            constVEOsPB.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            bytesDoneL.setText(HarvestProgress.formatBytes(progress.getBytesDone()) + " of " + HarvestProgress.formatBytes(progress.getBytesTotal()) + " found so far");
+        }
+        filesRateL.setText(String.format("%.1f", progress.getFileRate()));
+        mbRateL.setText(String.format("%.1f", progress.getByteRate() / (1024 * 1024)));
+        eta = progress.getETA();
+        etaL.setText(eta < 0 ? "-" : HarvestProgress.formatDuration(eta));
+    }
+
     /**
      * Callback when user presses 'Finish' button
      */
@@ -152,7 +257,7 @@ public class FXMLProgressController extends BaseVEOController implements Initial
     private void saveLogfile(ActionEvent event) {
         FileWriter fw;
         BufferedWriter bw;
-        int i;
+        int i, n;
 
         // abort if no log file has been specified
         if (job.logFile == null) {
@@ -169,9 +274,10 @@ public class FXMLProgressController extends BaseVEOController implements Initial
         bw = new BufferedWriter(fw);
 
         // write log entries
-        for (i = 0; i < responses.size(); i++) {
+        n = log.size();
+        for (i = 0; i < n; i++) {
             try {
-                bw.write(responses.get(i));
+                bw.write(log.get(i));
                 bw.write("\n");
             } catch (IOException ioe) {
                 System.err.println("Failed writing log file: " + ioe.getMessage());
@@ -193,23 +299,25 @@ public class FXMLProgressController extends BaseVEOController implements Initial
     /**
      * Create a service that creates VEOs
      */
-    private class CreateVEOsService extends Service<ObservableList<String>> {
+    private class CreateVEOsService extends Service<Void> {
 
         // create the task (i.e. thread) that actually creates the VEOs
         @Override
-        protected Task<ObservableList<String>> createTask() {
+        protected Task<Void> createTask() {
             CreateVEOsTask veoTask;
 
-            veoTask = new CreateVEOsTask(job, reportLV, constVEOsPB, veosConstructedL, veosFailedL);
+            veoTask = new CreateVEOsTask(job);
 
-            // this event handler is called when the thread completes, and it
-            // puts the response into the report list view and scrolls to the
-            // end
+            // these event handlers are called when the thread completes. The
+            // last of the report is drained from the bridge and shown
             veoTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, (WorkerStateEvent event) -> {
-                reportLV.getItems().addAll(getValue());
-                reportLV.scrollTo(reportLV.getItems().size() - 1);
+                finished("Finished");
                 constVEOsPB.setProgress(1);
             });
+            veoTask.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, (WorkerStateEvent event) -> {
+                report("FAILED: " + veoTask.getException());
+                finished("Failed");
+            });
             return veoTask;
         }
 
@@ -217,103 +325,119 @@ public class FXMLProgressController extends BaseVEOController implements Initial
 
     /**
      * Create a task (i.e. a thread) that actually creates the VEOs in order to
-     * ensure that the GUI remains responsive
+     * ensure that the GUI remains responsive. The task never updates the
+     * display itself; it reports through the bridge.
      */
-    private class CreateVEOsTask extends Task<ObservableList<String>> {
+    private class CreateVEOsTask extends Task<Void> {
 
         final Job job;
-        final ListView<String> lv;  // the list view that will display the logging results
-        final ProgressBar pb;       // the progress bar
-        final Label successCnt;
-        int veosConstCnt;           // number of VEOs constructed successfully
-        final Label failCnt;
-        int veosFailedCnt;          // number of VEOs that failed construction
         FileHarvest fh;             // Encapsulation of the file harvest itself
+        HarvestEngine engine;       // Runs the items through the file harvest
+        MemoryGovernor mg;          // Delays starting VEOs if memory is short
+        HarvestMonitor monitor;     // Exposes the harvest over JMX
 
-        public CreateVEOsTask(Job job, ListView<String> lv, ProgressBar pb, Label successCnt, Label failCnt) {
+        public CreateVEOsTask(Job job) {
             this.job = job;
-            // partialResults = new ReadOnlyObjectWrapper<>(this, "patrialResults", FXCollections.observableArrayList());
-            this.lv = lv;
-            this.pb = pb;
-            this.successCnt = successCnt;
-            this.failCnt = failCnt;
-            veosConstCnt = 0;
-            veosFailedCnt = 0;
+            engine = null;
         }
 
         /**
          * Actually create one or more VEOs. The parameters of the creation have
          * been provided when the task was created in the Job argument. The
+         * VEOs are created by a HarvestEngine, which may build several VEOs
+         * at the same time.
          *
-         * @return a list of strings containing the results of the creation
+         * @return nothing
          */
         @Override
-        protected ObservableList<String> call() {
-            ObservableList<String> results; // list of results generated
+        protected Void call() {
             LogHandler lh;
-            int i;
-
-            // create a list in which to put the responses 
-            results = FXCollections.observableArrayList();
-            updateValue(results);
 
             try {
-                lh = new LogHandler(results);
+                lh = new LogHandler();
                 fh = new FileHarvest(job, lh);
             } catch (AppFatal af) {
-                results.addAll("FAILED: " + af.getMessage());
-                return results;
+                report("FAILED: " + af.getMessage());
+                return null;
             }
 
-            // go through list of directories, pausing after each to deal with
-            // results and check if we've been cancelled
-            // System.out.println("Processing size: " + job.items.size());
-            for (i = 0; i < job.items.size() && !isCancelled(); i++) {
-                // System.out.println("Processing " + job.items.get(i));
-                results.addAll("Starting " + job.items.get(i));
-                Platform.runLater(() -> {
-                    lv.getItems().addAll(results);
-                    results.clear();
-                    lv.scrollTo(lv.getItems().size() - 1);
-                });
-                if (fh.process(Paths.get(job.items.get(i)))) {
-                    veosConstCnt++;
-                } else {
-                    veosFailedCnt++;
-                }
-                double j = ((double) i + 1) / job.items.size();
-                Platform.runLater(() -> {
-                    lv.getItems().addAll(results);
-                    results.clear();
-                    lv.scrollTo(lv.getItems().size() - 1);
-                    pb.setProgress(j);
-                    successCnt.setText(Integer.toString(veosConstCnt));
-                    failCnt.setText(Integer.toString(veosFailedCnt));
-                });
+            // go through list of directories. The listener is called from the
+            // worker threads as each item is started and finished
+            mg = new MemoryGovernor(job.minFreeHeap);
+            engine = new HarvestEngine(fh, job.concurrency, mg);
+            if (isCancelled()) {
+                engine.cancel();
+            }
+            monitor = new HarvestMonitor("Harvest into " + job.outputDir, engine, progress, fh, mg);
+            monitor.register();
+            try {
+                engine.run(job.items, new HarvestEngine.Listener() {
+                    @Override
+                    public void itemStarted(int i, String item) {
+                        report("Starting " + item);
+                    }
+
+                    @Override
+                    public void itemFinished(int i, String item, boolean success) {
+                        if (success) {
+                            veosConstCnt.incrementAndGet();
+                        } else {
+                            veosFailedCnt.incrementAndGet();
+                        }
+                    }
+                }, progress);
+            } catch (InterruptedException ie) {
+                report("Cancelled");
+            } finally {
+                monitor.unregister();
+                mg.close();
+                fh.close();
+            }
+            report("Lowest free heap when starting a VEO: " + (fh.getLowestFreeMemory() / (1024 * 1024)) + " MB ("
+                    + mg.getDelays() + " VEO(s) delayed waiting for memory)");
+            if (job.resume) {
+                report(fh.getResumedCount() + " folder(s) had been completed by the previous run and were skipped");
+            }
+            if (job.incremental) {
+                report(fh.getSkippedCount() + " folder(s) had not changed since the last harvest and were skipped");
+            }
+            for (String s : fh.getExclusionReport()) {
+                report(s);
+            }
+            for (String s : fh.getPerformanceSummary()) {
+                report(s);
+            }
+            return null;
+        }
+
+        /**
+         * Stop starting new VEOs when the task is cancelled. Called on the FX
+         * application thread.
+         */
+        @Override
+        protected void cancelled() {
+            if (engine != null) {
+                engine.cancel();
             }
-            Platform.runLater(() -> {
-                statusL.setText("Finished");
-            });
-            return results;
         }
     }
 
+    /**
+     * Passes the messages logged by the harvest to the bridge. They are
+     * formatted here, on the harvest thread, not on the FX application
+     * thread.
+     */
     private class LogHandler extends Handler {
 
         final SimpleFormatter sf;
-        ObservableList<String> responses; // list of results generated
 
-        public LogHandler(ObservableList<String> responses) {
-            this.responses = responses;
+        public LogHandler() {
             sf = new SimpleFormatter();
         }
 
         @Override
         public void publish(LogRecord record) {
-            String s;
-
-            s = sf.format(record);
-            responses.addAll(s);
+            bridge.publish(new LogRecord(record.getLevel(), sf.format(record)));
         }
 
         @Override
@@ -15,6 +15,7 @@ import java.util.ResourceBundle;
 import javafx.application.HostServices;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -69,6 +70,18 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
     @FXML
     private ComboBox<String> hashAlgorithmCB; // select the hash algorithm
     @FXML
+    private ComboBox<String> concurrencyCB; // select the number of VEOs to build at once
+    @FXML
+    private ComboBox<String> minFreeHeapCB; // select the percentage of the heap that must be free to start a VEO
+    @FXML
+    private CheckBox stageVEOsCB; // assemble each VEO in a directory before zipping it
+    @FXML
+    private CheckBox incrementalCB; // skip directories that have not changed since the last harvest
+    @FXML
+    private CheckBox resumeCB; // skip items completed by the previous (interrupted) run
+    @FXML
+    private CheckBox verifyFormatsCB; // confirm the formats of content files from their content
+    @FXML
     private CheckBox verboseCB;
     @FXML
     private CheckBox debugCB;
@@ -158,6 +171,36 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
         hashAlgorithmCB.valueProperty().addListener((ObservableValue<? extends String> observable, String oldValue, String newValue) -> {
             job.hashAlg = newValue;
         });
+        for (int i = 1; i <= Math.max(Runtime.getRuntime().availableProcessors(), 4); i++) {
+            concurrencyCB.getItems().add(Integer.toString(i));
+        }
+        concurrencyCB.valueProperty().addListener((ObservableValue<? extends String> observable, String oldValue, String newValue) -> {
+            if (newValue != null) {
+                job.concurrency = Integer.parseInt(newValue);
+            }
+        });
+        minFreeHeapCB.getItems().addAll("0", "10", "20", "30", "40", "50");
+        minFreeHeapCB.valueProperty().addListener((ObservableValue<? extends String> observable, String oldValue, String newValue) -> {
+            if (newValue != null) {
+                job.minFreeHeap = Integer.parseInt(newValue);
+            }
+        });
+        stageVEOsCB.setIndeterminate(false);
+        stageVEOsCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
+            job.stageVEOs = newValue;
+        });
+        incrementalCB.setIndeterminate(false);
+        incrementalCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
+            job.incremental = newValue;
+        });
+        resumeCB.setIndeterminate(false);
+        resumeCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
+            job.resume = newValue;
+        });
+        verifyFormatsCB.setIndeterminate(false);
+        verifyFormatsCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
+            job.verifyFormats = newValue;
+        });
         verboseCB.setIndeterminate(false);
         verboseCB.selectedProperty().addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
             job.verbose = newValue;
@@ -207,6 +250,12 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
         createTooltip(excFoldersLV, (String) json.get("excludeFolders"));
         createTooltip(excFilesTA, (String) json.get("excludeFiles"));
         createTooltip(hashAlgorithmCB, (String) json.get("hashAlgorithm"));
+        createTooltip(concurrencyCB, (String) json.get("concurrency"));
+        createTooltip(minFreeHeapCB, (String) json.get("minFreeHeap"));
+        createTooltip(stageVEOsCB, (String) json.get("stageVEOs"));
+        createTooltip(incrementalCB, (String) json.get("incremental"));
+        createTooltip(resumeCB, (String) json.get("resume"));
+        createTooltip(verifyFormatsCB, (String) json.get("verifyFormats"));
         createTooltip(verboseCB, (String) json.get("verboseOutput"));
         createTooltip(debugCB, (String) json.get("debugOutput"));
         createTooltip(pfxFileTF, (String) json.get("pfxFile"));
@@ -287,7 +336,10 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
 
         verboseCB.setSelected(job.verbose);
         verboseCB.setSelected(job.debug);
-        harvestFoldersLV.setItems(job.items);
+        // the job's lists are plain lists (so a Job can be used without
+        // JavaFX); the list views wrap them, and all changes are made through
+        // the list views so that they are displayed
+        harvestFoldersLV.setItems(FXCollections.observableList(job.items));
         if (job.templateDir != null) {
             s = job.templateDir.toString();
             templateDirTF.setText(s);
@@ -311,7 +363,25 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
         if (job.hashAlg != null) {
             hashAlgorithmCB.getSelectionModel().select(job.hashAlg);
         }
-        excFoldersLV.setItems(job.foldersToExclude);
+        // the job may have been set up on a bigger machine (or for the
+        // headless runner), so add its concurrency if it isn't offered
+        s = Integer.toString(job.concurrency);
+        if (!concurrencyCB.getItems().contains(s)) {
+            concurrencyCB.getItems().add(s);
+            concurrencyCB.getItems().sort((String x, String y) -> Integer.compare(Integer.parseInt(x), Integer.parseInt(y)));
+        }
+        concurrencyCB.getSelectionModel().select(s);
+        s = Integer.toString(job.minFreeHeap);
+        if (!minFreeHeapCB.getItems().contains(s)) {
+            minFreeHeapCB.getItems().add(s);
+            minFreeHeapCB.getItems().sort((String x, String y) -> Integer.compare(Integer.parseInt(x), Integer.parseInt(y)));
+        }
+        minFreeHeapCB.getSelectionModel().select(s);
+        stageVEOsCB.setSelected(job.stageVEOs);
+        incrementalCB.setSelected(job.incremental);
+        resumeCB.setSelected(job.resume);
+        verifyFormatsCB.setSelected(job.verifyFormats);
+        excFoldersLV.setItems(FXCollections.observableList(job.foldersToExclude));
         for (i = 0; i < job.filesToExclude.size(); i++) {
             excFilesTA.appendText(job.filesToExclude.get(i));
             excFilesTA.appendText("\n");
@@ -371,12 +441,12 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
                 return;
             }
             if (s.compareTo(job.items.get(i)) < 0) {
-                job.items.add(i, s);
+                harvestFoldersLV.getItems().add(i, s);
                 break;
             }
         }
         if (i == job.items.size()) {
-            job.items.add(s);
+            harvestFoldersLV.getItems().add(s);
         }
         updateCreateButtonState();
     }
@@ -391,7 +461,7 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
 
         toDelete = harvestFoldersLV.getSelectionModel().getSelectedIndices();
         for (i = 0; i < toDelete.size(); i++) {
-            job.items.remove(toDelete.get(i).intValue());
+            harvestFoldersLV.getItems().remove(toDelete.get(i).intValue());
         }
         updateCreateButtonState();
     }
@@ -507,12 +577,12 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
                 return;
             }
             if (s.compareTo(job.foldersToExclude.get(i)) < 0) {
-                job.foldersToExclude.add(i, s);
+                excFoldersLV.getItems().add(i, s);
                 break;
             }
         }
         if (i == job.foldersToExclude.size()) {
-            job.foldersToExclude.add(s);
+            excFoldersLV.getItems().add(s);
         }
         updateCreateButtonState();
     }
@@ -527,7 +597,7 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
 
         toDelete = excFoldersLV.getSelectionModel().getSelectedIndices();
         for (i = 0; i < toDelete.size(); i++) {
-            job.foldersToExclude.remove(toDelete.get(i).intValue());
+            excFoldersLV.getItems().remove(toDelete.get(i).intValue());
         }
         updateCreateButtonState();
     }
@@ -767,12 +837,12 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
                             return;
                         }
                         if (s.compareTo(job.items.get(i)) < 0) {
-                            job.items.add(i, s);
+                            harvestFoldersLV.getItems().add(i, s);
                             break;
                         }
                     }
                     if (i == job.items.size()) {
-                        job.items.add(s);
+                        harvestFoldersLV.getItems().add(s);
                     }
                 }
             } else if (lv == excFoldersLV) {
@@ -783,12 +853,12 @@ public class FXMLSetupRunController extends BaseVEOController implements Initial
                             return;
                         }
                         if (s.compareTo(job.foldersToExclude.get(i)) < 0) {
-                            job.foldersToExclude.add(i, s);
+                            excFoldersLV.getItems().add(i, s);
                             break;
                         }
                     }
                     if (i == job.foldersToExclude.size()) {
-                        job.foldersToExclude.add(s);
+                        excFoldersLV.getItems().add(s);
                     }
                 }
             }
@@ -5,28 +5,28 @@
  */
 package fileharvestgui;
 
-import VEOCreate.CreateVEO;
-import VEOCreate.Fragment;
 import VERSCommon.PFXUser;
 import VERSCommon.VEOError;
 import VERSCommon.VEOFatal;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.Iterator;
-import java.util.TimeZone;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -40,9 +40,12 @@ import java.util.regex.PatternSyntaxException;
 public class FileHarvest {
 
     private static String classname = "FileHarvest"; // for reporting
-    private static ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    private Runtime r;
-    private long freemem;
+    private static final String HARVEST_DESC_HEAD // start of the harvest description, up to the base directory
+            = "<rdf:RDF xmlns:ex=\"http://www.agls.gov.au/agls/terms#\"\n>"
+            + "<rdf:Description rdf:about=\"http://www.example.org/124\">\n"
+            + " <ex:baseDirectory >";
+    private AtomicLong freemem;     // free heap (bytes) when the last VEO was started
+    private AtomicLong lowestFreemem; // lowest free heap (bytes) when a VEO was started
 
     // global variables storing information about this export (as a whole)
     private Path outputDirectory;   // directory in which VEOS are to be generated
@@ -50,13 +53,23 @@ public class FileHarvest {
     private Path baseDirectory;     // directory to harvest
     private Path ignoreFile;        // file of things to ignore when harvesting
     private Path descFile;          // text file containing an archival description of the harvest
-    private int exportCount;        // number of exports processed
+    private AtomicInteger exportCount; // number of exports processed
+    private AtomicInteger skippedCount; // number of exports skipped as they had not changed
+    private boolean incremental;    // true if unchanged directories are not harvested again
+    private AtomicInteger resumedCount; // number of exports skipped as they were completed by a previous run
+    private boolean resume;         // true if items completed by the previous run are skipped
+    private HarvestJournal journal; // journal of the harvest (allows an interrupted harvest to be resumed)
     private Path templateDirectory; // directory that contains all the files needed to build the directory
     private boolean ignoreFileWithNoExtension; // if true, don't harvest any files with no file extension
     private TreeMap<String, String> extensionsIgnored; // list of extensions to ignore
     private TreeMap<String, String> directoriesIgnored; // list of directories to ignore
     private ArrayList<Pattern> ignorePatterns; // list of file name patterns to ignore
-    private ArrayList<String> validLTPF; // list of valid long term preservation formats
+    private ExclusionIndex exclusions; // compiled form of the above used when harvesting
+    private String harvestDescTail; // the harvest description after the base directory (the same for every VEO)
+    private FormatIdentifier formats; // valid long term preservation formats
+    private boolean verifyFormats;  // true if the formats of content files are confirmed from their content
+    private boolean estimateOnly;   // true if the harvest is only estimated (no VEOs are built)
+    private int maxOpenDirs;        // maximum number of directories held open by each walk of a tree
     private String hashAlg;         // hash algorithm to use (default SHA-512)
     private Path pfxFile;           // the pfx file containing the private key to sign the VEO
     private String pfxFilePassword; // the password for the pfx file
@@ -65,18 +78,21 @@ public class FileHarvest {
     private String userId;          // user performing the converstion
     private PFXUser user;           // User that will sign the VEOs
     private String archivalDesc;    // precanned description of this harvesting
-    private Fragment recordAGLS;    // template for the AGLS objMetadata describing the record as a whole
-    private String[] recMetadata;   // collection of metadata describing this record
-    private Fragment directoryAGLS; // template for the AGLS objMetadata describing a directory
-    private Fragment fileAGLS; // template for the AGLS objMetadata describing a file
-    private boolean addedDummyLTPF;  // true if dummy LTPF has been added to VEO
-    private int iocnt;              // count of the information objects added (used to make a unique id)
-
-    // variables for this capture
-    private Path veoDirectory;      // directory in which to create the VEO content for this file
+    private MetadataTemplate recordAGLS; // template for the AGLS objMetadata describing the record as a whole
+    private MetadataTemplate directoryAGLS; // template for the AGLS objMetadata describing a directory
+    private MetadataTemplate fileAGLS; // template for the AGLS objMetadata describing a file
+    private boolean stageVEOs;      // true if VEOs are assembled in a '.veo' directory before being zipped
+    private HashingStage hashingStage; // hashes content files in parallel (null if staging VEOs)
+    private ConcurrentHashMap<String, String> recordsInProgress; // names of the VEOs currently being constructed
+    private LogFileHandler detailLog; // writes the per file detail to disk (null unless debugging)
+    private final VEOTimings jobTimings = new VEOTimings(); // time spent in each phase, totalled over the VEOs
+
+    // the state of each capture is held in a HarvestRecord, so that several
+    // VEOs can be constructed at the same time
 
     // private final static Logger rootLog = Logger.getLogger("FileHarvest");
     private final static Logger LOG = Logger.getLogger("FileHarvest.FileHarvestAnalysis");
+    private final static Logger DETAIL = Logger.getLogger("FileHarvest.FileHarvestAnalysis.detail"); // per file detail (debug only)
 
     /**
      * Default constructor
@@ -104,6 +120,15 @@ public class FileHarvest {
 
         // read valid long term preservation formats
         getValidLTPF(Paths.get(templateDirectory.toString(), "VERSltpf.txt"));
+
+        exclusions = new ExclusionIndex(ignorePatterns, directoriesIgnored, extensionsIgnored.keySet(), ignoreFileWithNoExtension);
+        harvestDescTail = compileHarvestDescription();
+
+        // open the journal last, so that it is not left open if the
+        // configuration fails
+        journal = new HarvestJournal(outputDirectory, resume);
+        openDetailLog();
+        startHashingStage();
     }
 
     /**
@@ -138,8 +163,13 @@ public class FileHarvest {
         // set up and configure
         setup();
         verbose = false;
-        debug = false;
+        debug = j.debug;
         hashAlg = j.hashAlg;
+        stageVEOs = j.stageVEOs;
+        incremental = j.incremental;
+        resume = j.resume;
+        verifyFormats = j.verifyFormats;
+        maxOpenDirs = j.maxOpenDirs;
         templateDirectory = checkFile("veo template directory", j.templateDir, true);
         pfxFile = checkFile("PFX file", j.pfxFile, false);
         pfxFilePassword = j.pfxFilePassword;
@@ -149,6 +179,7 @@ public class FileHarvest {
             throw new AppFatal(ve.toString());
         }
         outputDirectory = checkFile("output directory", j.outputDir, true);
+        estimateOnly = j.estimate;
 
         //process the excluded files
         for (i = 0; i < j.filesToExclude.size(); i++) {
@@ -174,13 +205,25 @@ public class FileHarvest {
         // ignoreFile = checkFile("Ignore File", j.ignoreFile, false);
         // read the objMetadata fragments
         try {
-            recordAGLS = Fragment.parseTemplate(templateDirectory.resolve("recordAGLS.txt").toFile());
-            directoryAGLS = Fragment.parseTemplate(templateDirectory.resolve("directoryAGLS.txt").toFile());
-            fileAGLS = Fragment.parseTemplate(templateDirectory.resolve("fileAGLS.txt").toFile());
+            recordAGLS = MetadataTemplate.parse(templateDirectory.resolve("recordAGLS.txt"));
+            directoryAGLS = MetadataTemplate.parse(templateDirectory.resolve("directoryAGLS.txt"));
+            fileAGLS = MetadataTemplate.parse(templateDirectory.resolve("fileAGLS.txt"));
         } catch (VEOFatal vf) {
             throw new AppFatal("Template directory did not contain the required template: " + vf.getMessage());
         }
         archivalDesc = " ";
+
+        exclusions = new ExclusionIndex(ignorePatterns, directoriesIgnored, extensionsIgnored.keySet(), ignoreFileWithNoExtension);
+        harvestDescTail = compileHarvestDescription();
+
+        // open the journal last, so that it is not left open if the
+        // configuration fails. An estimate doesn't touch the output
+        // directory (resuming would clean up after an interrupted run)
+        if (!estimateOnly) {
+            journal = new HarvestJournal(outputDirectory, resume);
+            openDetailLog();
+            startHashingStage();
+        }
     }
 
     /**
@@ -195,7 +238,12 @@ public class FileHarvest {
         outputDirectory = Paths.get(".");
         descFile = null;
         templateDirectory = Paths.get(".");
-        exportCount = 0;
+        exportCount = new AtomicInteger(0);
+        skippedCount = new AtomicInteger(0);
+        incremental = false;
+        resumedCount = new AtomicInteger(0);
+        resume = false;
+        journal = null;
         debug = false;
         verbose = false;
         ignoreFile = null;
@@ -203,7 +251,10 @@ public class FileHarvest {
         extensionsIgnored = new TreeMap<>();
         directoriesIgnored = new TreeMap<>();
         ignorePatterns = new ArrayList<>();
-        validLTPF = new ArrayList<>();
+        formats = null;
+        verifyFormats = false;
+        estimateOnly = false;
+        maxOpenDirs = TreeWalker.DEFAULT_MAX_OPEN;
         hashAlg = "SHA-512";
         pfxFile = null;
         pfxFilePassword = null;
@@ -214,13 +265,69 @@ public class FileHarvest {
         user = null;
         recordAGLS = null;
         directoryAGLS = null;
-        recMetadata = new String[6];
         fileAGLS = null;
-        addedDummyLTPF = false;
-        iocnt = 1;
+        stageVEOs = false;
+        hashingStage = null;
+        recordsInProgress = new ConcurrentHashMap<>();
+        freemem = new AtomicLong(0);
+        lowestFreemem = new AtomicLong(Long.MAX_VALUE);
+    }
 
-        // variables for the whole processing
-        r = Runtime.getRuntime();
+    /**
+     * Start the threads that hash the content files. Staged VEOs are hashed
+     * by VEOCreate, so don't need them.
+     */
+    private void startHashingStage() {
+        if (!stageVEOs) {
+            hashingStage = new HashingStage(Runtime.getRuntime().availableProcessors(), HashingStage.defaultBudget());
+        }
+    }
+
+    /**
+     * Release the resources used by the harvest (i.e. the hashing threads
+     * and the journal).
+     * Call when all the VEOs have been constructed.
+     */
+    public void close() {
+        if (hashingStage != null) {
+            hashingStage.shutdown();
+            hashingStage = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        if (detailLog != null) {
+            DETAIL.removeHandler(detailLog);
+            detailLog.close();
+            detailLog = null;
+        }
+    }
+
+    /**
+     * In debug mode, open the detail log. Rather than a warning for each
+     * file excluded or not in a long term preservation format (which could
+     * be hundreds of thousands of them), a summary is logged for each VEO
+     * (see EventSummary). The warnings for each file are only written, to
+     * 'FileHarvest-detail.log' in the output directory, when debugging.
+     */
+    private void openDetailLog() {
+        Handler h[];
+        int i;
+
+        h = DETAIL.getHandlers();
+        for (i = 0; i < h.length; i++) {
+            DETAIL.removeHandler(h[i]);
+        }
+        DETAIL.setUseParentHandlers(false);
+        if (!debug) {
+            DETAIL.setLevel(Level.OFF);
+            detailLog = null;
+            return;
+        }
+        DETAIL.setLevel(Level.ALL);
+        detailLog = new LogFileHandler(outputDirectory.resolve("FileHarvest-detail.log").toFile());
+        DETAIL.addHandler(detailLog);
     }
 
     /**
@@ -235,7 +342,7 @@ public class FileHarvest {
      */
     private void configure(String args[]) throws AppFatal {
         int i;
-        String usage = "fileHarvest [-v] [-d] [-a <descFile>] [-o <directory>] [-t templateDirectory] [-h hashAlg] [-s pfxFile password] [-i ignoreFile] directory";
+        String usage = "fileHarvest [-v] [-d] [-a <descFile>] [-o <directory>] [-t templateDirectory] [-h hashAlg] [-s pfxFile password] [-i ignoreFile] [-stage] [-incremental] [-resume] [-verifyformats] [-maxopendirs <n>] directory...";
 
         // process command line arguments
         i = 0;
@@ -306,6 +413,44 @@ public class FileHarvest {
                         i++;
                         break;
 
+                    // '-stage' assembles each VEO in a '.veo' directory before zipping it
+                    case "-stage":
+                        stageVEOs = true;
+                        i++;
+                        break;
+
+                    // '-incremental' only rebuilds VEOs whose directories have changed since the last harvest
+                    case "-incremental":
+                        incremental = true;
+                        i++;
+                        break;
+
+                    // '-resume' skips the items completed by the previous (interrupted) run
+                    case "-resume":
+                        resume = true;
+                        i++;
+                        break;
+
+                    // '-verifyformats' confirms the format of content files from their first bytes, not just their extension
+                    case "-verifyformats":
+                        verifyFormats = true;
+                        i++;
+                        break;
+
+                    // '-maxopendirs' limits the directories held open at once while walking each tree
+                    case "-maxopendirs":
+                        i++;
+                        try {
+                            maxOpenDirs = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException nfe) {
+                            throw new AppFatal("Maximum open directories must be a number: '" + args[i] + "'. Usage: " + usage);
+                        }
+                        if (maxOpenDirs < 1) {
+                            throw new AppFatal("Maximum open directories must be at least 1. Usage: " + usage);
+                        }
+                        i++;
+                        break;
+
                     default:
                         // if unrecognised arguement, print help string and exit
                         if (args[i].charAt(0) == '-') {
@@ -329,9 +474,9 @@ public class FileHarvest {
 
         // read the objMetadata fragments
         try {
-            recordAGLS = Fragment.parseTemplate(Paths.get(templateDirectory.toString(), "recordAGLS.txt").toFile());
-            directoryAGLS = Fragment.parseTemplate(Paths.get(templateDirectory.toString(), "directoryAGLS.txt").toFile());
-            fileAGLS = Fragment.parseTemplate(Paths.get(templateDirectory.toString(), "fileAGLS.txt").toFile());
+            recordAGLS = MetadataTemplate.parse(Paths.get(templateDirectory.toString(), "recordAGLS.txt"));
+            directoryAGLS = MetadataTemplate.parse(Paths.get(templateDirectory.toString(), "directoryAGLS.txt"));
+            fileAGLS = MetadataTemplate.parse(Paths.get(templateDirectory.toString(), "fileAGLS.txt"));
         } catch (VEOFatal vf) {
             throw new AppFatal("Template directory did not contain the required template: " + vf.getMessage());
         }
@@ -354,6 +499,15 @@ public class FileHarvest {
             LOG.log(Level.INFO, "No Ignore File is specified");
         }
         LOG.log(Level.INFO, "Output directory is ''{0}''", new Object[]{outputDirectory.toString()});
+        if (stageVEOs) {
+            LOG.log(Level.INFO, "VEOs are staged in a directory before being zipped");
+        }
+        if (incremental) {
+            LOG.log(Level.INFO, "Incremental harvest: directories that have not changed since the last harvest are skipped");
+        }
+        if (verifyFormats) {
+            LOG.log(Level.INFO, "The formats of content files are confirmed from their content");
+        }
         LOG.log(Level.INFO, "User running harvest: ''{0}''", new Object[]{userId});
         LOG.log(Level.INFO, "PFX user is ''{0}''", new Object[]{user.getUserId()});
     }
@@ -601,13 +755,14 @@ public class FileHarvest {
      *
      * This reads a set of file extensions from the file 'ltpf.txt' in the
      * template directory. A file extension is the characters after the '.' in a
-     * file name (e.g. 'doc', or 'pdf')
+     * file name (e.g. 'doc', or 'pdf'); a leading '.' is ignored.
      */
     private void getValidLTPF(Path labels) {
         FileReader fr = null;
         BufferedReader br = null;
         String line;
 
+        formats = new FormatIdentifier(verifyFormats);
         try {
             fr = new FileReader(labels.toString());
             br = new BufferedReader(fr);
@@ -616,7 +771,7 @@ public class FileHarvest {
                 if (line.isEmpty()) {
                     continue;
                 }
-                validLTPF.add(line);
+                formats.addLTPF(line);
             }
         } catch (FileNotFoundException fnfe) {
             LOG.log(Level.WARNING, "Valid LTPF file ''{0}'' does not exist", new Object[]{labels.toString()});
@@ -642,17 +797,10 @@ public class FileHarvest {
 
     /**
      * Test to see if file is a LTPF The file extension is extracted from the
-     * filename and looked up in the array of valid LTPFs
+     * filename and looked up in the set of valid LTPFs
      */
-    private boolean isLTPF(String filename) {
-        String filetype;
-        int i;
-
-        if ((i = filename.lastIndexOf('.')) == -1) {
-            return false;
-        }
-        filetype = filename.substring(i).toLowerCase();
-        return validLTPF.contains(filetype);
+    boolean isLTPF(String filename) {
+        return formats.isLTPF(filename);
     }
 
     /**
@@ -660,79 +808,165 @@ public class FileHarvest {
      *
      * Make sure any XML special characters in a string are encoded
      */
-    private void xmlEncode(StringBuilder out, String in) {
-        int i;
-        char c;
-
+    void xmlEncode(StringBuilder out, String in) {
         if (in == null) {
             return;
         }
-        for (i = 0; i < in.length(); i++) {
-            c = in.charAt(i);
-            switch (c) {
-                case '&':
-                    if (!in.regionMatches(true, i, "&amp;", 0, 5)
-                            && !in.regionMatches(true, i, "&lt;", 0, 4)
-                            && !in.regionMatches(true, i, "&gt;", 0, 4)
-                            && !in.regionMatches(true, i, "&quot;", 0, 6)
-                            && !in.regionMatches(true, i, "&apos;", 0, 6)) {
-                        out.append("&amp;");
-                    }
-                    break;
-                case '<':
-                    out.append("&lt;");
-                    break;
-                case '>':
-                    out.append("&gt;");
-                    break;
-                case '"':
-                    out.append("&quot;");
-                    break;
-                case '\'':
-                    out.append("&apos;");
-                    break;
-                default:
-                    out.append(c);
-                    break;
-            }
-        }
+        XMLEscaper.encode(out, in);
     }
 
     /**
-     * Process the base directory
+     * Process the a single directory. This method may be called by several
+     * threads at the same time; each call constructs a separate VEO.
+     *
+     * @param directory the directory to process
+     * @return true if the creation of a VEO succeeded
      */
-    static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    public boolean process(Path directory) {
+        return process(directory, null);
+    }
 
     /**
-     * Process the a single directory
+     * Process a single directory, counting the content files as they are
+     * written into the VEO.
      *
      * @param directory the directory to process
+     * @param progress the progress of this item (may be null)
      * @return true if the creation of a VEO succeeded
      */
-    public boolean process(Path directory) {
+    boolean process(Path directory, HarvestProgress.Item progress) {
+        if (journal != null && journal.isCompleted(directory)) {
+            LOG.log(Level.WARNING, "''{0}'' was completed by the previous run, so has not been harvested again", new Object[]{directory.toString()});
+            resumedCount.incrementAndGet();
+            return true;
+        }
         try {
-            createVEO(directory);
+            createVEO(directory, progress);
         } catch (VEOError ve) {
             LOG.log(Level.WARNING, "VEO ''{0}.veo.zip'' incomplete because:\n{1}", new Object[]{directory.toString(), ve.getMessage()});
+            if (journal != null) {
+                journal.failed(directory, ve.getMessage());
+            }
             return false;
         }
         return true;
     }
 
+    /**
+     * Get the number of VEOs successfully constructed
+     *
+     * @return the number of VEOs
+     */
+    public int getExportCount() {
+        return exportCount.get();
+    }
+
+    /**
+     * Get the number of files and directories excluded by each of the
+     * exclusion rules (ignored patterns, directories, and extensions)
+     *
+     * @return one line per rule
+     */
+    public List<String> getExclusionReport() {
+        return exclusions.describeHits();
+    }
+
+    /**
+     * Get the compiled exclusion rules (with the number of hits on each)
+     *
+     * @return the exclusion rules
+     */
+    ExclusionIndex getExclusions() {
+        return exclusions;
+    }
+
+    /**
+     * Get the number of directories not harvested as they had not changed
+     * since the last harvest (incremental mode only)
+     *
+     * @return the number of directories skipped
+     */
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Get the number of directories not harvested as they were completed by
+     * the previous run (when resuming)
+     *
+     * @return the number of directories skipped
+     */
+    public int getResumedCount() {
+        return resumedCount.get();
+    }
+
+    /**
+     * Get the number of content files waiting to be hashed
+     *
+     * @return the number of files (0 if the VEOs are staged)
+     */
+    public long getHashQueueDepth() {
+        HashingStage hs;
+
+        hs = hashingStage;
+        return hs == null ? 0 : hs.getQueued();
+    }
+
+    /**
+     * Get the amount of content read into memory waiting to be hashed and
+     * written
+     *
+     * @return the bytes of content (0 if the VEOs are staged)
+     */
+    public long getHashBuffered() {
+        HashingStage hs;
+
+        hs = hashingStage;
+        return hs == null ? 0 : hs.getBuffered();
+    }
+
+    /**
+     * Get the free heap when the last VEO was started
+     *
+     * @return the free heap in bytes
+     */
+    public long getFreeMemory() {
+        return freemem.get();
+    }
+
+    /**
+     * Get the lowest free heap seen when starting a VEO
+     *
+     * @return the free heap in bytes (0 if no VEO has been started)
+     */
+    public long getLowestFreeMemory() {
+        long l;
+
+        l = lowestFreemem.get();
+        return l == Long.MAX_VALUE ? 0 : l;
+    }
+
     /**
      * Create VEO
      *
      * This method creates a new VEO
      *
      * @param baseDirectory	the file to parse
+     * @param progress counts the content files written (may be null)
      * @throws VEOError if an error occurred that prevented the processing of
      * this XML file
      */
-    private void createVEO(Path baseDirectory) throws VEOError {
-        long l;
-        CreateVEO cv;
-        Path p;
+    private void createVEO(Path baseDirectory, HarvestProgress.Item progress) throws VEOError {
+        long l, start, t;
+        VEOWriter cv;
+        Path p, realPath, manifestFile;
+        HarvestRecord rec;
+        VEOTimings times;
+        HarvestEvents.VEO event; // records the construction in a flight recording
+        HarvestEvents.Sign signEvent;
+        HarvestEvents.Finalise finaliseEvent;
         String recordName;      // name of this record element (from the file, without the final '.xml')
+        String status;          // what happened to the VEO (for the performance record)
         String description[] = {"Created with FileHarvest"};
         String errors[] = {""};
         StringBuffer res;
@@ -742,72 +976,538 @@ public class FileHarvest {
             throw new VEOFatal("Passed null base directory to be processed");
         }
 
-        // reset, free memory, and print status
-        baos.reset();
-        r.gc();
-        l = r.freeMemory();
-        // LOG.log(Level.WARNING, "{0} Processing: ''{1}''", new Object[]{versDateTime(false, 0), baseDirectory.toString()});
-        freemem = l;
+        // note the free memory. We don't force a garbage collection here;
+        // if memory is tight, the MemoryGovernor delays starting the VEO
+        l = MemoryGovernor.freeHeap();
+        freemem.set(l);
+        lowestFreemem.accumulateAndGet(l, Math::min);
+        LOG.log(Level.FINE, "Processing ''{0}'' with {1} MB of heap free", new Object[]{baseDirectory.toString(), l / (1024 * 1024)});
 
-        // get the record name from the name of the base directory
+        // get the record name from the name of the base directory. Make sure
+        // that it is not the same as a VEO being built by another thread
         recordName = "FSC-" + baseDirectory.getFileName().toString() + "-" + versDateTime(true, System.currentTimeMillis());
+        if (recordsInProgress.putIfAbsent(recordName, recordName) != null) {
+            int i = 2;
+            while (recordsInProgress.putIfAbsent(recordName + "-" + i, recordName) != null) {
+                i++;
+            }
+            recordName = recordName + "-" + i;
+        }
+        start = System.nanoTime();
+        event = new HarvestEvents.VEO();
+        event.begin();
+        rec = null;
+        status = "failed";
+        try {
+            rec = new HarvestRecord(baseDirectory, recordName);
+            times = rec.times;
+            if (journal != null) {
+                journal.started(baseDirectory, recordName);
+            }
+            try {
+                realPath = baseDirectory.toRealPath();
+            } catch (IOException ioe) {
+                throw new VEOError("Failed to get real path of base directory: " + ioe.toString());
+            }
+
+            // if incremental, don't rebuild the VEO if nothing has changed
+            // since the last harvest
+            manifestFile = Manifest.location(outputDirectory, realPath);
+            rec.manifest = new Manifest(hashAlg);
+            if (incremental) {
+                t = System.nanoTime();
+                rec.previous = readManifest(manifestFile);
+                if (rec.previous != null && !treeChanged(rec)) {
+                    times.end(VEOTimings.Phase.SCAN, t);
+                    skippedCount.incrementAndGet();
+                    if (journal != null) {
+                        journal.unchanged(baseDirectory);
+                    }
+                    status = "unchanged";
+                    return;
+                }
+                times.end(VEOTimings.Phase.SCAN, t);
+            }
+
+            // if staging, create a record directory in the output directory
+            t = System.nanoTime();
+            if (stageVEOs) {
+                p = Paths.get(outputDirectory.toString(), recordName + ".veo");
+                if (!deleteDirectory(p)) {
+                    throw new VEOError("Arrgh: directory '" + p.toString() + "' already exists & couldn't be deleted");
+                }
+                try {
+                    rec.veoDirectory = Files.createDirectory(p);
+                } catch (IOException ioe) {
+                    throw new VEOError("Arrgh: could not create record directory '" + p.toString() + "': " + ioe.toString());
+                }
+            }
+
+            // capture metadata about this record
+            rec.recMetadata[0] = rec.recordURI;
+            rec.recMetadata[1] = realPath.toString();
+            rec.recMetadata[2] = recordName;
+            rec.recMetadata[3] = userId;
+            rec.recMetadata[4] = versDateTime(true, System.currentTimeMillis());
+            rec.recMetadata[5] = archivalDesc;
+
+            // create VEO, either in a staging directory or straight into
+            // the zip file
+            if (stageVEOs) {
+                cv = new StagedVEOWriter(outputDirectory, recordName, hashAlg, verbose, progress);
+            } else {
+                cv = new ZipVEOWriter(outputDirectory, recordName, hashAlg, hashingStage, progress);
+            }
+            rec.cv = cv;
+            try {
+                cv.addVEOReadme(templateDirectory);
+                cv.addEvent(versDateTime(false, System.currentTimeMillis()), "Converted to VEO", userId, description, errors);
+                cv.addContent(baseDirectory);
+                t = times.end(VEOTimings.Phase.SETUP, t);
+                res = null;
+                try {
+                    processTree(rec, readEntry(baseDirectory, null));
+                } catch (VEOError ve) {
+
+                    // an interrupted harvest is abandoned, rather than
+                    // finishing the VEO with what has been added so far
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw ve;
+                    }
+                    LOG.log(Level.WARNING, "VEO ''{0}.veo.zip'' incomplete because:\n{1}", new Object[]{recordName, ve.getMessage()});
+                }
+                if (res != null) {
+                    if (res.charAt(res.length() - 1) == '\n') {
+                        res.setCharAt(res.length() - 1, ' ');
+                    }
+                    LOG.log(Level.WARNING, "VEO ''{0}.veo.zip'' incomplete because:\n{1}", new Object[]{recordName, res.toString()});
+                }
+                reportEvents(rec);
+                t = System.nanoTime();
+                cv.finishFiles();
+                t = times.end(VEOTimings.Phase.FINISH, t);
+                signEvent = new HarvestEvents.Sign();
+                signEvent.begin();
+                cv.sign(user, hashAlg);
+                signEvent.end();
+                if (signEvent.shouldCommit()) {
+                    signEvent.veo = recordName;
+                    signEvent.commit();
+                }
+                t = times.end(VEOTimings.Phase.SIGN, t);
+                finaliseEvent = new HarvestEvents.Finalise();
+                finaliseEvent.begin();
+                cv.finalise();
+                finaliseEvent.end();
+                if (finaliseEvent.shouldCommit()) {
+                    finaliseEvent.veo = recordName;
+                    finaliseEvent.bytes = veoSize(recordName);
+                    finaliseEvent.commit();
+                }
+                times.end(VEOTimings.Phase.FINALISE, t);
+            } catch (VEOError ve) {
+                cv.abandon();
+                throw ve;
+            }
+            if (journal != null) {
+                journal.finalised(baseDirectory, outputDirectory.resolve(recordName + ".veo.zip"));
+            }
 
-        // create a record directory in the output directory
-        p = Paths.get(outputDirectory.toString(), recordName + ".veo");
-        if (!deleteDirectory(p)) {
-            throw new VEOError("Arrgh: directory '" + p.toString() + "' already exists & couldn't be deleted");
+            // remember what was harvested for the next incremental harvest
+            t = System.nanoTime();
+            rec.manifest.setRecordName(recordName);
+            try {
+                rec.manifest.write(manifestFile);
+            } catch (IOException ioe) {
+                LOG.log(Level.WARNING, "Failed writing manifest ''{0}'': {1}", new Object[]{manifestFile.toString(), ioe.getMessage()});
+            }
+            times.end(VEOTimings.Phase.MANIFEST, t);
+            status = "built";
+        } finally {
+            recordsInProgress.remove(recordName);
+            if (rec != null) {
+                rec.times.elapsed = System.nanoTime() - start;
+                recordTimings(recordName, rec.times, status);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.item = baseDirectory.toString();
+                event.veo = recordName;
+                event.status = status;
+                if (rec != null) {
+                    event.files = rec.times.files;
+                    event.directories = rec.times.directories;
+                    event.bytes = rec.times.bytes;
+                }
+                event.commit();
+            }
         }
+
+        // count the number of exports successfully processed
+        exportCount.incrementAndGet();
+    }
+
+    /**
+     * Get the size of a VEO's zip file (for the flight recording)
+     */
+    private long veoSize(String recordName) {
         try {
-            veoDirectory = Files.createDirectory(p);
+            return Files.size(outputDirectory.resolve(recordName + ".veo.zip"));
         } catch (IOException ioe) {
-            throw new VEOError("Arrgh: could not create record directory '" + p.toString() + "': " + ioe.toString());
+            return 0;
+        }
+    }
+
+    /**
+     * Add the timings of a VEO to the job total, and append them to the
+     * performance record ('FileHarvest-perf.csv' in the output directory)
+     */
+    private void recordTimings(String recordName, VEOTimings t, String status) {
+        BufferedWriter bw;
+        Path perfFile;
+        boolean exists;
+
+        jobTimings.add(t);
+        perfFile = getPerformanceRecord();
+        synchronized (jobTimings) {
+            exists = Files.exists(perfFile);
+            try {
+                bw = Files.newBufferedWriter(perfFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                try {
+                    if (!exists) {
+                        bw.write(VEOTimings.csvHeader());
+                        bw.newLine();
+                    }
+                    bw.write(t.toCSV(recordName, status));
+                    bw.newLine();
+                } finally {
+                    bw.close();
+                }
+            } catch (IOException ioe) {
+                LOG.log(Level.WARNING, "Failed writing performance record ''{0}'': {1}", new Object[]{perfFile.toString(), ioe.getMessage()});
+            }
+        }
+    }
+
+    /**
+     * Get the performance record of the runs into the output directory
+     *
+     * @return the path of the performance record (which may not exist)
+     */
+    Path getPerformanceRecord() {
+        return outputDirectory.resolve("FileHarvest-perf.csv");
+    }
+
+    /**
+     * Get the time spent in each phase of building the VEOs, totalled over
+     * all the VEOs built so far
+     *
+     * @return the totals
+     */
+    VEOTimings getTimings() {
+        return jobTimings;
+    }
+
+    /**
+     * Describe where the time went in building the VEOs (totalled over all
+     * the VEOs built so far)
+     *
+     * @return the lines of the description
+     */
+    public List<String> getPerformanceSummary() {
+        return jobTimings.describe();
+    }
+
+    /**
+     * Log the summary of the warnings about individual files in a VEO
+     */
+    private void reportEvents(HarvestRecord rec) {
+        StringBuilder sb;
+        List<String> l;
+        int i;
+
+        if (rec.events.isEmpty()) {
+            return;
         }
+        l = rec.events.summarise();
+        sb = new StringBuilder();
+        for (i = 0; i < l.size(); i++) {
+            sb.append("\n  ");
+            sb.append(l.get(i));
+        }
+        LOG.log(Level.WARNING, "VEO ''{0}.veo.zip'': {1}{2}", new Object[]{rec.recordName, debug ? "(the detail is in FileHarvest-detail.log)" : "", sb.toString()});
+    }
 
-        // capture metadata about this record
-        recMetadata[0] = "http://www.prov.vic.gov.au/records/" + recordName;
+    /**
+     * Read the manifest written by the last harvest of a directory
+     *
+     * @param manifestFile the manifest
+     * @return the manifest, or null if there isn't one (or it can't be read)
+     */
+    private Manifest readManifest(Path manifestFile) {
+        if (!Files.exists(manifestFile)) {
+            LOG.log(Level.INFO, "No manifest ''{0}'' from a previous harvest, so harvesting everything", new Object[]{manifestFile.toString()});
+            return null;
+        }
         try {
-            recMetadata[1] = baseDirectory.toRealPath().toString();
+            return Manifest.read(manifestFile);
         } catch (IOException ioe) {
-            throw new VEOError("Failed to get real path of base directory: " + ioe.toString());
+            LOG.log(Level.WARNING, "Could not read manifest ''{0}'' from a previous harvest, so harvesting everything: {1}", new Object[]{manifestFile.toString(), ioe.getMessage()});
+            return null;
         }
-        recMetadata[2] = recordName;
-        recMetadata[3] = userId;
-        recMetadata[4] = versDateTime(true, System.currentTimeMillis());
-        recMetadata[5] = archivalDesc;
+    }
 
-        // we haven't added the dummy LTPF file yet
-        addedDummyLTPF = false;
+    /**
+     * Compare the directory tree being harvested with the manifest from the
+     * last harvest, and report the differences
+     *
+     * @param rec the record being harvested (with the previous manifest)
+     * @return true if anything has changed
+     * @throws VEOError if the directory tree could not be read
+     */
+    private boolean treeChanged(HarvestRecord rec) throws VEOError {
+        Manifest current;
+        Manifest.Changes c;
+        int i;
 
-        // create VEO...
-        cv = new CreateVEO(outputDirectory, recordName, hashAlg, verbose);
+        current = new Manifest(hashAlg);
+        scanFile(rec, readEntry(rec.baseDirectory, null), current);
+        c = rec.previous.compare(current);
+        if (c.isEmpty()) {
+            LOG.log(Level.WARNING, "''{0}'' has not changed since VEO ''{1}'' was built, so has not been harvested again", new Object[]{rec.baseDirectory.toString(), rec.previous.getRecordName()});
+            return false;
+        }
+        LOG.log(Level.WARNING, "''{0}'' has changed since VEO ''{1}'' was built: {2} added, {3} removed, {4} changed", new Object[]{rec.baseDirectory.toString(), rec.previous.getRecordName(), c.added.size(), c.removed.size(), c.changed.size()});
+        for (i = 0; i < c.added.size(); i++) {
+            LOG.log(Level.INFO, "Added: ''{0}''", new Object[]{c.added.get(i)});
+        }
+        for (i = 0; i < c.removed.size(); i++) {
+            LOG.log(Level.INFO, "Removed: ''{0}''", new Object[]{c.removed.get(i)});
+        }
+        for (i = 0; i < c.changed.size(); i++) {
+            LOG.log(Level.INFO, "Changed: ''{0}''", new Object[]{c.changed.get(i)});
+        }
+        return true;
+    }
+
+    /**
+     * Add a file or directory (and its contents) that would be harvested to
+     * a manifest, without harvesting it
+     */
+    private void scanFile(HarvestRecord rec, HarvestEntry root, Manifest m) throws VEOError {
+        walkTree(root, e -> {
+            if (isExcluded(e, null, null)) {
+                return false;
+            }
+            m.add(new Manifest.Entry(rec.baseDirectory.getParent().relativize(e.path).toString(), e.directory, e.size, e.modified.toMillis()));
+            return e.directory;
+        });
+    }
+
+    /**
+     * Total the content files (and their sizes) that would be harvested from
+     * a directory, with the exclusions applied. This is a quick walk of the
+     * directory tree, reading only the attributes. Directories completed by
+     * a previous run are not scanned, as they won't be harvested again. The
+     * scan stops early if the thread is interrupted.
+     *
+     * @param directory the directory to be harvested
+     * @param progress counts the content files found
+     */
+    void prescan(Path directory, HarvestProgress.Item progress) {
+        try {
+            if (journal == null || !journal.isCompleted(directory)) {
+                prescanFile(readEntry(directory, null), progress);
+            }
+        } catch (VEOError ve) {
+            LOG.log(Level.FINE, "Pre-scan of ''{0}'' incomplete because: {1}", new Object[]{directory.toString(), ve.getMessage()});
+        } finally {
+            progress.scanned();
+        }
+    }
+
+    /**
+     * Count a file, or the contents of a directory, in the pre-scan
+     */
+    private void prescanFile(HarvestEntry root, HarvestProgress.Item progress) throws VEOError {
+        walkTree(root, e -> {
+            if (isExcluded(e, null, null)) {
+                return false;
+            }
+            if (!e.directory) {
+                progress.found(e.size);
+                return false;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new VEOError("Pre-scan interrupted");
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Estimate the harvest of a directory without building a VEO. The
+     * directory is walked as processTree() walks it, applying the same
+     * exclusions and LTPF checks, and the results counted. The walk stops
+     * early if the thread is interrupted.
+     *
+     * @param directory the directory to be harvested
+     * @param est where to count the results
+     */
+    void estimate(Path directory, HarvestEstimate.Item est) {
         try {
-            cv.addVEOReadme(templateDirectory);
-            cv.addEvent(versDateTime(false, System.currentTimeMillis()), "Converted to VEO", userId, description, errors);
-            cv.addContent(baseDirectory);
-            res = null;
             try {
-                processFile(cv, recordName, baseDirectory, baseDirectory, 1);
-            } catch (VEOError ve) {
-                LOG.log(Level.WARNING, "VEO ''{0}.veo.zip'' incomplete because:\n{1}", new Object[]{recordName, ve.getMessage()});
+                directory.toRealPath();
+            } catch (IOException ioe) {
+                throw new VEOError("Failed to get real path of base directory: " + ioe.toString());
             }
-            if (res != null) {
-                if (res.charAt(res.length() - 1) == '\n') {
-                    res.setCharAt(res.length() - 1, ' ');
+            estimateFile(readEntry(directory, null), est);
+        } catch (VEOError ve) {
+            est.error = ve.getMessage();
+        }
+    }
+
+    /**
+     * Count a file, or a directory and its contents, in an estimate
+     */
+    private void estimateFile(HarvestEntry root, HarvestEstimate.Item est) throws VEOError {
+        walkTree(root, e -> {
+            String name;
+
+            if (isExcluded(e, null, null)) {
+                est.excluded++;
+                return false;
+            }
+            if (!e.directory) {
+                est.files++;
+                est.bytes += e.size;
+                name = e.path.getFileName().toString();
+                if (!formats.isLTPF(name)) {
+                    est.notLTPF++;
+                } else if (!formats.contentMatches(e.realPath, name)) {
+                    est.wrongFormat++;
+                }
+                return false;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new VEOError("Estimate interrupted");
+            }
+            est.directories++;
+            return true;
+        });
+    }
+
+    /**
+     * Something done to each file and directory found in a walk of a tree
+     */
+    private interface EntryVisitor {
+
+        /**
+         * Visit a file or directory
+         *
+         * @param e the file or directory
+         * @return true if e is a directory whose contents are to be visited
+         * @throws VEOError if the walk is to stop
+         */
+        boolean visit(HarvestEntry e) throws VEOError;
+    }
+
+    /**
+     * Walk a tree depth first (without recursion, see TreeWalker), reading
+     * the attributes of each file and directory once
+     *
+     * @param root the root of the tree (its attributes already read)
+     * @param v what to do with each file and directory
+     * @throws VEOError if the tree could not be read, or the visitor stopped
+     * the walk
+     */
+    private void walkTree(HarvestEntry root, EntryVisitor v) throws VEOError {
+        TreeWalker<Void> walker;
+        HarvestEntry child;
+        Path p;
+
+        if (!v.visit(root)) {
+            return;
+        }
+        walker = new TreeWalker<>(maxOpenDirs);
+        try {
+            walker.enter(root, null);
+            while (!walker.isEmpty()) {
+                if ((p = walker.next()) == null) {
+                    walker.leave();
+                    continue;
+                }
+                child = readEntry(p, walker.directory().realPath);
+                if (v.visit(child)) {
+                    walker.enter(child, null);
                 }
-                LOG.log(Level.WARNING, "VEO ''{0}.veo.zip'' incomplete because:\n{1}", new Object[]{recordName, res.toString()});
             }
-            cv.finishFiles();
-            cv.sign(user, hashAlg);
-            cv.finalise(true);
-        } catch (VEOError ve) {
-            cv.abandon(true);
-            throw ve;
         } finally {
-            System.gc();
+            walker.close();
         }
+    }
 
-        // count the number of exports successfully processed
-        exportCount++;
+    /**
+     * Read the attributes of a file or directory found in the walk
+     *
+     * @param file the file or directory
+     * @param realParent the real path of its parent (or null if not known)
+     * @return the attributes
+     * @throws VEOError if the attributes could not be read
+     */
+    HarvestEntry readEntry(Path file, Path realParent) throws VEOError {
+        try {
+            return HarvestEntry.read(file, realParent);
+        } catch (NoSuchFileException nsfe) {
+            throw new VEOFatal("VEO incomplete because file/directory '" + file.toString() + "' was supposed to exist, but does not");
+        } catch (IOException ioe) {
+            throw new VEOFatal("Failed to get file attributes for file '" + file.toAbsolutePath() + "': " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Test if a file or directory is to be excluded from the harvest
+     *
+     * @param e the file or directory
+     * @param baseDirectory the directory being harvested (files are reported
+     * relative to it)
+     * @param events where to count the exclusion (null if it is not to be
+     * reported)
+     * @return true if the file is excluded
+     */
+    private boolean isExcluded(HarvestEntry e, Path baseDirectory, EventSummary events) {
+        ExclusionIndex.Rule r;
+        Path reportedFile;
+
+        // should this file/directory be ignored?
+        r = exclusions.match(e.path, e.directory);
+        if (r == null) {
+            return false;
+        }
+        if (events == null) {
+            return true;
+        }
+        r.hit();
+        reportedFile = reportedFile(baseDirectory, e.path);
+        events.record(EventSummary.Type.EXCLUDED, r.toString(), reportedFile.toString());
+        if (!DETAIL.isLoggable(Level.WARNING)) {
+            return true;
+        }
+        switch (r.type) {
+            case ExclusionIndex.PATTERN:
+                DETAIL.log(Level.WARNING, "File or directory ''{0}'' (and its contents) were not included as the file name matched pattern {1}", new Object[]{reportedFile.toString(), r.text});
+                break;
+            case ExclusionIndex.DIRECTORY:
+                DETAIL.log(Level.WARNING, "Directory ''{0}'' (and its contents) were not included due to capture configuration", new Object[]{reportedFile.toString()});
+                break;
+            case ExclusionIndex.NO_EXTENSION:
+                DETAIL.log(Level.WARNING, "File ''{0}'' was not included as files with no file extensions were ignored", new Object[]{reportedFile.toString()});
+                break;
+            default:
+                DETAIL.log(Level.WARNING, "File ''{0}'' was not included as files with no file extension ''{1}'' were ignored", new Object[]{reportedFile.toString(), r.text});
+                break;
+        }
+        return true;
     }
 
     /**
@@ -854,176 +1554,199 @@ public class FileHarvest {
      * @param ms	milliseconds since the epoch (if zero, return current
      * date/time)
      */
-    private String versDateTime(boolean fssafe, long ms) {
-        Date d;
-        SimpleDateFormat sdf;
-        TimeZone tz;
-        String s;
-
-        tz = TimeZone.getDefault();
-        if (fssafe) {
-            sdf = new SimpleDateFormat("yyyy-MM-dd'T'HHmmssZ");
-        } else {
-            sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-        }
-        sdf.setTimeZone(tz);
-        if (ms == 0) {
-            d = new Date();
-        } else {
-            d = new Date(ms);
-        }
-        s = sdf.format(d);
-        if (!fssafe) {
-            s = s.substring(0, 22) + ":" + s.substring(22, 24);
-        }
-        return s;
+    static String versDateTime(boolean fssafe, long ms) {
+        return VERSDate.dateTime(fssafe, ms);
     }
 
+    /**
+     * versTime
+     *
+     * Returns a time of day in the standard VERS format
+     *
+     * @param fssafe true if we want a time that is file system safe
+     * @param ms	milliseconds since the epoch (if zero, return current time)
+     */
     private String versTime(boolean fssafe, long ms) {
-        Date d;
-        SimpleDateFormat sdf;
-        TimeZone tz;
-        String s;
-
-        tz = TimeZone.getDefault();
-        if (fssafe) {
-            sdf = new SimpleDateFormat("HHmmss");
-        } else {
-            sdf = new SimpleDateFormat("HH:mm:ss");
-        }
-        sdf.setTimeZone(tz);
-        if (ms == 0) {
-            d = new Date();
-        } else {
-            d = new Date(ms);
-        }
-        s = sdf.format(d);
-        if (!fssafe) {
-            s = s.substring(0, 22) + ":" + s.substring(22, 24);
-        }
-        return s;
+        return VERSDate.time(fssafe, ms);
     }
 
     /**
-     * Process the specified directory
+     * Process the specified directory (and everything in it), adding each
+     * file and directory to the VEO as an information object, depth first.
+     * The tree is walked without recursion (see TreeWalker), so its depth is
+     * limited only by memory, and no more than maxOpenDirs directories are
+     * held open at once. The attributes of the directory have already been
+     * read (once) by the caller. The walk stops (with a VEOError) if the
+     * thread is interrupted.
      */
-    private void processFile(CreateVEO cv, String recordName, Path file, Path baseDirectory, int depth) throws VEOError {
-        DirectoryStream<Path> ds;
-        int i;
-        String filename, ext;
-        BasicFileAttributes bfa;
-        String[] objMetadata = new String[7];
-        Path reportedFile;
-
-        // sanity check
-        if (!Files.exists(file)) {
-            throw new VEOFatal("VEO incomplete because file/directory '" + file.toString() + "' was supposed to exist, but does not");
-        }
+    void processTree(HarvestRecord rec, HarvestEntry root) throws VEOError {
+        TreeWalker<HarvestEvents.DirectoryListed> walker;
+        HarvestEvents.DirectoryListed event; // records the listing in a flight recording
+        HarvestEntry dir, child;
+        VEOTimings times;
+        Path p;
+        long t;
+        int entries;
 
-        // if this is the baseDirectory, report this, otherwise report relative to the baseDirectory
-        if (file == baseDirectory) {
-            reportedFile = baseDirectory;
-        } else {
-            reportedFile = baseDirectory.relativize(file);
+        if (!processEntry(rec, root, 1)) {
+            return;
         }
+        times = rec.times;
+        walker = new TreeWalker<>(maxOpenDirs);
+        try {
+            t = System.nanoTime();
+            event = new HarvestEvents.DirectoryListed();
+            event.begin();
+            walker.enter(root, event);
+            while (!walker.isEmpty()) {
+
+                // finished a directory? Go back to its parent
+                if ((p = walker.next()) == null) {
+                    dir = walker.directory();
+                    entries = walker.entries();
+                    event = walker.leave();
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.path = dir.path.toString();
+                        event.veo = rec.recordName;
+                        event.entries = entries;
+                        event.commit();
+                    }
+                    continue;
+                }
 
-        // should this file/directory be ignored?
-        filename = file.getFileName().toString();
-        Iterator<Pattern> itp;
-        Pattern p1;
-        itp = ignorePatterns.iterator();
-        while (itp.hasNext()) {
-            p1 = itp.next();
-            if (p1.matcher(filename).matches()) {
-                LOG.log(Level.WARNING, "File or directory ''{0}'' (and its contents) were not included as the file name matched pattern {1}", new Object[]{reportedFile.toString(), p1.pattern()});
-                return;
+                // stop if the harvest has been interrupted (i.e. cancelled),
+                // abandoning the VEO
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new VEOError("Harvest interrupted");
+                }
+                t = times.end(VEOTimings.Phase.WALK, t);
+                child = readEntry(p, walker.directory().realPath);
+                times.end(VEOTimings.Phase.ATTRIBUTES, t);
+
+                // process the entry, and if it is a directory, its contents
+                if (processEntry(rec, child, walker.depth())) {
+                    event = new HarvestEvents.DirectoryListed();
+                    event.begin();
+                    t = System.nanoTime();
+                    walker.enter(child, event);
+                }
+                t = System.nanoTime();
             }
+            times.end(VEOTimings.Phase.WALK, t);
+        } finally {
+            walker.close();
         }
+    }
 
-        if (Files.isDirectory(file)) {
-            if (directoriesIgnored.containsKey(file.toString())) {
-                LOG.log(Level.WARNING, "Directory ''{0}'' (and its contents) were not included due to capture configuration", new Object[]{reportedFile.toString()});
-                return;
-            }
-        } else {
-            i = filename.lastIndexOf(".");
-            if (i == -1 && ignoreFileWithNoExtension) {
-                LOG.log(Level.WARNING, "File ''{0}'' was not included as files with no file extensions were ignored", new Object[]{reportedFile.toString()});
-                return;
-            }
-            ext = filename.substring(i + 1);
-            if (extensionsIgnored.containsKey(ext)) {
-                LOG.log(Level.WARNING, "File ''{0}'' was not included as files with no file extension ''{1}'' were ignored", new Object[]{reportedFile.toString(), ext});
-                return;
-            }
+    /**
+     * Add a single file or directory to the VEO (without the contents of a
+     * directory)
+     *
+     * @param rec the VEO being built
+     * @param e the file or directory
+     * @param depth the depth of the file or directory in the tree
+     * @return true if e is a directory whose contents are to be added
+     * @throws VEOError if the file or directory could not be added
+     */
+    private boolean processEntry(HarvestRecord rec, HarvestEntry e, int depth) throws VEOError {
+        Manifest.Entry entry;
+        String[] objMetadata;
+        String name;
+        Path file;
+        VEOWriter cv;
+        VEOTimings times;
+        Path baseDirectory;
+        long t;
+
+        cv = rec.cv;
+        times = rec.times;
+        baseDirectory = rec.baseDirectory;
+        objMetadata = rec.objMetadata;
+        file = e.path;
+
+        // should this file/directory be ignored?
+        t = System.nanoTime();
+        if (isExcluded(e, baseDirectory, rec.events)) {
+            times.end(VEOTimings.Phase.EXCLUSIONS, t);
+            times.excluded++;
+            return false;
         }
+        t = times.end(VEOTimings.Phase.EXCLUSIONS, t);
 
         // print information about this object
-        try {
-            cv.addInformationObject(file.toRealPath().toString(), depth);
-        } catch (IOException ioe) {
-            throw new VEOFatal("Failed to process directory: " + ioe.getMessage());
-        }
+        cv.addInformationObject(e.realPath.toString(), depth);
 
         // if at the root, add metadata about this record as a whole
         if (depth == 1) {
-            cv.addMetadataPackage(recordAGLS, recMetadata);
+            cv.addMetadataPackage(recordAGLS, rec.recMetadata);
             addHarvestDescription(cv, baseDirectory);
-            objMetadata[0] = "http://www.prov.vic.gov.au/records/" + recordName;
+            objMetadata[0] = rec.recordURI;
         } else {
-            objMetadata[0] = "http://www.prov.vic.gov.au/records/" + recordName + "/" + iocnt;
-            iocnt++;
+            objMetadata[0] = rec.recordURI + "/" + rec.iocnt;
+            rec.iocnt++;
         }
 
         // get descriptive information about this file or directory        
         objMetadata[1] = baseDirectory.getParent().relativize(file).toString();
-        try {
-            objMetadata[2] = Files.getOwner(file).getName();
-            bfa = Files.readAttributes(file, BasicFileAttributes.class);
-        } catch (IOException ioe) {
-            throw new VEOFatal("Error when writing control file. Failed to get file attributes for file '" + file.toAbsolutePath() + toString() + ": " + ioe.getMessage());
-        }
-        objMetadata[3] = bfa.creationTime().toString();
-        objMetadata[4] = bfa.lastModifiedTime().toString();
-        objMetadata[5] = bfa.lastAccessTime().toString();
-        objMetadata[6] = Long.toString(bfa.size());
-
-        if (Files.isDirectory(file)) {
+        objMetadata[2] = e.owner;
+        objMetadata[3] = e.created.toString();
+        objMetadata[4] = e.modified.toString();
+        objMetadata[5] = e.accessed.toString();
+        objMetadata[6] = Long.toString(e.size);
+        entry = new Manifest.Entry(objMetadata[1], e.directory, e.size, e.modified.toMillis());
+        rec.manifest.add(entry);
+
+        if (e.directory) {
             cv.addMetadataPackage(directoryAGLS, objMetadata);
-        } else {
-            cv.addMetadataPackage(fileAGLS, objMetadata);
+            times.end(VEOTimings.Phase.METADATA, t);
+            times.directories++;
+            LOG.log(Level.FINE, "Directory ''{0}'' was added", new Object[]{file.toString()});
+            return true;
         }
+        cv.addMetadataPackage(fileAGLS, objMetadata);
+        t = times.end(VEOTimings.Phase.METADATA, t);
+
+        // add the content file
+        times.files++;
+        times.bytes += e.size;
+        cv.addInformationPiece("file");
+        entry.setDigest(cv.addContentFile(objMetadata[1], rec.previous != null ? rec.previous.cachedDigest(entry, hashAlg) : null));
+        name = file.getFileName().toString();
+        if (!formats.isLTPF(name)) {
+            addDummyLTPF(rec, reportedFile(baseDirectory, file), EventSummary.Type.NOT_LTPF);
+        } else if (!formats.contentMatches(e.realPath, name)) {
+            addDummyLTPF(rec, reportedFile(baseDirectory, file), EventSummary.Type.WRONG_FORMAT);
+        }
+        times.end(VEOTimings.Phase.CONTENT, t);
+        LOG.log(Level.FINE, "File ''{0}'' was added", new Object[]{file.toString()});
+        return false;
+    }
 
-        // if a directory, process the children
-        if (Files.isDirectory(file)) {
-            try {
-                LOG.log(Level.FINE, "Directory ''{0}'' was added", new Object[]{file.toString()});
-                ds = Files.newDirectoryStream(file);
-                for (Path p : ds) {
-                    processFile(cv, recordName, p, baseDirectory, depth + 1);
-                }
-                ds.close();
-            } catch (IOException e) {
-                throw new VEOFatal("Failed to process directory '" + file.toAbsolutePath() + toString() + "': " + e.getMessage());
-            }
-        } else {
-            cv.addInformationPiece("file");
-            cv.addContentFile(baseDirectory.getParent().relativize(file).toString());
-            if (!isLTPF(file.getFileName().toString())) {
-                addDummyLTPF(cv, reportedFile);
-            }
-            LOG.log(Level.FINE, "File ''{0}'' was added", new Object[]{file.toString()});
+    /**
+     * Get the name of a file to report: relative to the base directory, or
+     * the base directory itself
+     */
+    private static Path reportedFile(Path baseDirectory, Path file) {
+        if (baseDirectory == null || file == baseDirectory) {
+            return file;
         }
+        return baseDirectory.relativize(file);
     }
 
     /**
      * Add a dummy long term preservation file
+     *
+     * @param type why the file is not an LTPF (for the summary of warnings)
      */
-    private void addDummyLTPF(CreateVEO cv, Path file) {
+    private void addDummyLTPF(HarvestRecord rec, Path file, EventSummary.Type type) {
+        VEOWriter cv;
         Path p;
 
+        cv = rec.cv;
+
         // add the dummy LTPF to the VEO if we haven't already done so
-        if (!addedDummyLTPF) {
+        if (!rec.addedDummyLTPF) {
             p = Paths.get(templateDirectory.toString(), "DummyContent");
             try {
                 cv.addContent(p);
@@ -1031,23 +1754,57 @@ public class FileHarvest {
                 LOG.log(Level.WARNING, "Cannot add dummy LTPF {0} because: {1}", new Object[]{p.toString(), ve.getMessage()});
                 return;
             }
-            addedDummyLTPF = true;
+            rec.addedDummyLTPF = true;
         }
 
         // add the content file to the current information piece
         try {
-            cv.addContentFile("DummyContent/DummyLTPF.txt");
+            cv.addContentFile("DummyContent/DummyLTPF.txt", null);
         } catch (VEOError ve) {
             LOG.log(Level.WARNING, "Cannot add ''DummyContent/DummyLTPF.txt'' because: {0}", new Object[]{ve.getMessage()});
         }
-        LOG.log(Level.WARNING, "WARNING: {0} is not a valid long term preservation format", file.toString());
+        rec.events.record(type, extension(file.getFileName().toString()), file.toString());
+        if (type == EventSummary.Type.WRONG_FORMAT) {
+            DETAIL.log(Level.WARNING, "{0} is not in the format its extension says it is", file.toString());
+        } else {
+            DETAIL.log(Level.WARNING, "{0} is not a valid long term preservation format", file.toString());
+        }
+    }
+
+    /**
+     * Get the extension of a file name (for reporting)
+     */
+    private static String extension(String filename) {
+        int i;
+
+        if ((i = filename.lastIndexOf('.')) == -1) {
+            return "(none)";
+        }
+        return "'" + filename.substring(i).toLowerCase() + "'";
     }
 
     /**
      * Add a description of the harvest paramenters to the root information
-     * object
+     * object. Only the base directory differs between VEOs; the rest was
+     * compiled when the harvest was configured.
+     */
+    void addHarvestDescription(VEOWriter cv, Path baseDirectory) throws VEOError {
+        cv.addMetadataPackage("http://prov.vic.gov.au/vers/schema/FileHarvestDesc", "http://www.w3.org/1999/02/22-rdf-syntax-ns", out -> {
+            out.write(HARVEST_DESC_HEAD);
+            XMLEscaper.encode(out, baseDirectory.toString());
+            out.write(harvestDescTail);
+        });
+    }
+
+    /**
+     * Compile the rest of the description of the harvest parameters (i.e.
+     * from the end of the base directory). This depends only on what is to be
+     * ignored, so it is built once when the harvest is configured, and copied
+     * into each VEO.
+     *
+     * @return the end of the description
      */
-    private void addHarvestDescription(CreateVEO cv, Path baseDirectory) throws VEOError {
+    private String compileHarvestDescription() {
         StringBuilder sb;
         Iterator<String> it;
         Iterator<Pattern> itp;
@@ -1055,13 +1812,6 @@ public class FileHarvest {
         String s;
 
         sb = new StringBuilder();
-
-        sb.append("<rdf:RDF ");
-        sb.append("xmlns:ex=\"http://www.agls.gov.au/agls/terms#\"\n");
-        sb.append(">");
-        sb.append("<rdf:Description rdf:about=\"http://www.example.org/124\">\n");
-        sb.append(" <ex:baseDirectory >");
-        xmlEncode(sb, baseDirectory.toString());
         sb.append("</ex:baseDirectory>\n");
 
         itp = ignorePatterns.iterator();
@@ -1072,7 +1822,7 @@ public class FileHarvest {
             while (itp.hasNext()) {
                 pat = itp.next();
                 sb.append("  <ex:ignoredPattern>");
-                xmlEncode(sb, pat.pattern());
+                XMLEscaper.encode(sb, pat.pattern());
                 sb.append("</ex:ignoredPattern>\n");
             }
             // sb.append(" </fsharvest:ignoredPatterns>\n");
@@ -1084,9 +1834,9 @@ public class FileHarvest {
         } else {
             // sb.append(" <fsharvest:ignoredDirectories rdf:parseType=\"Literal\">\n");
             while (it.hasNext()) {
-                s = directoriesIgnored.get(it.next()).toString();
+                s = directoriesIgnored.get(it.next());
                 sb.append("  <ex:ignoredDirectory>");
-                xmlEncode(sb, s);
+                XMLEscaper.encode(sb, s);
                 sb.append("</ex:ignoredDirectory>\n");
             }
             // sb.append(" </fsharvest:ignoredDirectories>\n");
@@ -1100,19 +1850,19 @@ public class FileHarvest {
             while (it.hasNext()) {
                 s = extensionsIgnored.get(it.next());
                 sb.append("  <ex:ignoredFileType>");
-                xmlEncode(sb, "." + s);
+                XMLEscaper.encode(sb, "." + s);
                 sb.append("</ex:ignoredFileType>\n");
             }
             if (ignoreFileWithNoExtension) {
                 sb.append("  <ex:ignoredFileType>");
-                xmlEncode(sb, "All files with no file extension");
+                XMLEscaper.encode(sb, "All files with no file extension");
                 sb.append("</ex:ignoredFileType>\n");
             }
             // sb.append(" </fsharvest:ignoredFileTypes>\n");
         }
         sb.append("</rdf:Description>\n");
         sb.append("</rdf:RDF>\n");
-        cv.addMetadataPackage("http://prov.vic.gov.au/vers/schema/FileHarvestDesc", "http://www.w3.org/1999/02/22-rdf-syntax-ns", sb);
+        return sb.toString();
     }
 
     /**
@@ -1163,14 +1913,33 @@ public class FileHarvest {
      */
     public static void main(String[] args) {
         FileHarvest fh;
+        int i, failed;
 
         try {
             fh = new FileHarvest(args);
-            // fha.report();
-            fh.process(Paths.get("."));
-        } catch (Exception e) {
-            System.out.println("Fatal error: " + e.getMessage());
-            e.printStackTrace();
+        } catch (AppFatal af) {
+            System.out.println("Fatal error: " + af.getMessage());
+            System.exit(HarvestRunner.EXIT_JOB_ERROR);
+            return;
+        }
+        if (fh.bases.isEmpty()) {
+            System.out.println("No directories to harvest were specified");
+            fh.close();
+            System.exit(HarvestRunner.EXIT_USAGE);
+        }
+
+        // harvest each of the directories listed on the command line
+        failed = 0;
+        try {
+            for (i = 0; i < fh.bases.size(); i++) {
+                if (!fh.process(Paths.get(fh.bases.get(i)))) {
+                    failed++;
+                }
+            }
+        } finally {
+            fh.close();
         }
+        // fha.report();
+        System.exit(failed > 0 ? HarvestRunner.EXIT_FAILURES : HarvestRunner.EXIT_OK);
     }
 }
@@ -0,0 +1,319 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class decides whether content files are in a long term preservation
+ * format (LTPF). The valid LTPFs are the file extensions listed in
+ * 'VERSltpf.txt' in the template directory, held in a hash table.
+ *
+ * As file extensions can't be trusted (a file can simply be renamed), the
+ * format can also be confirmed from the file's content. The first bytes of
+ * the file are read (into a buffer kept by each thread) and matched against
+ * a prefix trie of the signatures ('magic numbers') of the common formats.
+ * A file whose extension is an LTPF with known signatures, but whose content
+ * positively matches the signature of a different format, is not accepted as
+ * an LTPF. Content that matches no known signature (an unusual variant of
+ * the format, or an empty file) is given the benefit of the doubt, as are
+ * formats without a signature (e.g. text, HTML, CSV).
+ *
+ * What is known about each extension (is it an LTPF, and what format should
+ * the content be) is worked out once and cached under the extension as found
+ * in the file name, so that testing a file normally costs one substring and
+ * one hash lookup. An instance may be used by several threads at once.
+ */
+final class FormatIdentifier {
+
+    static final int HEADER_SIZE = 512; // number of bytes read from the start of a file to identify it
+    private static final int MAX_CACHED = 10000; // maximum number of extensions cached
+
+    private final HashSet<String> ltpfs; // valid LTPF extensions (lower case, without the '.')
+    private final boolean verify;       // true if formats are confirmed from the content
+    private final ConcurrentHashMap<String, Extension> cache; // what is known about each extension, as found
+    private static final HashMap<String, Format> EXPECTED; // the format expected for each extension with a signature
+    private static final Node SIGNATURES; // the trie of signatures
+    private static final ThreadLocal<ByteBuffer> HEADER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEADER_SIZE));
+
+    /**
+     * The formats that can be recognised from their content, the extensions
+     * they are expected to have, and their signatures. A signature is a
+     * string of hex bytes matched from the start of the file; '??' matches
+     * any byte.
+     */
+    enum Format {
+        PDF(new String[]{"pdf"}, new String[]{"25 50 44 46 2D"}),
+        OLE2(new String[]{"doc", "xls", "ppt", "msg"}, new String[]{"D0 CF 11 E0 A1 B1 1A E1"}),
+        ZIP(new String[]{"docx", "xlsx", "pptx", "odt", "ods", "odp", "zip"}, new String[]{"50 4B 03 04", "50 4B 05 06"}),
+        JPEG(new String[]{"jpg", "jpeg"}, new String[]{"FF D8 FF"}),
+        JP2(new String[]{"jp2"}, new String[]{"00 00 00 0C 6A 50 20 20 0D 0A 87 0A"}),
+        TIFF(new String[]{"tif", "tiff"}, new String[]{"49 49 2A 00", "4D 4D 00 2A", "49 49 2B 00", "4D 4D 00 2B"}),
+        PNG(new String[]{"png"}, new String[]{"89 50 4E 47 0D 0A 1A 0A"}),
+        GIF(new String[]{"gif"}, new String[]{"47 49 46 38 37 61", "47 49 46 38 39 61"}),
+        MP3(new String[]{"mp3"}, new String[]{"49 44 33", "FF FB", "FF FA", "FF F3", "FF F2", "FF E3", "FF E2"}),
+        MP4(new String[]{"mp4", "m4a", "mov"}, new String[]{"?? ?? ?? ?? 66 74 79 70", "?? ?? ?? ?? 6D 6F 6F 76", "?? ?? ?? ?? 77 69 64 65", "?? ?? ?? ?? 6D 64 61 74"}),
+        WAV(new String[]{"wav"}, new String[]{"52 49 46 46 ?? ?? ?? ?? 57 41 56 45"}),
+        WARC(new String[]{"warc"}, new String[]{"57 41 52 43 2F"});
+
+        final String[] extensions;  // extensions of files in this format
+        final String[] signatures;  // the signatures of this format
+
+        Format(String[] extensions, String[] signatures) {
+            this.extensions = extensions;
+            this.signatures = signatures;
+        }
+    }
+
+    /**
+     * What is known about an extension
+     */
+    private static final class Extension {
+
+        final boolean ltpf;     // true if the extension is a valid LTPF
+        final Format expected;  // the format the content should be in (null if it can't be checked)
+
+        Extension(boolean ltpf, Format expected) {
+            this.ltpf = ltpf;
+            this.expected = expected;
+        }
+    }
+
+    /**
+     * A node in the trie of signatures. The children are keyed by the next
+     * byte; 'any' is the child for a wildcard byte.
+     */
+    private static final class Node {
+
+        byte[] keys = new byte[0];      // the bytes leading to the children
+        Node[] children = new Node[0];  // the children
+        Node any;                       // child matching any byte (or null)
+        Format format;                  // format whose signature ends here (or null)
+
+        Node child(byte b) {
+            int i;
+
+            for (i = 0; i < keys.length; i++) {
+                if (keys[i] == b) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(byte b) {
+            Node n;
+            byte[] k;
+            Node[] ch;
+
+            n = new Node();
+            k = new byte[keys.length + 1];
+            ch = new Node[children.length + 1];
+            System.arraycopy(keys, 0, k, 0, keys.length);
+            System.arraycopy(children, 0, ch, 0, children.length);
+            k[keys.length] = b;
+            ch[children.length] = n;
+            keys = k;
+            children = ch;
+            return n;
+        }
+    }
+
+    static {
+        Format[] formats;
+        String[] bytes;
+        Node n, next;
+        int i, j, k;
+        byte b;
+
+        EXPECTED = new HashMap<>();
+        SIGNATURES = new Node();
+        formats = Format.values();
+        for (i = 0; i < formats.length; i++) {
+            for (j = 0; j < formats[i].extensions.length; j++) {
+                EXPECTED.put(formats[i].extensions[j], formats[i]);
+            }
+            for (j = 0; j < formats[i].signatures.length; j++) {
+                bytes = formats[i].signatures[j].split(" ");
+                n = SIGNATURES;
+                for (k = 0; k < bytes.length; k++) {
+                    if (bytes[k].equals("??")) {
+                        if (n.any == null) {
+                            n.any = new Node();
+                        }
+                        n = n.any;
+                    } else {
+                        b = (byte) Integer.parseInt(bytes[k], 16);
+                        if ((next = n.child(b)) == null) {
+                            next = n.addChild(b);
+                        }
+                        n = next;
+                    }
+                }
+                n.format = formats[i];
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param verify true if the formats of LTPFs are to be confirmed from
+     * their content
+     */
+    FormatIdentifier(boolean verify) {
+        this.verify = verify;
+        ltpfs = new HashSet<>();
+        cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Add a valid LTPF. This must be done before any files are tested.
+     *
+     * @param extension the file extension (with or without the leading '.')
+     */
+    void addLTPF(String extension) {
+        String s;
+
+        s = extension.trim().toLowerCase(Locale.ROOT);
+        if (s.startsWith(".")) {
+            s = s.substring(1);
+        }
+        if (!s.isEmpty()) {
+            ltpfs.add(s);
+        }
+    }
+
+    /**
+     * Get the number of valid LTPFs
+     *
+     * @return the number of LTPFs
+     */
+    int size() {
+        return ltpfs.size();
+    }
+
+    /**
+     * Are formats confirmed from the content of the files?
+     *
+     * @return true if they are
+     */
+    boolean isVerifying() {
+        return verify;
+    }
+
+    /**
+     * Test if a file name has the extension of an LTPF
+     *
+     * @param filename the name of the file
+     * @return true if it is an LTPF
+     */
+    boolean isLTPF(String filename) {
+        Extension x;
+
+        x = extension(filename);
+        return x != null && x.ltpf;
+    }
+
+    /**
+     * Test if the content of a file is in the format its extension says it
+     * is. This is true if formats are not being verified, if the format of
+     * the extension has no known signature, if the content doesn't match any
+     * known signature (including an empty file), or if the file can't be
+     * read (in which case the failure is reported when the file is added to
+     * the VEO). Only content recognised as a different format is a mismatch.
+     *
+     * @param file the file
+     * @param filename the name of the file
+     * @return false if the content is in a different format to the expected
+     * one
+     */
+    boolean contentMatches(Path file, String filename) {
+        Extension x;
+        Format f;
+
+        if (!verify || (x = extension(filename)) == null || x.expected == null) {
+            return true;
+        }
+        return (f = identify(file)) == null || f == x.expected;
+    }
+
+    /**
+     * Identify the format of a file from its first bytes
+     *
+     * @param file the file
+     * @return the format, or null if it was not recognised (or the file could
+     * not be read)
+     */
+    static Format identify(Path file) {
+        ByteBuffer bb;
+
+        bb = HEADER.get();
+        bb.clear();
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (bb.hasRemaining() && fc.read(bb) != -1) {
+                // keep reading until the buffer is full or the file ends
+            }
+        } catch (IOException ioe) {
+            return null;
+        }
+        return match(SIGNATURES, bb.array(), 0, bb.position());
+    }
+
+    /**
+     * Match the bytes against the trie. A wildcard byte is tried after the
+     * exact byte, and the longest signature matched wins.
+     */
+    private static Format match(Node n, byte[] b, int pos, int len) {
+        Node next;
+        Format f;
+
+        if (pos < len) {
+            if ((next = n.child(b[pos])) != null && (f = match(next, b, pos + 1, len)) != null) {
+                return f;
+            }
+            if (n.any != null && (f = match(n.any, b, pos + 1, len)) != null) {
+                return f;
+            }
+        }
+        return n.format;
+    }
+
+    /**
+     * Find what is known about the extension of a file name, working it out
+     * if this is the first time the extension has been seen
+     *
+     * @return null if the file has no extension
+     */
+    private Extension extension(String filename) {
+        Extension x;
+        String ext, lc;
+        int i;
+
+        if ((i = filename.lastIndexOf('.')) == -1) {
+            return null;
+        }
+        ext = filename.substring(i + 1);
+        if ((x = cache.get(ext)) != null) {
+            return x;
+        }
+        lc = ext.toLowerCase(Locale.ROOT);
+        x = new Extension(ltpfs.contains(lc), EXPECTED.get(lc));
+        if (cache.size() < MAX_CACHED) {
+            cache.put(ext, x);
+        }
+        return x;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs the items of a Job through a FileHarvest. Each item is
+ * turned into a VEO, and up to 'concurrency' VEOs are constructed at the same
+ * time, each on its own worker thread.
+ */
+public class HarvestEngine {
+
+    private final FileHarvest fh;   // the harvest that builds the VEOs
+    private final int concurrency;  // number of VEOs to build at once
+    private final MemoryGovernor mg; // controls starting VEOs when memory is short
+    private volatile boolean cancelled; // true if no more items should be started
+    private final Object pauseLock; // lock protecting paused
+    private boolean paused;         // true if new items are not to be started until resumed
+    private final ConcurrentSkipListMap<Integer, String> current; // items being processed, by index
+    private final AtomicInteger built; // number of VEOs built
+    private final AtomicInteger failed; // number of VEOs that failed
+
+    /**
+     * Callbacks made as the items are processed. Note that these are called
+     * from the worker threads, and so may be called concurrently.
+     */
+    public interface Listener {
+
+        /**
+         * An item is about to be turned into a VEO
+         *
+         * @param i the index of the item in the list
+         * @param item the item
+         */
+        void itemStarted(int i, String item);
+
+        /**
+         * An item has been processed
+         *
+         * @param i the index of the item in the list
+         * @param item the item
+         * @param success true if the VEO was successfully constructed
+         */
+        void itemFinished(int i, String item, boolean success);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param fh the configured FileHarvest
+     * @param concurrency the maximum number of VEOs to build at once
+     * @param mg the memory governor that admits VEOs into construction (may
+     * be null)
+     */
+    public HarvestEngine(FileHarvest fh, int concurrency, MemoryGovernor mg) {
+        this.fh = fh;
+        if (concurrency < 1) {
+            concurrency = 1;
+        }
+        this.concurrency = concurrency;
+        this.mg = mg;
+        cancelled = false;
+        pauseLock = new Object();
+        paused = false;
+        current = new ConcurrentSkipListMap<>();
+        built = new AtomicInteger(0);
+        failed = new AtomicInteger(0);
+    }
+
+    /**
+     * Stop starting new items. Items that are already being processed are
+     * completed.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop starting new items until resume() is called. Items that are
+     * already being processed are completed.
+     */
+    public void pause() {
+        synchronized (pauseLock) {
+            paused = true;
+        }
+    }
+
+    /**
+     * Start processing items again after pause()
+     */
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Test if the engine has been paused
+     *
+     * @return true if paused
+     */
+    public boolean isPaused() {
+        synchronized (pauseLock) {
+            return paused;
+        }
+    }
+
+    /**
+     * Get the items currently being processed
+     *
+     * @return the items, in the order they appear in the job
+     */
+    public List<String> getCurrentItems() {
+        return new ArrayList<>(current.values());
+    }
+
+    /**
+     * Get the number of VEOs successfully built so far
+     *
+     * @return the number of VEOs
+     */
+    public int getBuilt() {
+        return built.get();
+    }
+
+    /**
+     * Get the number of VEOs that failed so far
+     *
+     * @return the number of VEOs
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Test if the engine has been cancelled
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Process a list of items, returning when all of them have been
+     * processed (or the engine is cancelled and the items in progress have
+     * completed).
+     *
+     * @param items the directories to turn into VEOs
+     * @param listener the listener to report to
+     * @throws InterruptedException if the calling thread was interrupted (the
+     * items in progress are abandoned, and have stopped when this is thrown)
+     */
+    public void run(List<String> items, Listener listener) throws InterruptedException {
+        run(items, listener, null);
+    }
+
+    /**
+     * Process a list of items, keeping track of the progress by bytes. The
+     * items are pre-scanned (in order) on a separate thread while they are
+     * being processed, to find the total content to be harvested.
+     *
+     * @param items the directories to turn into VEOs
+     * @param listener the listener to report to
+     * @param progress the progress of the job (may be null, in which case
+     * there is no pre-scan)
+     * @throws InterruptedException if the calling thread was interrupted (the
+     * items in progress are abandoned, and have stopped when this is thrown)
+     */
+    void run(List<String> items, Listener listener, HarvestProgress progress) throws InterruptedException {
+        ExecutorService pool;
+        Thread prescan;
+        int i;
+
+        prescan = null;
+        if (progress != null) {
+            prescan = new Thread(() -> {
+                int j;
+
+                for (j = 0; j < items.size(); j++) {
+                    if (cancelled || Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    fh.prescan(Paths.get(items.get(j)), progress.item(j));
+                }
+            }, "harvest-prescan");
+            prescan.setDaemon(true);
+            prescan.start();
+        }
+        pool = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(items.size(), 1)), new WorkerFactory());
+        try {
+            for (i = 0; i < items.size(); i++) {
+                final int index = i;
+                final String item = items.get(i);
+                pool.execute(() -> {
+                    boolean success;
+
+                    // wait while paused, then until there is enough memory
+                    // to start the VEO
+                    try {
+                        if (!waitWhilePaused()) {
+                            return;
+                        }
+                        if (mg != null) {
+                            mg.admit();
+                        }
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    try {
+                        if (cancelled) {
+                            return;
+                        }
+                        current.put(index, item);
+                        listener.itemStarted(index, item);
+                        success = false;
+                        try {
+                            success = fh.process(Paths.get(item), progress != null ? progress.item(index) : null);
+                        } finally {
+                            if (progress != null) {
+                                progress.item(index).finished();
+                            }
+                            (success ? built : failed).incrementAndGet();
+                            current.remove(index);
+                            listener.itemFinished(index, item, success);
+                        }
+                    } finally {
+                        if (mg != null) {
+                            mg.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the items in progress
+            }
+        } catch (InterruptedException ie) {
+
+            // stop starting items, but don't return until the items in
+            // progress (and the pre-scan) have stopped, as the caller will
+            // then close the harvest they are using
+            cancel();
+            pool.shutdownNow();
+            if (prescan != null) {
+                prescan.interrupt();
+            }
+            awaitUninterruptibly(pool, prescan);
+            throw ie;
+        }
+        if (prescan != null) {
+            prescan.interrupt();
+            awaitUninterruptibly(null, prescan);
+        }
+    }
+
+    /**
+     * Wait for the worker threads and the pre-scan thread to finish. The
+     * wait is not cut short by interrupts; if there were any, the interrupt
+     * status is set again on return.
+     *
+     * @param pool the worker threads (may be null)
+     * @param prescan the pre-scan thread (may be null)
+     */
+    static void awaitUninterruptibly(ExecutorService pool, Thread prescan) {
+        boolean interrupted;
+
+        interrupted = false;
+        while (true) {
+            try {
+                if (pool != null) {
+                    while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                        // wait for the items in progress
+                    }
+                }
+                if (prescan != null) {
+                    prescan.join();
+                }
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until the engine is not paused
+     *
+     * @return false if the engine was cancelled
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean waitWhilePaused() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && !cancelled) {
+                pauseLock.wait();
+            }
+        }
+        return !cancelled;
+    }
+
+    /**
+     * Creates the worker threads. These are daemon threads so that closing
+     * the GUI does not leave the JVM running.
+     */
+    private static class WorkerFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL = new AtomicInteger(1);
+        private final int pool;
+        private final AtomicInteger thread;
+
+        WorkerFactory() {
+            pool = POOL.getAndIncrement();
+            thread = new AtomicInteger(1);
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t;
+
+            t = new Thread(r, "harvest-" + pool + "-worker-" + thread.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds what the harvest needs to know about a file or directory:
+ * its real path, type, owner, times and size. These are read with a single
+ * call to the file system when the entry is first found, and then carried
+ * down the directory walk, so each entry costs one stat (on network file
+ * systems each stat is a round trip to the server).
+ *
+ * On POSIX file systems the 'unix' attribute view is used, which returns the
+ * numeric owner. Owner names are looked up once per uid and cached. The real
+ * path of an entry is its parent's real path plus its name, unless the entry
+ * is a symbolic link (which is followed, as before).
+ */
+final class HarvestEntry {
+
+    private static final FileSystem DEFAULT_FS = FileSystems.getDefault();
+    private static final boolean UNIX_VIEW = DEFAULT_FS.supportedFileAttributeViews().contains("unix");
+    private static final String UNIX_ATTRIBUTES = "unix:uid,size,creationTime,lastModifiedTime,lastAccessTime,isDirectory,isSymbolicLink";
+    private static final ConcurrentHashMap<Integer, String> OWNERS = new ConcurrentHashMap<>(); // owner names indexed by uid
+
+    final Path path;            // the path of the entry as found in the walk
+    final Path realPath;        // the real path of the entry
+    final boolean directory;    // true if a directory (or a link to one)
+    final String owner;         // name of the owner
+    final FileTime created;     // creation time
+    final FileTime modified;    // last modified time
+    final FileTime accessed;    // last access time
+    final long size;            // size in bytes
+
+    private HarvestEntry(Path path, Path realPath, boolean directory, String owner, FileTime created, FileTime modified, FileTime accessed, long size) {
+        this.path = path;
+        this.realPath = realPath;
+        this.directory = directory;
+        this.owner = owner;
+        this.created = created;
+        this.modified = modified;
+        this.accessed = accessed;
+        this.size = size;
+    }
+
+    /**
+     * Read the attributes of a file or directory
+     *
+     * @param path the file or directory
+     * @param realParent the real path of the directory containing it (null
+     * if not known, e.g. the base directory of the harvest)
+     * @return the entry
+     * @throws IOException if the attributes could not be read
+     */
+    static HarvestEntry read(Path path, Path realParent) throws IOException {
+        Map<String, Object> m;
+        BasicFileAttributes bfa;
+        Path real;
+
+        if (UNIX_VIEW && path.getFileSystem() == DEFAULT_FS) {
+            m = Files.readAttributes(path, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            if ((Boolean) m.get("isSymbolicLink") || realParent == null) {
+                real = path.toRealPath();
+                if ((Boolean) m.get("isSymbolicLink")) {
+                    m = Files.readAttributes(path, UNIX_ATTRIBUTES);
+                }
+            } else {
+                real = realParent.resolve(path.getFileName().toString());
+            }
+            return new HarvestEntry(path, real, (Boolean) m.get("isDirectory"), owner((Integer) m.get("uid"), path),
+                    (FileTime) m.get("creationTime"), (FileTime) m.get("lastModifiedTime"), (FileTime) m.get("lastAccessTime"), (Long) m.get("size"));
+        }
+
+        // other file systems (e.g. Windows) don't have a numeric owner
+        bfa = Files.readAttributes(path, BasicFileAttributes.class);
+        return new HarvestEntry(path, path.toRealPath(), bfa.isDirectory(), Files.getOwner(path).getName(),
+                bfa.creationTime(), bfa.lastModifiedTime(), bfa.lastAccessTime(), bfa.size());
+    }
+
+    /**
+     * Get the name of the owner with the given uid
+     */
+    private static String owner(int uid, Path path) throws IOException {
+        String name;
+
+        name = OWNERS.get(uid);
+        if (name == null) {
+            name = Files.getOwner(path).getName();
+            OWNERS.putIfAbsent(uid, name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class estimates the size of a job without building any VEOs. Each
+ * item is walked exactly as it would be harvested (with the same exclusions
+ * and LTPF checks, see FileHarvest.estimate()), counting the files,
+ * directories, bytes, excluded entries and files that would need a dummy
+ * LTPF. The items are scanned in parallel, as scanning is mostly waiting for
+ * the file system.
+ *
+ * The time to harvest the job is projected from the performance record of
+ * earlier runs ('FileHarvest-perf.csv' in the output directory). The time to
+ * build each VEO is modelled as a cost per file plus a cost per byte, fitted
+ * (by least squares) to the VEOs built in those runs. As the earlier VEOs
+ * were built with the concurrency of those runs, the projection is only as
+ * good as the similarity of the runs.
+ */
+final class HarvestEstimate {
+
+    private final Item[] items;     // the estimate for each item
+    private volatile ExecutorService pool; // the threads scanning the items (null if not running)
+
+    /**
+     * The estimate for one item. It is only updated by the thread scanning
+     * the item.
+     */
+    static final class Item {
+
+        final String item;      // the directory to be harvested
+        long files;             // number of content files
+        long directories;       // number of directories
+        long bytes;             // bytes of content
+        long excluded;          // number of files and directories excluded
+        long notLTPF;           // files not in a long term preservation format
+        long wrongFormat;       // files whose content does not match their extension
+        long scanMS;            // time taken to scan the item
+        String error;           // why the item could not be completely scanned (null if it was)
+
+        Item(String item) {
+            this.item = item;
+            files = 0;
+            directories = 0;
+            bytes = 0;
+            excluded = 0;
+            notLTPF = 0;
+            wrongFormat = 0;
+            scanMS = 0;
+            error = null;
+        }
+
+        /**
+         * Add the counts of an item into this (total)
+         */
+        void add(Item i) {
+            files += i.files;
+            directories += i.directories;
+            bytes += i.bytes;
+            excluded += i.excluded;
+            notLTPF += i.notLTPF;
+            wrongFormat += i.wrongFormat;
+            scanMS += i.scanMS;
+        }
+
+        /**
+         * Describe the estimate
+         *
+         * @return the description
+         */
+        String describe() {
+            StringBuilder sb;
+
+            sb = new StringBuilder();
+            sb.append(files);
+            sb.append(" file(s), ");
+            sb.append(directories);
+            sb.append(" folder(s), ");
+            sb.append(HarvestProgress.formatBytes(bytes));
+            sb.append(", ");
+            sb.append(excluded);
+            sb.append(" excluded, ");
+            sb.append(notLTPF);
+            sb.append(" not LTPF");
+            if (wrongFormat > 0) {
+                sb.append(", ");
+                sb.append(wrongFormat);
+                sb.append(" wrong format");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The throughput measured in earlier runs: the time to build a VEO is
+     * msPerFile * files + msPerByte * bytes.
+     */
+    static final class Throughput {
+
+        final int veos;         // number of VEOs the model was fitted to
+        final double msPerFile; // time per content file
+        final double msPerByte; // time per byte of content
+
+        Throughput(int veos, double msPerFile, double msPerByte) {
+            this.veos = veos;
+            this.msPerFile = msPerFile;
+            this.msPerByte = msPerByte;
+        }
+
+        /**
+         * Project the time to build a VEO
+         *
+         * @param i the estimate for the item
+         * @return the time in milliseconds
+         */
+        long project(Item i) {
+            return (long) (msPerFile * i.files + msPerByte * i.bytes);
+        }
+
+        /**
+         * Read the performance record of earlier runs, and fit the model to
+         * the VEOs that were built.
+         *
+         * @param perfFile the performance record
+         * @return the throughput, or null if there is no record of any VEOs
+         * being built
+         * @throws IOException if the record could not be read
+         */
+        static Throughput read(Path perfFile) throws IOException {
+            String line;
+            String[] f;
+            double files, bytes, ms;
+            double sff, sfb, sbb, stf, stb, sf, sb, st, det, a, b;
+            int n;
+
+            sff = sfb = sbb = stf = stb = sf = sb = st = 0;
+            n = 0;
+            try (BufferedReader br = Files.newBufferedReader(perfFile, StandardCharsets.UTF_8)) {
+                br.readLine(); // header
+                while ((line = br.readLine()) != null) {
+
+                    // the name of the VEO is quoted, and may contain commas,
+                    // so split what follows it
+                    f = line.substring(line.lastIndexOf('"') + 1).split(",");
+                    if (f.length < 7 || !f[1].equals("built")) {
+                        continue;
+                    }
+                    try {
+                        files = Long.parseLong(f[2]);
+                        bytes = Long.parseLong(f[4]);
+                        ms = Long.parseLong(f[6]);
+                    } catch (NumberFormatException nfe) {
+                        continue;
+                    }
+                    sff += files * files;
+                    sfb += files * bytes;
+                    sbb += bytes * bytes;
+                    stf += ms * files;
+                    stb += ms * bytes;
+                    sf += files;
+                    sb += bytes;
+                    st += ms;
+                    n++;
+                }
+            } catch (NoSuchFileException nsfe) {
+                return null;
+            }
+            if (n == 0) {
+                return null;
+            }
+
+            // solve the normal equations; if the VEOs don't separate the two
+            // costs (or give a negative one), fall back to whichever
+            // single cost is available
+            det = sff * sbb - sfb * sfb;
+            if (det > 1e-9 * sff * sbb) {
+                a = (stf * sbb - stb * sfb) / det;
+                b = (stb * sff - stf * sfb) / det;
+                if (a >= 0 && b >= 0) {
+                    return new Throughput(n, a, b);
+                }
+            }
+            if (sb > 0) {
+                return new Throughput(n, 0, st / sb);
+            }
+            if (sf > 0) {
+                return new Throughput(n, st / sf, 0);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param items the directories to be harvested
+     */
+    HarvestEstimate(List<String> items) {
+        int i;
+
+        this.items = new Item[items.size()];
+        for (i = 0; i < this.items.length; i++) {
+            this.items[i] = new Item(items.get(i));
+        }
+        pool = null;
+    }
+
+    /**
+     * Get the estimate for one item
+     *
+     * @param i the index of the item in the job
+     * @return the estimate
+     */
+    Item item(int i) {
+        return items[i];
+    }
+
+    /**
+     * Get the number of items
+     *
+     * @return the number of items
+     */
+    int size() {
+        return items.length;
+    }
+
+    /**
+     * Get the total of the items
+     *
+     * @return the total
+     */
+    Item total() {
+        Item t;
+        int i;
+
+        t = new Item("total");
+        for (i = 0; i < items.length; i++) {
+            t.add(items[i]);
+        }
+        return t;
+    }
+
+    /**
+     * Scan the items, returning when all have been scanned (or the scan has
+     * been cancelled)
+     *
+     * @param fh the configured harvest (supplying the exclusions and LTPFs)
+     * @param threads the number of items to scan at once
+     * @param listener called (from the scanning threads) as each item is
+     * finished
+     * @throws InterruptedException if the calling thread was interrupted (the
+     * scan is abandoned, and has stopped when this is thrown)
+     */
+    void run(FileHarvest fh, int threads, Listener listener) throws InterruptedException {
+        ExecutorService p;
+        AtomicInteger thread;
+        int i;
+
+        thread = new AtomicInteger(1);
+        p = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, items.length)), (Runnable r) -> {
+            Thread t;
+
+            t = new Thread(r, "harvest-estimate-" + thread.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        pool = p;
+        try {
+            for (i = 0; i < items.length; i++) {
+                final int index = i;
+                p.execute(() -> {
+                    long start;
+
+                    start = System.nanoTime();
+                    fh.estimate(Paths.get(items[index].item), items[index]);
+                    items[index].scanMS = (System.nanoTime() - start) / 1000000;
+                    listener.itemEstimated(index, items[index]);
+                });
+            }
+        } finally {
+            p.shutdown();
+        }
+        try {
+            while (!p.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the items being scanned
+            }
+        } catch (InterruptedException ie) {
+
+            // the scanning threads use the harvest, so don't return until
+            // they have stopped
+            p.shutdownNow();
+            HarvestEngine.awaitUninterruptibly(p, null);
+            throw ie;
+        } finally {
+            pool = null;
+        }
+    }
+
+    /**
+     * Stop the scan. The items being scanned are abandoned (and marked as
+     * incomplete), and no more are started.
+     */
+    void cancel() {
+        ExecutorService p;
+
+        p = pool;
+        if (p != null) {
+            p.shutdownNow();
+        }
+    }
+
+    /**
+     * Project the time to harvest the job
+     *
+     * @param t the throughput of earlier runs
+     * @param concurrency the number of VEOs to be built at once
+     * @return the projected time in milliseconds
+     */
+    long project(Throughput t, int concurrency) {
+        long sum, max, ms;
+        int i;
+
+        sum = 0;
+        max = 0;
+        for (i = 0; i < items.length; i++) {
+            ms = t.project(items[i]);
+            sum += ms;
+            max = Math.max(max, ms);
+        }
+
+        // the VEOs are built concurrently, but the job can't finish before
+        // its largest VEO
+        return Math.max(max, sum / Math.max(1, Math.min(concurrency, items.length)));
+    }
+
+    /**
+     * Called as each item is scanned. This is called from the scanning
+     * threads, and so may be called concurrently.
+     */
+    interface Listener {
+
+        /**
+         * An item has been scanned
+         *
+         * @param i the index of the item in the job
+         * @param estimate the estimate for the item
+         */
+        void itemEstimated(int i, Item estimate);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events emitted by a harvest. Recording a run
+ * with these events enabled (e.g. with
+ * '-XX:StartFlightRecording=settings=fileharvest.jfc,filename=harvest.jfr',
+ * using the profile in the assets directory) lets garbage collection, I/O
+ * and CPU use be matched against the VEOs, directories and files being
+ * harvested at the time.
+ *
+ * The events are used in the usual way: the event is created and begun,
+ * and ended when the work is done; the fields are then filled in and the
+ * event committed only if shouldCommit() is true (i.e. recording is on and
+ * the event took longer than its threshold). When recording is off (or the
+ * event is disabled) this costs a couple of tests, and the event object is
+ * normally optimised away.
+ *
+ * The stack traces are turned off as the events say where they came from.
+ */
+final class HarvestEvents {
+
+    private HarvestEvents() {
+    }
+
+    /**
+     * A VEO was built (or failed, or was skipped as unchanged). The event
+     * spans the whole construction of the VEO.
+     */
+    @Name("fileharvest.VEO")
+    @Label("VEO")
+    @Category("FileHarvest")
+    @Description("Construction of a VEO from a directory")
+    @StackTrace(false)
+    static final class VEO extends Event {
+
+        @Label("Item")
+        @Description("The directory turned into a VEO")
+        String item;
+
+        @Label("VEO")
+        @Description("The name of the VEO")
+        String veo;
+
+        @Label("Status")
+        @Description("What happened to the VEO (built, failed or unchanged)")
+        String status;
+
+        @Label("Files")
+        long files;
+
+        @Label("Directories")
+        long directories;
+
+        @Label("Content")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * A directory was listed and its entries added to a VEO. As directories
+     * are harvested depth first, the event spans the subdirectories too.
+     */
+    @Name("fileharvest.DirectoryListed")
+    @Label("Directory Listed")
+    @Category("FileHarvest")
+    @Description("A directory was listed and its contents added to a VEO (including its subdirectories)")
+    @StackTrace(false)
+    static final class DirectoryListed extends Event {
+
+        @Label("Directory")
+        String path;
+
+        @Label("VEO")
+        String veo;
+
+        @Label("Entries")
+        @Description("The number of files and directories in the directory")
+        int entries;
+    }
+
+    /**
+     * A content file was hashed and written into a VEO (or just copied if
+     * its hash was already known)
+     */
+    @Name("fileharvest.FileHashed")
+    @Label("File Hashed")
+    @Category("FileHarvest")
+    @Description("A content file was hashed and written into a VEO")
+    @StackTrace(false)
+    static final class FileHashed extends Event {
+
+        @Label("File")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Copied")
+        @Description("True if the hash was already known, so the file was only copied")
+        boolean copied;
+    }
+
+    /**
+     * The VEOContent.xml and VEOHistory.xml files of a VEO were signed
+     */
+    @Name("fileharvest.Sign")
+    @Label("Sign")
+    @Category("FileHarvest")
+    @Description("The VEOContent.xml and VEOHistory.xml files of a VEO were signed")
+    @StackTrace(false)
+    static final class Sign extends Event {
+
+        @Label("VEO")
+        String veo;
+    }
+
+    /**
+     * A VEO was completed (i.e. the zip file closed, or the staged VEO
+     * zipped)
+     */
+    @Name("fileharvest.Finalise")
+    @Label("Finalise")
+    @Category("FileHarvest")
+    @Description("A VEO was completed and its zip file written")
+    @StackTrace(false)
+    static final class Finalise extends Event {
+
+        @Label("VEO")
+        String veo;
+
+        @Label("Size")
+        @Description("The size of the VEO's zip file")
+        @DataAmount
+        long bytes;
+    }
+}
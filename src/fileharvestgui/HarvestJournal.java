@@ -0,0 +1,386 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is the journal of a harvest. The journal is an append-only text
+ * file ('FileHarvest.journal') in the output directory. A line is written
+ * (and forced to disk) when each item is started, when its VEO has been
+ * finalised (with the path and size of the VEO), when it is skipped as
+ * unchanged, and when it fails. If the JVM dies part way through a long job,
+ * the journal records which items were completed, and the job can be resumed
+ * without repeating them.
+ *
+ * Each run starts with a 'JOB' line (or 'RESUME' if it is resuming the
+ * previous run). A resumed run removes the incomplete VEOs left by the
+ * previous run, and writes an 'ABANDONED' line for each. Each line is tab
+ * separated: the event, the date and time, the item, and any details. Tabs,
+ * newlines and backslashes in the values are escaped with a backslash.
+ *
+ * A run holds an exclusive lock on the journal while it is open, so a
+ * second run can't use the same output directory (and, in particular, can't
+ * remove the VEOs the first run is still building).
+ */
+final class HarvestJournal {
+
+    private final static Logger LOG = Logger.getLogger("FileHarvest.FileHarvestAnalysis"); // report via the harvest's log
+    static final String JOURNAL_NAME = "FileHarvest.journal";
+    private final Path outputDir;   // directory containing the journal and the VEOs
+    private final Path journal;     // the journal file
+    private final FileOutputStream out; // stream used to append to the journal
+    private final FileLock lock;    // held while the journal is open
+    private final HashSet<String> completed; // items completed in the run being resumed
+
+    /**
+     * Open the journal in the output directory. If resuming, any VEOs that
+     * were left partially built by the previous run are removed.
+     *
+     * @param outputDir the output directory
+     * @param resume true if this run resumes the previous run (i.e. items
+     * completed by it are skipped)
+     * @throws AppFatal if the journal could not be opened, or is in use by
+     * another run
+     */
+    HarvestJournal(Path outputDir, boolean resume) throws AppFatal {
+        HashMap<String, String> started;
+        Iterator<String> it;
+        String item;
+        FileLock l;
+
+        this.outputDir = outputDir;
+        journal = outputDir.resolve(JOURNAL_NAME);
+        completed = new HashSet<>();
+        started = new HashMap<>();
+
+        // open the journal for appending, and lock it. The lock is on a
+        // byte well past the end of the file, so it doesn't stop the
+        // journal being read (some systems enforce locks on reads). The
+        // journal is written through a stream, not a channel, as the workers
+        // may be interrupted (when a harvest is cancelled) and an interrupt
+        // part way through a channel write closes the channel
+        try {
+            out = new FileOutputStream(journal.toFile(), true);
+        } catch (IOException ioe) {
+            throw new AppFatal("Failed opening journal '" + journal.toString() + "': " + ioe.getMessage());
+        }
+        try {
+            l = out.getChannel().tryLock(Long.MAX_VALUE - 1, 1, false);
+        } catch (OverlappingFileLockException ofle) {
+            l = null; // held by another harvest in this JVM
+        } catch (IOException ioe) {
+            close(out);
+            throw new AppFatal("Failed locking journal '" + journal.toString() + "': " + ioe.getMessage());
+        }
+        lock = l;
+        if (lock == null) {
+            close(out);
+            throw new AppFatal("Output directory '" + outputDir.toString() + "' is being used by another harvest (journal '" + journal.toString() + "' is locked)");
+        }
+
+        // when resuming, find what happened in the previous run, and remove
+        // the VEOs it didn't finish
+        if (resume) {
+            try {
+                readJournal(started);
+            } catch (IOException ioe) {
+                close(out);
+                throw new AppFatal("Failed reading journal '" + journal.toString() + "': " + ioe.getMessage());
+            }
+            cleanUp(started);
+        }
+        write(resume ? "RESUME" : "JOB", "");
+
+        // note the incomplete VEOs that were removed
+        it = started.keySet().iterator();
+        while (it.hasNext()) {
+            item = it.next();
+            write("ABANDONED", item, started.get(item));
+        }
+        if (resume) {
+            LOG.log(Level.INFO, "Resuming previous run: {0} item(s) already completed", new Object[]{completed.size()});
+        }
+    }
+
+    /**
+     * Test if an item was completed by the run being resumed
+     *
+     * @param item the item (directory)
+     * @return true if the item was completed
+     */
+    boolean isCompleted(Path item) {
+        return completed.contains(item.toString());
+    }
+
+    /**
+     * Record that an item has been started
+     *
+     * @param item the item (directory)
+     * @param recordName the name of the VEO being built
+     */
+    void started(Path item, String recordName) {
+        write("START", item.toString(), recordName);
+    }
+
+    /**
+     * Record that the VEO for an item has been finalised
+     *
+     * @param item the item (directory)
+     * @param veo the VEO file
+     */
+    void finalised(Path item, Path veo) {
+        long size;
+
+        try {
+            size = Files.size(veo);
+        } catch (IOException ioe) {
+            size = -1;
+        }
+        write("DONE", item.toString(), veo.toString(), Long.toString(size));
+    }
+
+    /**
+     * Record that an item was not harvested as it had not changed
+     *
+     * @param item the item (directory)
+     */
+    void unchanged(Path item) {
+        write("UNCHANGED", item.toString());
+    }
+
+    /**
+     * Record that an item failed
+     *
+     * @param item the item (directory)
+     * @param reason why it failed
+     */
+    void failed(Path item, String reason) {
+        write("FAIL", item.toString(), reason);
+    }
+
+    /**
+     * Close the journal (releasing the lock)
+     */
+    void close() {
+        close(out);
+    }
+
+    private static void close(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ioe) {
+            /* ignore */
+        }
+    }
+
+    /**
+     * Append a line to the journal and force it to disk. Failure to write
+     * the journal is logged, but doesn't stop the harvest.
+     */
+    private synchronized void write(String event, String... values) {
+        StringBuilder sb;
+        int i;
+
+        sb = new StringBuilder();
+        sb.append(event);
+        sb.append('\t');
+        VERSDate.appendDateTime(sb, false, System.currentTimeMillis());
+        for (i = 0; i < values.length; i++) {
+            sb.append('\t');
+            escape(sb, values[i] != null ? values[i] : "");
+        }
+        sb.append('\n');
+        try {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException ioe) {
+            LOG.log(Level.WARNING, "Failed writing journal ''{0}'': {1}", new Object[]{journal.toString(), ioe.getMessage()});
+        }
+    }
+
+    /**
+     * Read the journal, finding the items completed and the items started
+     * but not finished in the latest run (including any runs it resumed).
+     */
+    private void readJournal(HashMap<String, String> started) throws IOException {
+        BufferedReader br;
+        String line;
+        String[] tokens;
+
+        br = Files.newBufferedReader(journal, StandardCharsets.UTF_8);
+        try {
+            while ((line = br.readLine()) != null) {
+                tokens = line.split("\t", -1);
+                if (tokens.length < 3) {
+                    continue;
+                }
+                tokens[2] = unescape(tokens[2]);
+                switch (tokens[0]) {
+                    case "JOB":
+                        completed.clear();
+                        started.clear();
+                        break;
+                    case "START":
+                        if (tokens.length > 3) {
+                            started.put(tokens[2], unescape(tokens[3]));
+                        }
+                        break;
+                    case "DONE":
+                    case "UNCHANGED":
+                        completed.add(tokens[2]);
+                        started.remove(tokens[2]);
+                        break;
+                    case "FAIL":
+                    case "ABANDONED":
+                        started.remove(tokens[2]);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Remove the remains of VEOs that were started but not finished by the
+     * previous run: staging directories, partial zip files, and spooled
+     * control files.
+     */
+    private void cleanUp(HashMap<String, String> started) {
+        Iterator<String> it;
+        DirectoryStream<Path> ds;
+        String recordName;
+
+        it = started.values().iterator();
+        while (it.hasNext()) {
+            recordName = it.next();
+            deleteAll(outputDir.resolve(recordName + ".veo"));
+            deleteAll(outputDir.resolve(recordName + ".veo.zip.tmp"));
+            try {
+                ds = Files.newDirectoryStream(outputDir, recordName + ".veo*.VEOContent.xml");
+                try {
+                    for (Path p : ds) {
+                        deleteAll(p);
+                    }
+                } finally {
+                    ds.close();
+                }
+            } catch (IOException ioe) {
+                /* ignore */
+            }
+            LOG.log(Level.WARNING, "Removed the incomplete VEO ''{0}'' left by the previous run", new Object[]{recordName});
+        }
+    }
+
+    /**
+     * Delete a file, or a directory and its contents
+     */
+    private void deleteAll(Path p) {
+        DirectoryStream<Path> ds;
+
+        if (!Files.exists(p)) {
+            return;
+        }
+        try {
+            if (Files.isDirectory(p)) {
+                ds = Files.newDirectoryStream(p);
+                try {
+                    for (Path child : ds) {
+                        deleteAll(child);
+                    }
+                } finally {
+                    ds.close();
+                }
+            }
+            Files.delete(p);
+        } catch (IOException ioe) {
+            LOG.log(Level.WARNING, "Failed to delete ''{0}'': {1}", new Object[]{p.toString(), ioe.getMessage()});
+        }
+    }
+
+    /**
+     * Escape tabs, newlines and backslashes
+     */
+    private static void escape(StringBuilder sb, String s) {
+        int i;
+        char c;
+
+        for (i = 0; i < s.length(); i++) {
+            c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Undo escape()
+     */
+    private static String unescape(String s) {
+        StringBuilder sb;
+        int i;
+        char c;
+
+        if (s.indexOf('\\') == -1) {
+            return s;
+        }
+        sb = new StringBuilder();
+        for (i = 0; i < s.length(); i++) {
+            c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                i++;
+                c = s.charAt(i);
+                switch (c) {
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    default:
+                        break;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
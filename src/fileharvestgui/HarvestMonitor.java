@@ -0,0 +1,222 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+/**
+ * This class exposes a running job over JMX, so that a long harvest can be
+ * watched (and paused, resumed or cancelled) with the usual JVM monitoring
+ * tools. Both the GUI and HarvestRunner register one while a job runs.
+ *
+ * The attributes are read straight from the counters the harvest already
+ * keeps (HarvestEngine, HarvestProgress, the hashing stage and the
+ * MemoryGovernor), so watching a harvest costs nothing until someone looks.
+ * Failure to register is logged and otherwise ignored; the harvest does not
+ * depend on JMX.
+ */
+final class HarvestMonitor implements HarvestMonitorMBean {
+
+    private final static Logger LOG = Logger.getLogger("FileHarvest.FileHarvestAnalysis.monitor"); // reported with the harvest's messages
+    static final String NAME = "fileharvestgui:type=FileHarvest"; // name the MBean is registered under
+
+    private final String job;           // the job being run
+    private final HarvestEngine engine; // the engine running the job
+    private final HarvestProgress progress; // files and bytes harvested
+    private final FileHarvest fh;       // the harvest (for the hashing stage)
+    private final MemoryGovernor mg;    // admits VEOs into construction (may be null)
+    private ObjectName name;            // the name registered under (null if not registered)
+
+    /**
+     * Constructor
+     *
+     * @param job the job being run
+     * @param engine the engine running the job
+     * @param progress the progress of the job
+     * @param fh the harvest
+     * @param mg the memory governor (may be null)
+     */
+    HarvestMonitor(String job, HarvestEngine engine, HarvestProgress progress, FileHarvest fh, MemoryGovernor mg) {
+        this.job = job;
+        this.engine = engine;
+        this.progress = progress;
+        this.fh = fh;
+        this.mg = mg;
+        name = null;
+    }
+
+    /**
+     * Register with the platform MBean server. Any monitor left registered
+     * by a previous job is replaced.
+     */
+    void register() {
+        MBeanServer mbs;
+        ObjectName on;
+
+        mbs = ManagementFactory.getPlatformMBeanServer();
+        try {
+            on = new ObjectName(NAME);
+            if (mbs.isRegistered(on)) {
+                mbs.unregisterMBean(on);
+            }
+            mbs.registerMBean(this, on);
+            name = on;
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException | InstanceNotFoundException
+                | MBeanRegistrationException | NotCompliantMBeanException | SecurityException e) {
+            LOG.log(Level.WARNING, "Could not register the harvest for monitoring over JMX: {0}", e.toString());
+        }
+    }
+
+    /**
+     * Unregister from the platform MBean server (if registered)
+     */
+    void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException | MBeanRegistrationException | SecurityException e) {
+            LOG.log(Level.FINE, "Could not unregister the harvest from JMX: {0}", e.toString());
+        }
+        name = null;
+    }
+
+    @Override
+    public String getJob() {
+        return job;
+    }
+
+    @Override
+    public String[] getCurrentItems() {
+        List<String> l;
+
+        l = engine.getCurrentItems();
+        return l.toArray(new String[l.size()]);
+    }
+
+    @Override
+    public int getItemsTotal() {
+        return progress.getItemCount();
+    }
+
+    @Override
+    public int getVEOsBuilt() {
+        return engine.getBuilt();
+    }
+
+    @Override
+    public int getVEOsFailed() {
+        return engine.getFailed();
+    }
+
+    @Override
+    public long getFilesProcessed() {
+        return progress.getFilesDone();
+    }
+
+    @Override
+    public long getFilesTotal() {
+        return progress.getFilesTotal();
+    }
+
+    @Override
+    public long getBytesProcessed() {
+        return progress.getBytesDone();
+    }
+
+    @Override
+    public long getBytesTotal() {
+        return progress.getBytesTotal();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        progress.sample();
+        return progress.getFileRate();
+    }
+
+    @Override
+    public double getMBPerSecond() {
+        progress.sample();
+        return progress.getByteRate() / (1024 * 1024);
+    }
+
+    @Override
+    public long getETASeconds() {
+        progress.sample();
+        return progress.getETA();
+    }
+
+    @Override
+    public long getHashQueueDepth() {
+        return fh.getHashQueueDepth();
+    }
+
+    @Override
+    public long getHashBufferedBytes() {
+        return fh.getHashBuffered();
+    }
+
+    @Override
+    public int getVEOsWaitingForMemory() {
+        return mg == null ? 0 : mg.getWaiting();
+    }
+
+    @Override
+    public long getFreeHeapMB() {
+        return MemoryGovernor.freeHeap() / (1024 * 1024);
+    }
+
+    @Override
+    public long getMaxHeapMB() {
+        return MemoryGovernor.maxHeap() / (1024 * 1024);
+    }
+
+    @Override
+    public long getMinFreeHeapMB() {
+        return mg == null ? 0 : mg.getMinFree() / (1024 * 1024);
+    }
+
+    @Override
+    public boolean isPaused() {
+        return engine.isPaused();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return engine.isCancelled();
+    }
+
+    @Override
+    public void pause() {
+        LOG.log(Level.WARNING, "Harvest paused over JMX: no new VEOs will be started until resumed");
+        engine.pause();
+    }
+
+    @Override
+    public void resume() {
+        LOG.log(Level.WARNING, "Harvest resumed over JMX");
+        engine.resume();
+    }
+
+    @Override
+    public void cancel() {
+        LOG.log(Level.WARNING, "Harvest cancelled over JMX: stopping once the VEOs in progress are complete");
+        engine.cancel();
+    }
+}
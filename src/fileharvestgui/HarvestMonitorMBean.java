@@ -0,0 +1,132 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+/**
+ * The management interface of a running harvest, as seen over JMX (e.g. in
+ * JConsole or VisualVM). The harvest is registered as
+ * 'fileharvestgui:type=FileHarvest' while a job is running.
+ */
+public interface HarvestMonitorMBean {
+
+    /**
+     * @return the job being run
+     */
+    String getJob();
+
+    /**
+     * @return the items currently being turned into VEOs
+     */
+    String[] getCurrentItems();
+
+    /**
+     * @return the number of items in the job
+     */
+    int getItemsTotal();
+
+    /**
+     * @return the number of VEOs built so far
+     */
+    int getVEOsBuilt();
+
+    /**
+     * @return the number of VEOs that failed so far
+     */
+    int getVEOsFailed();
+
+    /**
+     * @return the number of content files written into VEOs
+     */
+    long getFilesProcessed();
+
+    /**
+     * @return the number of content files found by the pre-scan so far
+     */
+    long getFilesTotal();
+
+    /**
+     * @return the bytes of content written into VEOs
+     */
+    long getBytesProcessed();
+
+    /**
+     * @return the bytes of content found by the pre-scan so far
+     */
+    long getBytesTotal();
+
+    /**
+     * @return the current (smoothed) rate of writing content files
+     */
+    double getFilesPerSecond();
+
+    /**
+     * @return the current (smoothed) rate of writing content (MB/s)
+     */
+    double getMBPerSecond();
+
+    /**
+     * @return the estimated time to finish the job (seconds), or -1 if not
+     * yet known
+     */
+    long getETASeconds();
+
+    /**
+     * @return the number of content files waiting to be hashed
+     */
+    long getHashQueueDepth();
+
+    /**
+     * @return the bytes of content read into memory waiting to be hashed and
+     * written
+     */
+    long getHashBufferedBytes();
+
+    /**
+     * @return the number of VEOs waiting for free heap before they start
+     */
+    int getVEOsWaitingForMemory();
+
+    /**
+     * @return the estimated free heap (MB)
+     */
+    long getFreeHeapMB();
+
+    /**
+     * @return the maximum heap (MB)
+     */
+    long getMaxHeapMB();
+
+    /**
+     * @return the free heap (MB) needed before another VEO is started
+     */
+    long getMinFreeHeapMB();
+
+    /**
+     * @return true if no new VEOs are being started until resumed
+     */
+    boolean isPaused();
+
+    /**
+     * @return true if the job has been cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * Stop starting new VEOs. The VEOs in progress are completed.
+     */
+    void pause();
+
+    /**
+     * Start new VEOs again after a pause
+     */
+    void resume();
+
+    /**
+     * Stop the job once the VEOs in progress are completed
+     */
+    void cancel();
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps track of the progress of a job, weighted by the bytes of
+ * content to be harvested rather than the number of items. The totals are
+ * found by a pre-scan of each item (with the exclusions applied), which runs
+ * alongside the harvest. The workers count each content file as it is
+ * written into a VEO; these counters are LongAdders, so the workers never
+ * wait on each other or on the display.
+ *
+ * When an item finishes (built, failed, skipped as unchanged, or completed
+ * by a previous run) whatever the pre-scan found in it that was not written
+ * is counted as skipped, so that the job reaches 100% however the items end.
+ *
+ * The display calls sample() periodically to update the estimates of the
+ * rate (files/s and bytes/s), which are smoothed so that the ETA adapts to
+ * changes in throughput without jumping about.
+ */
+final class HarvestProgress {
+
+    private static final double TAU = 20.0; // time constant of the rate smoothing (seconds)
+
+    private final Item[] items;         // progress of each item in the job
+    private final LongAdder filesTotal; // files found by the pre-scan
+    private final LongAdder bytesTotal; // bytes found by the pre-scan
+    private final LongAdder filesDone;  // files written into VEOs
+    private final LongAdder bytesDone;  // bytes written into VEOs
+    private final LongAdder filesSkipped; // files found but not written when their item finished
+    private final LongAdder bytesSkipped; // bytes found but not written when their item finished
+    private final LongAdder itemsScanned; // number of items completely pre-scanned
+    private final long started;         // when the job started (System.nanoTime())
+    private long lastSample;            // time of the last sample (0 if none yet)
+    private long lastFiles;             // files done at the last sample
+    private long lastBytes;             // bytes done at the last sample
+    private double fileRate;            // smoothed files per second
+    private double byteRate;            // smoothed bytes per second
+
+    /**
+     * Constructor
+     *
+     * @param count the number of items in the job
+     */
+    HarvestProgress(int count) {
+        int i;
+
+        filesTotal = new LongAdder();
+        bytesTotal = new LongAdder();
+        filesDone = new LongAdder();
+        bytesDone = new LongAdder();
+        filesSkipped = new LongAdder();
+        bytesSkipped = new LongAdder();
+        itemsScanned = new LongAdder();
+        items = new Item[count];
+        for (i = 0; i < count; i++) {
+            items[i] = new Item();
+        }
+        started = System.nanoTime();
+        lastSample = 0;
+        lastFiles = 0;
+        lastBytes = 0;
+        fileRate = 0;
+        byteRate = 0;
+    }
+
+    /**
+     * Get the progress of one item
+     *
+     * @param i the index of the item in the job
+     * @return the item's progress
+     */
+    Item item(int i) {
+        return items[i];
+    }
+
+    /**
+     * Get the number of items in the job
+     *
+     * @return the number of items
+     */
+    int getItemCount() {
+        return items.length;
+    }
+
+    /**
+     * Test if the pre-scan has finished
+     *
+     * @return true if every item has been scanned
+     */
+    boolean isScanned() {
+        return itemsScanned.sum() == items.length;
+    }
+
+    /**
+     * Get the number of files found by the pre-scan so far
+     *
+     * @return the number of files
+     */
+    long getFilesTotal() {
+        return filesTotal.sum();
+    }
+
+    /**
+     * Get the number of bytes found by the pre-scan so far
+     *
+     * @return the number of bytes
+     */
+    long getBytesTotal() {
+        return bytesTotal.sum();
+    }
+
+    /**
+     * Get the number of files dealt with (written, or skipped when their item
+     * finished)
+     *
+     * @return the number of files
+     */
+    long getFilesDone() {
+        return filesDone.sum() + filesSkipped.sum();
+    }
+
+    /**
+     * Get the number of bytes dealt with (written, or skipped when their item
+     * finished)
+     *
+     * @return the number of bytes
+     */
+    long getBytesDone() {
+        return bytesDone.sum() + bytesSkipped.sum();
+    }
+
+    /**
+     * Get the fraction of the job done, by bytes (or by files if the job
+     * has no content)
+     *
+     * @return the fraction between 0 and 1, or -1 if not yet known
+     */
+    double getFraction() {
+        long total;
+        double f;
+
+        if (!isScanned()) {
+            return -1;
+        }
+        total = getBytesTotal();
+        if (total > 0) {
+            f = ((double) getBytesDone()) / total;
+        } else if ((total = getFilesTotal()) > 0) {
+            f = ((double) getFilesDone()) / total;
+        } else {
+            return 0;
+        }
+        return Math.max(0, Math.min(f, 1));
+    }
+
+    /**
+     * Update the estimates of the rates. The first sample takes the average
+     * since the job started; subsequent samples are exponentially smoothed
+     * with a time constant of TAU, whatever the interval between samples.
+     * Only the content actually written counts (items skipped don't make
+     * the job look faster than it is).
+     */
+    synchronized void sample() {
+        long now, files, bytes;
+        double dt, a;
+
+        now = System.nanoTime();
+        files = filesDone.sum();
+        bytes = bytesDone.sum();
+        if (lastSample == 0) {
+            dt = (now - started) / 1e9;
+            if (dt < 1) {
+                return;
+            }
+            fileRate = files / dt;
+            byteRate = bytes / dt;
+        } else {
+            dt = (now - lastSample) / 1e9;
+            if (dt <= 0) {
+                return;
+            }
+            a = 1 - Math.exp(-dt / TAU);
+            fileRate += a * ((files - lastFiles) / dt - fileRate);
+            byteRate += a * ((bytes - lastBytes) / dt - byteRate);
+        }
+        lastSample = now;
+        lastFiles = files;
+        lastBytes = bytes;
+    }
+
+    /**
+     * Get the smoothed rate at which files are written
+     *
+     * @return files per second
+     */
+    synchronized double getFileRate() {
+        return fileRate;
+    }
+
+    /**
+     * Get the smoothed rate at which content is written
+     *
+     * @return bytes per second
+     */
+    synchronized double getByteRate() {
+        return byteRate;
+    }
+
+    /**
+     * Estimate the time to finish the job. This is the longer of the time to
+     * write the remaining bytes and the time to write the remaining files, as
+     * a job of many small files is limited by the per file cost, not the
+     * bandwidth.
+     *
+     * @return the estimated time in seconds, or -1 if it can't be estimated
+     */
+    synchronized long getETA() {
+        double eta;
+        long rem;
+
+        if (!isScanned() || lastSample == 0) {
+            return -1;
+        }
+        eta = 0;
+        rem = getBytesTotal() - getBytesDone();
+        if (rem > 0) {
+            if (byteRate <= 0) {
+                return -1;
+            }
+            eta = rem / byteRate;
+        }
+        rem = getFilesTotal() - getFilesDone();
+        if (rem > 0) {
+            if (fileRate <= 0) {
+                return -1;
+            }
+            eta = Math.max(eta, rem / fileRate);
+        }
+        return (long) Math.ceil(eta);
+    }
+
+    /**
+     * Describe the progress on one line (e.g. for the command line)
+     *
+     * @return the description
+     */
+    String describe() {
+        StringBuilder sb;
+        long eta;
+
+        sb = new StringBuilder();
+        sb.append(formatBytes(getBytesDone()));
+        sb.append(" of ");
+        if (!isScanned()) {
+            sb.append("at least ");
+        }
+        sb.append(formatBytes(getBytesTotal()));
+        sb.append(String.format(Locale.ROOT, ", %.1f files/s, %.1f MB/s", getFileRate(), getByteRate() / (1024 * 1024)));
+        eta = getETA();
+        if (eta >= 0) {
+            sb.append(", ETA ");
+            sb.append(formatDuration(eta));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Format a number of bytes for display (e.g. '1.5 GB')
+     *
+     * @param bytes the number of bytes
+     * @return the formatted number
+     */
+    static String formatBytes(long bytes) {
+        final String[] units = {"KB", "MB", "GB", "TB"};
+        double d;
+        int i;
+
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        d = bytes / 1024.0;
+        i = 0;
+        while (d >= 1024 && i < units.length - 1) {
+            d = d / 1024;
+            i++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", d, units[i]);
+    }
+
+    /**
+     * Format a duration for display (e.g. '2:05:09')
+     *
+     * @param secs the duration in seconds
+     * @return the formatted duration
+     */
+    static String formatDuration(long secs) {
+        return String.format(Locale.ROOT, "%d:%02d:%02d", secs / 3600, (secs / 60) % 60, secs % 60);
+    }
+
+    /**
+     * The progress of one item of the job. The pre-scan counts the content
+     * found with found(), and the writers count the content written with
+     * fileDone(). Both may be called from several threads at once.
+     */
+    final class Item {
+
+        private final LongAdder filesFound; // files found by the pre-scan
+        private final LongAdder bytesFound; // bytes found by the pre-scan
+        private final LongAdder filesWritten; // files written into the VEO
+        private final LongAdder bytesWritten; // bytes written into the VEO
+        private boolean scanned;    // true once the pre-scan of this item is complete
+        private boolean finished;   // true once the item has been processed
+
+        Item() {
+            filesFound = new LongAdder();
+            bytesFound = new LongAdder();
+            filesWritten = new LongAdder();
+            bytesWritten = new LongAdder();
+            scanned = false;
+            finished = false;
+        }
+
+        /**
+         * The pre-scan found a content file
+         *
+         * @param bytes the size of the file
+         */
+        void found(long bytes) {
+            filesFound.increment();
+            bytesFound.add(bytes);
+            filesTotal.increment();
+            bytesTotal.add(bytes);
+        }
+
+        /**
+         * A content file has been written into the VEO
+         *
+         * @param bytes the size of the file
+         */
+        void fileDone(long bytes) {
+            filesWritten.increment();
+            bytesWritten.add(bytes);
+            filesDone.increment();
+            bytesDone.add(bytes);
+        }
+
+        /**
+         * The pre-scan of this item is complete (or was abandoned)
+         */
+        synchronized void scanned() {
+            if (scanned) {
+                return;
+            }
+            scanned = true;
+            itemsScanned.increment();
+            if (finished) {
+                settle();
+            }
+        }
+
+        /**
+         * This item has been processed (whatever the outcome)
+         */
+        synchronized void finished() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (scanned) {
+                settle();
+            }
+        }
+
+        /**
+         * Count whatever was found but not written as skipped. This may be
+         * negative if files grew, or were added, after they were scanned.
+         */
+        private void settle() {
+            filesSkipped.add(filesFound.sum() - filesWritten.sum());
+            bytesSkipped.add(bytesFound.sum() - bytesWritten.sum());
+        }
+    }
+}
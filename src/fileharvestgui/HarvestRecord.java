@@ -0,0 +1,54 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.nio.file.Path;
+
+/**
+ * This class holds the state of the construction of one VEO (i.e. the harvest
+ * of one directory). A new instance is created for each VEO so that a single
+ * FileHarvest can construct several VEOs at the same time on different
+ * threads.
+ */
+final class HarvestRecord {
+
+    final Path baseDirectory;   // directory being harvested into this VEO
+    final String recordName;    // name of the record (and hence the VEO)
+    final String recordURI;     // identifier of the record (and prefix of the ids of its information objects)
+    final String[] recMetadata; // collection of metadata describing this record
+    final String[] objMetadata; // metadata describing the current file or directory (reused for each)
+    VEOWriter cv;               // the VEO being constructed
+    Path veoDirectory;          // directory in which to create the VEO content (if staged)
+    boolean addedDummyLTPF;     // true if dummy LTPF has been added to VEO
+    int iocnt;                  // count of the information objects added (used to make a unique id)
+    Manifest manifest;          // manifest of the files harvested into this VEO
+    Manifest previous;          // manifest from the last harvest of this directory (null if none)
+    final EventSummary events;  // warnings about individual files, summarised
+    final VEOTimings times;     // time spent in each phase of building the VEO
+
+    /**
+     * Constructor
+     *
+     * @param baseDirectory the directory to be harvested
+     * @param recordName the name of the record
+     */
+    HarvestRecord(Path baseDirectory, String recordName) {
+        this.baseDirectory = baseDirectory;
+        this.recordName = recordName;
+        recordURI = "http://www.prov.vic.gov.au/records/" + recordName;
+        recMetadata = new String[6];
+        objMetadata = new String[7];
+        cv = null;
+        veoDirectory = null;
+        addedDummyLTPF = false;
+        iocnt = 1;
+        manifest = null;
+        previous = null;
+        events = new EventSummary();
+        times = new VEOTimings();
+    }
+}
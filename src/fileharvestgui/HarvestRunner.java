@@ -0,0 +1,569 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+import org.json.simple.JSONObject;
+
+/**
+ * This class runs one or more Jobs (saved from the GUI as JSON files) without
+ * the GUI, e.g. on a headless harvest server. Each Job is run through a
+ * HarvestEngine, exactly as the GUI runs it. Progress and the harvest's log
+ * messages are written to standard output, either as plain text lines or (with
+ * '-json') as one JSON object per line.
+ *
+ * The Jobs are run one after the other; the VEOs within each Job are built
+ * concurrently (as set in the Job, or overridden with '-j').
+ *
+ * The exit code is 0 if all the VEOs were built, 1 if some VEOs failed (or,
+ * when estimating, some items could not be completely scanned), 2 if
+ * a Job could not be run (e.g. the Job file could not be read, or the
+ * template directory or PFX file was missing), 3 if the command line was
+ * wrong, and 4 if the run was interrupted. A run interrupted by a signal
+ * (e.g. ^C) stops starting new VEOs and completes the VEOs in progress before
+ * the JVM exits (with the usual status for the signal, e.g. 130); it can be
+ * continued with '-resume'.
+ *
+ * While a Job runs, its progress can be watched (and the Job paused, resumed
+ * or cancelled) over JMX; see HarvestMonitor.
+ *
+ * With '-estimate' the Jobs are not run; instead each item is scanned (with
+ * the Job's exclusions) and the files, bytes, excluded entries and non-LTPF
+ * files it contains are reported, with a projection of the time to run the
+ * Job based on earlier runs into the same output directory (see
+ * HarvestEstimate). Nothing is written to the output directory.
+ *
+ * This class does not use JavaFX, so it can be run without it on the
+ * classpath.
+ */
+public final class HarvestRunner {
+
+    static final int EXIT_OK = 0;           // all VEOs were built
+    static final int EXIT_FAILURES = 1;     // some VEOs failed
+    static final int EXIT_JOB_ERROR = 2;    // a job could not be run
+    static final int EXIT_USAGE = 3;        // bad command line
+    static final int EXIT_INTERRUPTED = 4;  // the run was interrupted
+
+    private static final String USAGE = "HarvestRunner [-j <concurrency>] [-json] [-stage] [-incremental] [-resume] [-estimate] jobFile...";
+
+    private final PrintStream out;  // where progress is reported
+    private final ArrayList<Path> jobFiles; // the job files to run
+    private boolean json;           // true if progress is reported as JSON
+    private int concurrency;        // number of VEOs to build at once (0 = as set in job)
+    private boolean stageVEOs;      // true if VEOs are to be staged (overrides job)
+    private boolean incremental;    // true if an incremental harvest (overrides job)
+    private boolean resume;         // true if resuming the previous run (never saved in a job)
+    private boolean estimate;       // true if the jobs are only estimated, not run
+    private volatile HarvestEngine engine; // the engine running the current job
+    private volatile HarvestEstimate estimating; // the estimate of the current job (if estimating)
+    private final Object exitLock;  // controls exiting
+    private boolean exiting;        // true if the runner is exiting normally
+    private boolean interrupted;    // true if the JVM is being shut down (e.g. ^C)
+
+    /**
+     * Constructor
+     *
+     * @param out where progress is reported
+     */
+    HarvestRunner(PrintStream out) {
+        this.out = out;
+        jobFiles = new ArrayList<>();
+        json = false;
+        concurrency = 0;
+        stageVEOs = false;
+        incremental = false;
+        resume = false;
+        estimate = false;
+        engine = null;
+        estimating = null;
+        exitLock = new Object();
+        exiting = false;
+        interrupted = false;
+    }
+
+    /**
+     * Process the command line arguments
+     *
+     * @param args the command line arguments
+     * @throws AppFatal if the arguments were wrong
+     */
+    void configure(String[] args) throws AppFatal {
+        int i;
+
+        i = 0;
+        try {
+            while (i < args.length) {
+                switch (args[i]) {
+
+                    // number of VEOs to build at once
+                    case "-j":
+                        i++;
+                        try {
+                            concurrency = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException nfe) {
+                            throw new AppFatal("Concurrency must be a number: '" + args[i] + "'. Usage: " + USAGE);
+                        }
+                        if (concurrency < 1) {
+                            throw new AppFatal("Concurrency must be at least 1. Usage: " + USAGE);
+                        }
+                        i++;
+                        break;
+
+                    // report progress as JSON
+                    case "-json":
+                        json = true;
+                        i++;
+                        break;
+
+                    case "-stage":
+                        stageVEOs = true;
+                        i++;
+                        break;
+
+                    case "-incremental":
+                        incremental = true;
+                        i++;
+                        break;
+
+                    case "-resume":
+                        resume = true;
+                        i++;
+                        break;
+
+                    // scan the items and estimate the job without running it
+                    case "-estimate":
+                        estimate = true;
+                        i++;
+                        break;
+
+                    default:
+                        if (args[i].charAt(0) == '-') {
+                            throw new AppFatal("Unrecognised argument '" + args[i] + "'. Usage: " + USAGE);
+                        }
+                        jobFiles.add(Paths.get(args[i]));
+                        i++;
+                        break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ae) {
+            throw new AppFatal("Missing argument. Usage: " + USAGE);
+        }
+        if (jobFiles.isEmpty()) {
+            throw new AppFatal("No job files specified. Usage: " + USAGE);
+        }
+    }
+
+    /**
+     * Run the jobs
+     *
+     * @return the exit code
+     */
+    int run() {
+        int i, res, worst;
+
+        worst = EXIT_OK;
+        for (i = 0; i < jobFiles.size(); i++) {
+            res = runJob(jobFiles.get(i));
+            if (res > worst) {
+                worst = res;
+            }
+            if (res == EXIT_INTERRUPTED) {
+                break;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Run one job
+     *
+     * @param jobFile the file containing the job
+     * @return the exit code
+     */
+    private int runJob(Path jobFile) {
+        Job job;
+        FileHarvest fh;
+        MemoryGovernor mg;
+        HarvestEngine he;
+        HarvestMonitor monitor;
+        final HarvestProgress progress;
+        final AtomicInteger built, failed;
+        final int total;
+        final String jobName;
+        List<ExclusionIndex.Rule> rules;
+        ExclusionIndex.Rule r;
+        long start;
+        int i;
+        boolean wasInterrupted;
+
+        jobName = jobFile.toString();
+
+        // load and check the job
+        job = new Job();
+        try {
+            job.loadJob(jobFile);
+        } catch (AppError ae) {
+            jobFailed(jobName, ae.getMessage());
+            return EXIT_JOB_ERROR;
+        }
+        if (concurrency > 0) {
+            job.concurrency = concurrency;
+        }
+        job.stageVEOs |= stageVEOs;
+        job.incremental |= incremental;
+        job.resume = resume;
+        job.estimate = estimate;
+        if (!job.validate()) {
+            jobFailed(jobName, "Job must specify the items to harvest, the template directory, the PFX file and its password");
+            return EXIT_JOB_ERROR;
+        }
+        try {
+            fh = new FileHarvest(job, new OutputHandler(jobName));
+        } catch (AppFatal af) {
+            jobFailed(jobName, af.getMessage());
+            return EXIT_JOB_ERROR;
+        }
+
+        if (job.estimate) {
+            return estimateJob(jobName, job, fh);
+        }
+
+        // run the items through the engine
+        total = job.items.size();
+        built = new AtomicInteger(0);
+        failed = new AtomicInteger(0);
+        start = System.currentTimeMillis();
+        report(jobName, "jobStarted", "Running job '" + jobName + "' (" + total + " item(s), " + job.concurrency + " at once)", "items", total, "concurrency", job.concurrency);
+        mg = new MemoryGovernor(job.minFreeHeap);
+        he = new HarvestEngine(fh, job.concurrency, mg);
+        progress = new HarvestProgress(total);
+        monitor = new HarvestMonitor(jobName, he, progress, fh, mg);
+        monitor.register();
+        engine = he;
+        wasInterrupted = false;
+        try {
+            synchronized (exitLock) {
+                if (interrupted) {
+                    he.cancel();
+                }
+            }
+            he.run(job.items, new HarvestEngine.Listener() {
+                @Override
+                public void itemStarted(int i, String item) {
+                    report(jobName, "itemStarted", "Starting " + item, "index", i, "item", item);
+                }
+
+                @Override
+                public void itemFinished(int i, String item, boolean success) {
+                    int done;
+
+                    if (success) {
+                        built.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                    done = built.get() + failed.get();
+                    progress.sample();
+                    report(jobName, "itemFinished", "[" + done + "/" + total + "] " + (success ? "Built " : "FAILED ") + item + " (" + progress.describe() + ")",
+                            "index", i, "item", item, "success", success, "done", done, "total", total,
+                            "bytesDone", progress.getBytesDone(), "bytesTotal", progress.getBytesTotal(),
+                            "filesDone", progress.getFilesDone(), "filesTotal", progress.getFilesTotal(),
+                            "etaS", progress.getETA());
+                }
+            }, progress);
+        } catch (InterruptedException ie) {
+            wasInterrupted = true;
+        } finally {
+            engine = null;
+            monitor.unregister();
+            mg.close();
+            fh.close();
+        }
+        wasInterrupted |= he.isCancelled();
+
+        report(jobName, "jobFinished", "Finished job '" + jobName + "': " + built.get() + " built, " + failed.get() + " failed, "
+                + (total - built.get() - failed.get()) + " not started, "
+                + fh.getSkippedCount() + " unchanged, " + fh.getResumedCount() + " completed by previous run ("
+                + (System.currentTimeMillis() - start) + " ms)" + (wasInterrupted ? " - INTERRUPTED" : ""),
+                "built", built.get(), "failed", failed.get(), "notStarted", total - built.get() - failed.get(),
+                "unchanged", fh.getSkippedCount(), "resumed", fh.getResumedCount(),
+                "elapsedMS", System.currentTimeMillis() - start, "interrupted", wasInterrupted);
+        reportTimings(jobName, fh);
+        rules = fh.getExclusions().getRules();
+        for (i = 0; i < rules.size(); i++) {
+            r = rules.get(i);
+            report(jobName, "exclusion", "Excluded by " + r.toString() + ": " + r.getHits(), "rule", r.toString(), "hits", r.getHits());
+        }
+        if (wasInterrupted) {
+            return EXIT_INTERRUPTED;
+        }
+        return failed.get() > 0 ? EXIT_FAILURES : EXIT_OK;
+    }
+
+    /**
+     * Estimate a job: scan the items in parallel, reporting each as it is
+     * finished, then report the total and the projected time to run the job.
+     * The items are scanned by at least as many threads as there are
+     * processors, as the scan mostly waits on the file system.
+     *
+     * @return the exit code
+     */
+    private int estimateJob(String jobName, Job job, FileHarvest fh) {
+        final HarvestEstimate he;
+        final int total;
+        final AtomicInteger done, incomplete;
+        HarvestEstimate.Item t;
+        HarvestEstimate.Throughput tp;
+        long start, ms;
+        boolean wasInterrupted;
+
+        total = job.items.size();
+        done = new AtomicInteger(0);
+        incomplete = new AtomicInteger(0);
+        he = new HarvestEstimate(job.items);
+        start = System.currentTimeMillis();
+        report(jobName, "estimateStarted", "Estimating job '" + jobName + "' (" + total + " item(s))", "items", total);
+        estimating = he;
+        wasInterrupted = false;
+        try {
+            synchronized (exitLock) {
+                if (interrupted) {
+                    he.cancel();
+                }
+            }
+            he.run(fh, Math.max(job.concurrency, Runtime.getRuntime().availableProcessors()), (int i, HarvestEstimate.Item e) -> {
+                int n;
+
+                n = done.incrementAndGet();
+                if (e.error != null) {
+                    incomplete.incrementAndGet();
+                }
+                report(jobName, "itemEstimated", "[" + n + "/" + total + "] " + e.item + ": " + e.describe()
+                        + (e.error != null ? " - INCOMPLETE: " + e.error : "") + " (" + e.scanMS + " ms)",
+                        "index", i, "item", e.item, "files", e.files, "directories", e.directories, "bytes", e.bytes,
+                        "excluded", e.excluded, "notLTPF", e.notLTPF, "wrongFormat", e.wrongFormat,
+                        "scanMS", e.scanMS, "error", e.error);
+            });
+        } catch (InterruptedException ie) {
+            wasInterrupted = true;
+        } finally {
+            estimating = null;
+            fh.close();
+        }
+        synchronized (exitLock) {
+            wasInterrupted |= interrupted;
+        }
+
+        t = he.total();
+        report(jobName, "estimateFinished", "Estimate of job '" + jobName + "': " + t.describe() + " in " + total + " item(s)"
+                + (incomplete.get() > 0 ? ", " + incomplete.get() + " incomplete" : "")
+                + " (" + (System.currentTimeMillis() - start) + " ms)" + (wasInterrupted ? " - INTERRUPTED" : ""),
+                "items", total, "files", t.files, "directories", t.directories, "bytes", t.bytes,
+                "excluded", t.excluded, "notLTPF", t.notLTPF, "wrongFormat", t.wrongFormat,
+                "incomplete", incomplete.get(), "elapsedMS", System.currentTimeMillis() - start, "interrupted", wasInterrupted);
+
+        // project the time to run the job from the earlier runs
+        try {
+            tp = HarvestEstimate.Throughput.read(fh.getPerformanceRecord());
+        } catch (IOException ioe) {
+            report(jobName, "projection", "Cannot project the time to run the job: failed reading '" + fh.getPerformanceRecord() + "': " + ioe.getMessage(),
+                    "message", ioe.getMessage());
+            tp = null;
+        }
+        if (tp == null) {
+            report(jobName, "projection", "Cannot project the time to run the job: no VEOs have been built into '" + job.outputDir + "' before");
+        } else {
+            ms = he.project(tp, job.concurrency);
+            report(jobName, "projection", "Projected time to run the job (" + job.concurrency + " at once): "
+                    + HarvestProgress.formatDuration(ms / 1000) + ", from " + tp.veos + " VEO(s) built before ("
+                    + String.format(Locale.ROOT, "%.2f ms/file, %.1f MB/s", tp.msPerFile, tp.msPerByte > 0 ? 1000 / (tp.msPerByte * 1024 * 1024) : 0.0) + ")",
+                    "projectedMS", ms, "concurrency", job.concurrency, "veos", tp.veos,
+                    "msPerFile", tp.msPerFile, "msPerByte", tp.msPerByte);
+        }
+        if (wasInterrupted) {
+            return EXIT_INTERRUPTED;
+        }
+        return incomplete.get() > 0 ? EXIT_FAILURES : EXIT_OK;
+    }
+
+    /**
+     * Report where the time went in building the VEOs. In JSON mode, the
+     * time in each phase (ms) is reported.
+     */
+    private void reportTimings(String jobName, FileHarvest fh) {
+        VEOTimings t;
+        VEOTimings.Phase[] phases;
+        ArrayList<Object> nv;
+        int i;
+
+        t = fh.getTimings();
+        phases = VEOTimings.Phase.values();
+        nv = new ArrayList<>();
+        nv.add("veos");
+        nv.add(t.veos);
+        nv.add("files");
+        nv.add(t.files);
+        nv.add("directories");
+        nv.add(t.directories);
+        nv.add("bytes");
+        nv.add(t.bytes);
+        nv.add("excluded");
+        nv.add(t.excluded);
+        for (i = 0; i < phases.length; i++) {
+            nv.add(phases[i].name().toLowerCase(Locale.ROOT) + "MS");
+            nv.add(t.getMS(phases[i]));
+        }
+        report(jobName, "performance", String.join("\n", fh.getPerformanceSummary()), nv.toArray());
+    }
+
+    /**
+     * Report that a job could not be run
+     */
+    private void jobFailed(String jobName, String mesg) {
+        report(jobName, "jobFailed", "Job '" + jobName + "' could not be run: " + mesg, "message", mesg);
+    }
+
+    /**
+     * Report an event. In text mode the text is printed; in JSON mode a JSON
+     * object containing the event, the job, and the name/value pairs is
+     * printed. Called from the worker threads.
+     *
+     * @param jobName the job the event belongs to
+     * @param event the event
+     * @param text the event as text
+     * @param nv pairs of names and values
+     */
+    @SuppressWarnings("unchecked")
+    private void report(String jobName, String event, String text, Object... nv) {
+        JSONObject j;
+        int i;
+
+        if (json) {
+            j = new JSONObject();
+            j.put("event", event);
+            j.put("job", jobName);
+            for (i = 0; i + 1 < nv.length; i += 2) {
+                j.put(nv[i], nv[i + 1]);
+            }
+            text = j.toJSONString();
+        }
+        synchronized (out) {
+            out.println(text);
+            out.flush();
+        }
+    }
+
+    /**
+     * Called when the JVM is shutting down (e.g. ^C). Unless the runner is
+     * exiting normally, stop starting new VEOs and wait until the VEOs in
+     * progress are complete (so that the run can be resumed).
+     *
+     * @param main the thread running the jobs
+     */
+    private void shutdown(Thread main) {
+        HarvestEngine he;
+        HarvestEstimate est;
+
+        synchronized (exitLock) {
+            if (exiting) {
+                return;
+            }
+            interrupted = true;
+            he = engine;
+            if (he != null) {
+                he.cancel();
+            }
+            est = estimating;
+            if (est != null) {
+                est.cancel();
+            }
+        }
+        try {
+            main.join();
+        } catch (InterruptedException ie) {
+            /* ignore */
+        }
+    }
+
+    /**
+     * Passes the harvest's log messages to the output
+     */
+    private class OutputHandler extends Handler {
+
+        private final String jobName;       // the job generating the messages
+        private final SimpleFormatter sf;   // used to fill in the message parameters
+
+        OutputHandler(String jobName) {
+            this.jobName = jobName;
+            sf = new SimpleFormatter();
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            String s;
+
+            if (!isLoggable(record)) {
+                return;
+            }
+            s = sf.formatMessage(record);
+            report(jobName, "log", record.getLevel().toString() + ": " + s, "level", record.getLevel().toString(), "message", s);
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Main program
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        HarvestRunner hr;
+        final Thread main;
+        int res;
+
+        hr = new HarvestRunner(System.out);
+        try {
+            hr.configure(args);
+        } catch (AppFatal af) {
+            System.err.println(af.getMessage());
+            System.exit(EXIT_USAGE);
+        }
+        main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            hr.shutdown(main);
+        }, "harvest-shutdown"));
+        res = hr.run();
+
+        // exit, unless the JVM is already shutting down (which is waiting
+        // for this thread to finish)
+        synchronized (hr.exitLock) {
+            if (hr.interrupted) {
+                return;
+            }
+            hr.exiting = true;
+        }
+        System.exit(res);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class hashes content files on a ForkJoinPool while the directory tree
+ * is still being walked. Each file is read once; its bytes are hashed and
+ * then written into the VEO's zip file. Hashing runs in parallel, but only
+ * one thread at a time writes to a given zip file (the writers synchronise
+ * on the ZipOutputStream).
+ *
+ * Every file goes through a ContentPipe's direct buffer. A small file (one
+ * that fits in the buffer) is read into the buffer, hashed without holding
+ * the zip lock, and then written into the zip file from the same buffer. The
+ * total size of the files held in the buffers at once is also limited by a
+ * byte budget shared by all the VEOs being built; no more than the part of
+ * the budget reserved for a file is read. Bigger files are streamed through
+ * the buffer straight into the zip file while holding the zip lock.
+ *
+ * Waiting for the budget, and for (and while holding) a zip lock, blocks a
+ * hashing thread, so these are done as ForkJoinPool.ManagedBlockers. The
+ * pool can then start spare threads to keep the other VEOs' files moving.
+ */
+final class HashingStage {
+
+    private final ForkJoinPool pool; // the threads that hash the files
+    private final Semaphore budget; // KB of file content that may be held in memory
+    private final int budgetKB;     // total size of the budget (KB)
+
+    /**
+     * Constructor
+     *
+     * @param parallelism the number of hashing threads
+     * @param budgetBytes the maximum number of bytes of file content held in
+     * memory at any one time
+     */
+    HashingStage(int parallelism, long budgetBytes) {
+        pool = new ForkJoinPool(Math.max(parallelism, 1));
+        budgetKB = (int) Math.max(Math.min(budgetBytes / 1024, Integer.MAX_VALUE), 1024);
+        budget = new Semaphore(budgetKB);
+    }
+
+    /**
+     * Default byte budget: an eighth of the maximum heap, but no more than
+     * 256MB.
+     *
+     * @return the budget in bytes
+     */
+    static long defaultBudget() {
+        return Math.min(Runtime.getRuntime().maxMemory() / 8, 256L * 1024 * 1024);
+    }
+
+    /**
+     * Queue a content file to be hashed and written into a zip file.
+     *
+     * @param file the content file
+     * @param entry the name of the entry in the zip file
+     * @param hashAlg the hash algorithm
+     * @param knownHash the hash of the file if already known (the file is then
+     * just copied), or null
+     * @param zos the zip file
+     * @param progress counts the file once it is written (may be null)
+     * @return a task that returns the base64 encoded hash of the file
+     */
+    ForkJoinTask<String> submit(Path file, String entry, String hashAlg, String knownHash, ZipOutputStream zos, HarvestProgress.Item progress) {
+        return pool.submit(() -> {
+            HarvestEvents.FileHashed event;
+            String hash;
+            long size;
+
+            event = new HarvestEvents.FileHashed();
+            event.begin();
+            if (knownHash != null) {
+                size = writeZip(zos, () -> {
+                    long n;
+
+                    zos.putNextEntry(new ZipEntry(entry));
+                    n = Files.copy(file, zos);
+                    zos.closeEntry();
+                    return n;
+                });
+                if (progress != null) {
+                    progress.fileDone(size);
+                }
+                event.size = size;
+                hash = knownHash;
+            } else {
+                hash = hash(file, entry, hashAlg, zos, progress, event);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = file.toString();
+                event.copied = (knownHash != null);
+                event.commit();
+            }
+            return hash;
+        });
+    }
+
+    /**
+     * Get the number of content files waiting to be hashed
+     *
+     * @return the number of files queued (an estimate)
+     */
+    long getQueued() {
+        return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+    }
+
+    /**
+     * Get the amount of file content currently held in memory
+     *
+     * @return the bytes of content held
+     */
+    long getBuffered() {
+        return (long) (budgetKB - budget.availablePermits()) * 1024;
+    }
+
+    /**
+     * Stop the hashing threads. Files already queued are still processed.
+     */
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Hash a file and write it into the zip file
+     */
+    private String hash(Path file, String entry, String hashAlg, ZipOutputStream zos, HarvestProgress.Item progress, HarvestEvents.FileHashed event) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md;
+        ByteBuffer bb;
+        byte[] hash;
+        long size;
+        int kb, n;
+
+        md = MessageDigest.getInstance(hashAlg);
+        size = Files.size(file);
+        event.size = size;
+        kb = (int) ((size + 1023) / 1024);
+
+        // big files are streamed straight into the zip file
+        if (size > ContentPipe.BUFSIZE || kb > budgetKB / 4) {
+            hash = writeZip(zos, () -> {
+                byte[] h;
+
+                zos.putNextEntry(new ZipEntry(entry));
+                h = ContentPipe.transfer(file, md, zos);
+                zos.closeEntry();
+                return h;
+            });
+            if (progress != null) {
+                progress.fileDone(size);
+            }
+            return Base64.getEncoder().encodeToString(hash);
+        }
+
+        // small files are read into this thread's buffer and hashed in
+        // parallel, then written from the same buffer
+        acquire(kb);
+        try {
+            bb = ContentPipe.read(file, kb * 1024);
+            n = bb.remaining();
+            md.update(bb);
+            bb.rewind();
+            hash = md.digest();
+            writeZip(zos, () -> {
+                zos.putNextEntry(new ZipEntry(entry));
+                ContentPipe.write(bb, zos);
+                zos.closeEntry();
+                return null;
+            });
+        } finally {
+            budget.release(kb);
+        }
+        event.size = n;
+        if (progress != null) {
+            progress.fileDone(n);
+        }
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
+    /**
+     * Acquire part of the byte budget. The budget is only held by tasks
+     * that are reading or writing, so this never waits for long.
+     */
+    private void acquire(int kb) throws IOException {
+        try {
+            ForkJoinPool.managedBlock(new ManagedBlocker() {
+                private boolean acquired = false;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!acquired) {
+                        budget.acquire(kb);
+                        acquired = true;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return acquired || (acquired = budget.tryAcquire(kb));
+                }
+            });
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted waiting to read content file");
+        }
+    }
+
+    /**
+     * Something written to a zip file while holding its lock
+     *
+     * @param <T> the type of the result of the write
+     */
+    private interface ZipWrite<T> {
+
+        /**
+         * Write to the zip file
+         *
+         * @return the result of the write (if needed by the caller)
+         * @throws IOException if the zip file could not be written
+         */
+        T write() throws IOException;
+    }
+
+    /**
+     * Write to a zip file, holding its lock. Other threads may be writing to
+     * the same zip file, so this may wait, and then the write itself may
+     * take a while.
+     *
+     * @return the result of the write
+     */
+    private static <T> T writeZip(ZipOutputStream zos, ZipWrite<T> w) throws IOException {
+        ZipBlocker<T> zb;
+
+        zb = new ZipBlocker<>(zos, w);
+        try {
+            ForkJoinPool.managedBlock(zb);
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted writing content file");
+        }
+        if (zb.failure != null) {
+            throw zb.failure;
+        }
+        return zb.result;
+    }
+
+    /**
+     * Does a write to a zip file on behalf of writeZip()
+     */
+    private static final class ZipBlocker<T> implements ManagedBlocker {
+
+        private final ZipOutputStream zos; // the zip file
+        private final ZipWrite<T> w;    // what to write
+        private boolean done;           // true once the write has been done
+        T result;                       // the result of the write
+        IOException failure;            // why the write failed (null if it didn't)
+
+        ZipBlocker(ZipOutputStream zos, ZipWrite<T> w) {
+            this.zos = zos;
+            this.w = w;
+            done = false;
+            result = null;
+            failure = null;
+        }
+
+        @Override
+        public boolean block() {
+            if (!done) {
+                synchronized (zos) {
+                    try {
+                        result = w.write();
+                    } catch (IOException ioe) {
+                        failure = ioe;
+                    }
+                }
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+}
@@ -13,8 +13,6 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -29,17 +27,25 @@ public class Job {
 
     boolean verbose;                // true if verbose output
     boolean debug;                  // true if debugging output
-    ObservableList<String> items;   // list of directories to make into VEOs
+    ArrayList<String> items;        // list of directories to make into VEOs
     Path templateDir;               // template directory selected
     Path outputDir;                 // output directory selected
     Path pfxFile;                   // PFX file to sign VEOs
     String pfxFilePassword;         // password of PFX file
     String hashAlg;                 // hash algorithm to use
-    ObservableList<String> foldersToExclude; // list of subdirectories to exclude from harvest 
+    ArrayList<String> foldersToExclude; // list of subdirectories to exclude from harvest 
     ArrayList<String> filesToExclude; // list of patterns of file names to exclude from harvest
     Path archiveDescFile;           // contains an archival description of the harvest
     Path ignoreFile;                // file containing templates of files to ignore in harvest
     Path logFile;                   // file to save the log
+    int concurrency;                // number of VEOs to construct at the same time
+    int minFreeHeap;                // percentage of the heap that must be free to start another VEO
+    boolean stageVEOs;              // true if VEOs are assembled in a '.veo' directory before zipping
+    boolean incremental;            // true if directories unchanged since the last harvest are skipped
+    boolean resume;                 // true if items completed by the previous (interrupted) run are skipped (not saved)
+    boolean verifyFormats;          // true if the formats of content files are confirmed from their content
+    boolean estimate;               // true if the job is only to be estimated, not run (not saved)
+    int maxOpenDirs;                // maximum number of directories held open by each walk of a tree
 
     /**
      * Constructor
@@ -47,17 +53,25 @@ public class Job {
     public Job() {
         verbose = AppConfig.getCreateVerboseOutputDefault();
         debug = AppConfig.getCreateDebugModeDefault();
-        items = FXCollections.observableArrayList();
+        items = new ArrayList<>();
         templateDir = null;
         outputDir = Paths.get(AppConfig.getCreateOutputFolderDefault());
         pfxFile = null;
         pfxFilePassword = "";
         hashAlg = "SHA-512";
-        foldersToExclude = FXCollections.observableArrayList();
+        foldersToExclude = new ArrayList<>();
         filesToExclude = new ArrayList<>();
         archiveDescFile = null;
         ignoreFile = null;
         logFile = null;
+        concurrency = 1;
+        minFreeHeap = 20;
+        stageVEOs = false;
+        incremental = false;
+        resume = false;
+        verifyFormats = false;
+        estimate = false;
+        maxOpenDirs = TreeWalker.DEFAULT_MAX_OPEN;
     }
 
     /**
@@ -132,6 +146,12 @@ public class Job {
         if (logFile != null) {
             j1.put("logFile", logFile.toString());
         }
+        j1.put("concurrency", concurrency);
+        j1.put("minFreeHeapPercent", minFreeHeap);
+        j1.put("maxOpenDirectories", maxOpenDirs);
+        j1.put("stageVEOs", stageVEOs);
+        j1.put("incremental", incremental);
+        j1.put("verifyFormats", verifyFormats);
         if (foldersToExclude != null && foldersToExclude.size() > 0) {
             ja1 = new JSONArray();
             for (i = 0; i < foldersToExclude.size(); i++) {
@@ -221,6 +241,7 @@ public class Job {
         FileReader fr;
         BufferedReader br;
         String s;
+        Long l;
 
         try {
             fr = new FileReader(file.toFile());
@@ -235,8 +256,12 @@ public class Job {
         if ((s = (String) j1.get("templateDirectory")) != null) {
             templateDir = Paths.get(s);
         }
-        verbose = ((Boolean) j1.get("verboseReporting"));
-        debug = ((Boolean) j1.get("debugReporting"));
+        if (j1.get("verboseReporting") != null) {
+            verbose = ((Boolean) j1.get("verboseReporting"));
+        }
+        if (j1.get("debugReporting") != null) {
+            debug = ((Boolean) j1.get("debugReporting"));
+        }
         ja1 = (JSONArray) j1.get("itemsToBuild");
         if (ja1 != null) {
             items.clear();
@@ -252,7 +277,9 @@ public class Job {
             pfxFile = Paths.get(s);
         }
         pfxFilePassword = (String) j1.get("pfxPassword");
-        hashAlg = (String) j1.get("hashAlgorithm");
+        if ((s = (String) j1.get("hashAlgorithm")) != null) {
+            hashAlg = s;
+        }
         ja1 = (JSONArray) j1.get("foldersToExclude");
         if (ja1 != null) {
             foldersToExclude.clear();
@@ -274,6 +301,24 @@ public class Job {
         if ((s = (String) j1.get("logFile")) != null) {
             logFile = Paths.get(s);
         }
+        if ((l = (Long) j1.get("concurrency")) != null && l > 0) {
+            concurrency = l.intValue();
+        }
+        if ((l = (Long) j1.get("minFreeHeapPercent")) != null) {
+            minFreeHeap = l.intValue();
+        }
+        if ((l = (Long) j1.get("maxOpenDirectories")) != null && l > 0) {
+            maxOpenDirs = l.intValue();
+        }
+        if (j1.get("stageVEOs") != null) {
+            stageVEOs = (Boolean) j1.get("stageVEOs");
+        }
+        if (j1.get("incremental") != null) {
+            incremental = (Boolean) j1.get("incremental");
+        }
+        if (j1.get("verifyFormats") != null) {
+            verifyFormats = (Boolean) j1.get("verifyFormats");
+        }
 
         try {
             br.close();
@@ -300,6 +345,13 @@ public class Job {
         // sb.append("ArchiveDescFile:"+archiveDescFile);
         //sb.append("Verbose:"+ignoreFile);
         sb.append("LogFile:" + logFile);
+        sb.append("Concurrency:" + concurrency);
+        sb.append("MinFreeHeap:" + minFreeHeap);
+        sb.append("MaxOpenDirs:" + maxOpenDirs);
+        sb.append("StageVEOs:" + stageVEOs);
+        sb.append("Incremental:" + incremental);
+        sb.append("Resume:" + resume);
+        sb.append("VerifyFormats:" + verifyFormats);
         return sb.toString();
     }
 
@@ -0,0 +1,259 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Handles logging to a file. It has no dependency on JavaFX, so it can be
+ * used by the headless runner as well as the GUI.
+ *
+ * The log file is kept open and written by a dedicated writer thread. Threads
+ * logging messages just put them on a bounded, lock free queue, so they never
+ * wait for the disk. The writer thread writes the queued messages in batches,
+ * and flushes the file at a regular interval, when flush() or close() is
+ * called, and when the queue is getting full. If the queue does fill, new
+ * messages are either dropped (and counted) or the logging thread waits for
+ * space, depending on the overflow policy.
+ */
+public class LogFileHandler extends Handler {
+
+    /**
+     * What to do when the queue of messages waiting to be written is full
+     */
+    public enum Overflow {
+        DROP,   // discard the message (the number dropped is logged at close)
+        BLOCK   // wait until the writer thread has made space
+    }
+
+    static final int DEFAULT_CAPACITY = 10000;      // messages that may be waiting to be written
+    static final long DEFAULT_FLUSH_INTERVAL = 1000; // ms between flushes of the log file
+    private static final SimpleFormatter MESSAGE = new SimpleFormatter(); // fills in the parameters of a message
+
+    private final File logFile;             // the file to append the log to
+    private final ConcurrentLinkedQueue<LogRecord> queue; // messages waiting to be written to the log file
+    private final AtomicInteger queued;     // number of messages in the queue
+    private final int capacity;             // maximum number of messages in the queue
+    private final Overflow overflow;        // what to do when the queue is full
+    private final long flushInterval;       // ns between flushes of the log file
+    private final AtomicLong accepted;      // number of messages put on the queue
+    private final AtomicLong dropped;       // number of messages dropped as the queue was full
+    private volatile long flushed;          // number of messages written and flushed to the log file
+    private volatile boolean flushRequested; // true if the writer should flush now
+    private volatile boolean closed;        // true once close() has been called
+    private final Thread writer;            // thread writing the log file
+
+    /**
+     * Constructor. Up to DEFAULT_CAPACITY messages may be waiting to be
+     * written; further messages are dropped. The log file is flushed every
+     * second.
+     *
+     * @param logFile the file to append the log to
+     */
+    public LogFileHandler(File logFile) {
+        this(logFile, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL, Overflow.DROP);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param logFile the file to append the log to
+     * @param capacity the maximum number of messages waiting to be written
+     * @param flushInterval the interval between flushes of the log file (ms)
+     * @param overflow what to do when a message is logged and the queue is
+     * full
+     */
+    public LogFileHandler(File logFile, int capacity, long flushInterval, Overflow overflow) {
+        super();
+        this.logFile = logFile;
+        this.capacity = Math.max(capacity, 1);
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(flushInterval, 1));
+        this.overflow = overflow;
+        queue = new ConcurrentLinkedQueue<>();
+        queued = new AtomicInteger(0);
+        accepted = new AtomicLong(0);
+        dropped = new AtomicLong(0);
+        flushed = 0;
+        flushRequested = false;
+        closed = false;
+        writer = new Thread(this::writeLogFile, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord logRecord) {
+        if (!isLoggable(logRecord) || closed) {
+            return;
+        }
+        enqueue(logRecord);
+    }
+
+    /**
+     * Wait until every message logged before this call has been written to
+     * the log file and flushed
+     */
+    @Override
+    public void flush() {
+        long target;
+
+        target = accepted.get();
+        flushRequested = true;
+        LockSupport.unpark(writer);
+        while (flushed < target && writer.isAlive()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Write the remaining messages, and close the log file. Messages logged
+     * after this are not written.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the number of messages that were not written to the log file as
+     * the queue was full
+     *
+     * @return the number of messages dropped
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Format a message as it appears in the log
+     *
+     * @param logRecord the message
+     * @return the formatted message
+     */
+    static String format(LogRecord logRecord) {
+        return logRecord.getLevel() + ": " + MESSAGE.formatMessage(logRecord);
+    }
+
+    /**
+     * Put a message on the queue to be written to the log file. The writer
+     * thread is woken when the queue is half full, so that it usually empties
+     * the queue before it fills.
+     */
+    private void enqueue(LogRecord logRecord) {
+        int n;
+
+        while ((n = queued.incrementAndGet()) > capacity) {
+            queued.decrementAndGet();
+            if (overflow == Overflow.DROP || closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        queue.add(logRecord);
+        accepted.incrementAndGet();
+        if (n == capacity / 2 + 1) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * The writer thread. This writes the queued messages to the log file,
+     * flushing it when asked, at the flush interval, and when the handler is
+     * closed.
+     */
+    private void writeLogFile() {
+        BufferedWriter bw;
+        LogRecord lr;
+        long written, lastFlush, now;
+        boolean failed;
+
+        try {
+            bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8), 64 * 1024);
+        } catch (IOException e) {
+            e.printStackTrace();
+            bw = null;
+        }
+        written = 0;
+        lastFlush = System.nanoTime();
+        failed = (bw == null);
+        while (true) {
+            // write everything queued so far (or just discard it if the file
+            // could not be opened or written)
+            while ((lr = queue.poll()) != null) {
+                queued.decrementAndGet();
+                if (!failed) {
+                    try {
+                        bw.write(format(lr));
+                        bw.newLine();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        failed = true;
+                    }
+                }
+                written++;
+            }
+
+            // flush if asked, if the interval has passed, or if closing
+            now = System.nanoTime();
+            if (flushRequested || closed || now - lastFlush >= flushInterval) {
+                flushRequested = false;
+                if (!failed) {
+                    try {
+                        bw.flush();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        failed = true;
+                    }
+                }
+                flushed = written;
+                lastFlush = now;
+            }
+            if (closed && queue.isEmpty()) {
+                break;
+            }
+            LockSupport.parkNanos(this, flushInterval - (System.nanoTime() - lastFlush));
+        }
+
+        // note any messages lost, and close the log file
+        if (bw != null) {
+            try {
+                if (dropped.get() > 0) {
+                    bw.write(Level.WARNING + ": " + dropped.get() + " log message(s) were not written to this file as the log queue was full");
+                    bw.newLine();
+                }
+                bw.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
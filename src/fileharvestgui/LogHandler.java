@@ -10,9 +10,6 @@ import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 import java.util.logging.Level;
 import java.io.File;
-import java.io.IOException;
-import java.io.FileWriter;
-import java.io.PrintWriter;
 
 import java.util.List;
 import java.util.ArrayList;
@@ -24,6 +21,9 @@ import javafx.scene.control.TextArea;
 /**
  * Handles logging to a file, a TextArea control and potentially other targets 
  * for logging such as to the console via standard output and/or error stream.
+ *
+ * The log file is written by a LogFileHandler, so threads logging messages
+ * never wait for the disk.
  */
 public class LogHandler extends Handler {
     
@@ -32,11 +32,15 @@ public class LogHandler extends Handler {
 
     private TextArea target = null;
     private File logFile = null;    
+    private LogFileHandler file = null; // writes the log file (null if no log file)
      
     public LogHandler(TextArea textArea, File logFile) {
         super();
         target = textArea;
         this.logFile = logFile;        
+        if (logFile != null) {
+            file = new LogFileHandler(logFile);
+        }
     }
     
     @Override
@@ -47,10 +51,16 @@ public class LogHandler extends Handler {
 
     @Override
     public void flush() {  
+        if (file != null) {
+            file.flush();
+        }
     }
 
     @Override
     public void close() {   
+        if (file != null) {
+            file.close();
+        }
     }
     
     public void writeLog(LogRecord logRecord) {
@@ -67,24 +77,8 @@ public class LogHandler extends Handler {
             e.printStackTrace();
         }
                 
-        if (logFile != null) {    
-            FileWriter fw = null;
-            PrintWriter pw = null;            
-            try {                
-                fw = new FileWriter(logFile, true);
-                pw = new PrintWriter(fw);                
-                pw.println(str);                
-            }
-            catch (IOException e) {
-                e.printStackTrace();                
-            } finally {
-                try {                    
-                    if (pw != null) pw.close();
-                    if (fw != null) fw.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+        if (file != null) {
+            file.publish(logRecord);
         }
     }
     
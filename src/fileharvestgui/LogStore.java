@@ -0,0 +1,439 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * This class stores the messages logged during a harvest without holding
+ * them all in memory. Messages are added to a segment of SEGMENT messages.
+ * When a segment is full it is sealed and written (on a background thread)
+ * to a spill file, after which its text is dropped from memory; only the
+ * most recent MAX_RESIDENT segments are held in memory at once. A message in
+ * a spilled segment is read back from the spill file when it is needed (the
+ * most recently read messages are cached).
+ *
+ * For each level of message, the store keeps an index of the messages logged
+ * at that level (their numbers, in order). A Filter uses these indexes to
+ * present just the messages of chosen levels without looking at (or reading)
+ * the messages of other levels. Together with a virtualized view (LogView),
+ * only the messages actually displayed are ever read.
+ *
+ * Messages may be added from several threads at once.
+ */
+final class LogStore {
+
+    static final int SEGMENT = 4096;        // messages in a segment
+    static final int MAX_RESIDENT = 8;      // segments whose text may be held in memory
+    private static final int CACHE = 2048;  // messages read from the spill file that are cached
+
+    private final ArrayList<Segment> segments; // the segments, in order
+    private final ArrayList<IntList> byLevel;  // the number of each message at each level
+    private final ArrayList<Level> levels;     // the levels seen (indexes into byLevel)
+    private final HashMap<Level, Integer> levelSlots; // index of each level in byLevel
+    private final LinkedHashMap<Integer, String> cache; // messages recently read from the spill file
+    private final ExecutorService spiller;  // writes sealed segments to the spill file (null if not spilling)
+    private Path spillFile;                 // where sealed segments are written (null if not spilling)
+    private FileChannel spill;              // the open spill file
+    private long spillSize;                 // bytes written to the spill file
+    private int unspilled;                  // sealed segments still held in memory
+    private int count;                      // number of messages in the store
+    private boolean closed;                 // true once the store has been closed
+
+    /**
+     * A segment of messages
+     */
+    private static final class Segment {
+
+        final byte[] level;     // level slot of each message
+        String[] text;          // the messages (null once spilled)
+        long base;              // position of the segment in the spill file
+        int[] ends;             // end of each message relative to base
+
+        Segment() {
+            level = new byte[SEGMENT];
+            text = new String[SEGMENT];
+            base = -1;
+            ends = null;
+        }
+    }
+
+    /**
+     * A growable list of ints
+     */
+    private static final class IntList {
+
+        int[] a;
+        int size;
+
+        IntList() {
+            a = new int[64];
+            size = 0;
+        }
+
+        void add(int i) {
+            if (size == a.length) {
+                a = Arrays.copyOf(a, size * 2);
+            }
+            a[size++] = i;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param spillDir the directory in which to create the spill file, or
+     * null if the messages are to be kept in memory
+     */
+    LogStore(Path spillDir) {
+        segments = new ArrayList<>();
+        byLevel = new ArrayList<>();
+        levels = new ArrayList<>();
+        levelSlots = new HashMap<>();
+        cache = new LinkedHashMap<Integer, String>(CACHE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > CACHE;
+            }
+        };
+        spillFile = null;
+        spill = null;
+        spillSize = 0;
+        unspilled = 0;
+        count = 0;
+        closed = false;
+        if (spillDir != null) {
+            try {
+                spillFile = Files.createTempFile(spillDir, "fileharvest", ".log");
+                spillFile.toFile().deleteOnExit();
+                spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                System.err.println("Cannot create log spill file, keeping log in memory: " + e.getMessage());
+                spillFile = null;
+            }
+        }
+        if (spill != null) {
+            spiller = Executors.newSingleThreadExecutor(r -> {
+                Thread t;
+
+                t = new Thread(r, "log-spill");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            spiller = null;
+        }
+    }
+
+    /**
+     * Add a message. If too many segments are waiting to be spilled, this
+     * waits for the spill file to catch up.
+     *
+     * @param level the level of the message
+     * @param text the message
+     */
+    synchronized void add(Level level, String text) {
+        Integer slot;
+        Segment s;
+        int i;
+
+        if (closed) {
+            return;
+        }
+        slot = levelSlots.get(level);
+        if (slot == null) {
+            slot = levels.size();
+            levels.add(level);
+            byLevel.add(new IntList());
+            levelSlots.put(level, slot);
+        }
+        i = count % SEGMENT;
+        if (i == 0) {
+            segments.add(new Segment());
+        }
+        s = segments.get(segments.size() - 1);
+        s.level[i] = slot.byteValue();
+        s.text[i] = text;
+        byLevel.get(slot).add(count);
+        count++;
+
+        // seal a full segment and write it out
+        if (i == SEGMENT - 1 && spiller != null) {
+            while (unspilled >= MAX_RESIDENT) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            unspilled++;
+            spiller.execute(() -> spill(s));
+        }
+    }
+
+    /**
+     * Write a sealed segment to the spill file, then drop its text. Called
+     * on the spill thread, so the segments are written in order.
+     */
+    private void spill(Segment s) {
+        ByteBuffer bb;
+        byte[][] b;
+        int[] ends;
+        int i, n;
+        long pos;
+
+        b = new byte[SEGMENT][];
+        ends = new int[SEGMENT];
+        n = 0;
+        for (i = 0; i < SEGMENT; i++) {
+            b[i] = (s.text[i] + "\n").getBytes(StandardCharsets.UTF_8);
+            n += b[i].length;
+            ends[i] = n;
+        }
+        bb = ByteBuffer.allocate(n);
+        for (i = 0; i < SEGMENT; i++) {
+            bb.put(b[i]);
+        }
+        bb.flip();
+        synchronized (this) {
+            pos = spillSize;
+        }
+        try {
+            while (bb.hasRemaining()) {
+                spill.write(bb, pos + bb.position());
+            }
+        } catch (IOException e) {
+            // keep the segment in memory
+            System.err.println("Failed writing log spill file: " + e.getMessage());
+            synchronized (this) {
+                unspilled--;
+                notifyAll();
+            }
+            return;
+        }
+        synchronized (this) {
+            spillSize = pos + n;
+            s.base = pos;
+            s.ends = ends;
+            s.text = null;
+            unspilled--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Get the number of messages in the store
+     *
+     * @return the number of messages
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Get a message
+     *
+     * @param n the number of the message (0 is the first message logged)
+     * @return the message
+     */
+    String get(int n) {
+        Segment s;
+        String str;
+        ByteBuffer bb;
+        long base;
+        int i, start, end;
+
+        synchronized (this) {
+            s = segments.get(n / SEGMENT);
+            i = n % SEGMENT;
+            if (s.text != null) {
+                return s.text[i];
+            }
+            str = cache.get(n);
+            if (str != null) {
+                return str;
+            }
+            if (closed) {
+                return "";
+            }
+            base = s.base;
+            start = i == 0 ? 0 : s.ends[i - 1];
+            end = s.ends[i];
+        }
+
+        // read the message from the spill file (without the newline)
+        bb = ByteBuffer.allocate(end - start);
+        try {
+            while (bb.hasRemaining()) {
+                if (spill.read(bb, base + start + bb.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            return "(message could not be read: " + e.getMessage() + ")";
+        }
+        str = new String(bb.array(), 0, Math.max(bb.position() - 1, 0), StandardCharsets.UTF_8);
+        synchronized (this) {
+            cache.put(n, str);
+        }
+        return str;
+    }
+
+    /**
+     * Get the level of a message
+     *
+     * @param n the number of the message
+     * @return the level
+     */
+    synchronized Level getLevel(int n) {
+        return levels.get(segments.get(n / SEGMENT).level[n % SEGMENT]);
+    }
+
+    /**
+     * Discard the messages and delete the spill file
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (spiller != null) {
+            spiller.shutdownNow();
+        }
+        if (spill != null) {
+            try {
+                spill.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                System.err.println("Failed deleting log spill file: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Create a filter that presents the messages at some levels
+     *
+     * @param show the levels to show, or null to show every message
+     * @return the filter
+     */
+    Filter filter(List<Level> show) {
+        return new Filter(show);
+    }
+
+    /**
+     * The messages at chosen levels. The filter is brought up to date with
+     * messages added since it was created by calling update(); until then
+     * its size and contents do not change. A filter is not thread safe.
+     */
+    final class Filter {
+
+        private final boolean all;  // true if every message is shown
+        private final List<Level> show; // the levels shown (if not all)
+        private final ArrayList<Integer> slots; // index in byLevel of each level shown
+        private int[] pos;          // how far through the index of each level the filter has got
+        private int[] rows;         // the numbers of the messages shown (if not all)
+        private int size;           // the number of messages shown
+
+        Filter(List<Level> show) {
+            this.show = show;
+            all = (show == null);
+            slots = new ArrayList<>();
+            pos = new int[0];
+            rows = all ? null : new int[64];
+            size = 0;
+            update();
+        }
+
+        /**
+         * Get the number of messages shown
+         *
+         * @return the number of messages
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Get a message shown
+         *
+         * @param i the position of the message in the filter
+         * @return the message
+         */
+        String get(int i) {
+            return LogStore.this.get(all ? i : rows[i]);
+        }
+
+        /**
+         * Add the messages that have been logged since the filter was last
+         * updated. This merges the new entries in the indexes of the levels
+         * shown, so messages of other levels are never looked at.
+         *
+         * @return the number of messages added to the filter
+         */
+        int update() {
+            int i, j, best, n, before;
+            IntList l;
+
+            before = size;
+            synchronized (LogStore.this) {
+                if (all) {
+                    size = count;
+                    return size - before;
+                }
+
+                // pick up any of the levels shown that have been seen since
+                for (i = 0; i < show.size(); i++) {
+                    Integer s = levelSlots.get(show.get(i));
+                    if (s != null && !slots.contains(s)) {
+                        slots.add(s);
+                        pos = Arrays.copyOf(pos, slots.size());
+                    }
+                }
+
+                // merge the new entries of each level's index in order
+                while (true) {
+                    best = -1;
+                    n = Integer.MAX_VALUE;
+                    for (j = 0; j < slots.size(); j++) {
+                        l = byLevel.get(slots.get(j));
+                        if (pos[j] < l.size && l.a[pos[j]] < n) {
+                            n = l.a[pos[j]];
+                            best = j;
+                        }
+                    }
+                    if (best < 0) {
+                        break;
+                    }
+                    pos[best]++;
+                    if (size == rows.length) {
+                        rows = Arrays.copyOf(rows, size * 2);
+                    }
+                    rows[size++] = n;
+                }
+            }
+            return size - before;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import javafx.collections.ObservableListBase;
+
+/**
+ * This class presents the messages in a LogStore (at chosen levels) as an
+ * ObservableList, so that they can be shown in a ListView. The ListView only
+ * creates cells for the rows that are visible, and only asks for their
+ * messages, so only the visible window of the log is ever read (from memory
+ * or the spill file) or rendered, however large the log.
+ *
+ * The list changes only when refresh() or setLevels() is called. These must
+ * be called on the FX application thread.
+ */
+final class LogView extends ObservableListBase<String> {
+
+    private final LogStore store;   // the messages
+    private LogStore.Filter filter; // the messages currently shown
+
+    /**
+     * Constructor. Initially every message is shown.
+     *
+     * @param store the messages
+     */
+    LogView(LogStore store) {
+        this.store = store;
+        filter = store.filter(null);
+    }
+
+    @Override
+    public String get(int index) {
+        return filter.get(index);
+    }
+
+    @Override
+    public int size() {
+        return filter.size();
+    }
+
+    /**
+     * Add the messages logged since the last refresh
+     */
+    void refresh() {
+        int from, added;
+
+        from = filter.size();
+        added = filter.update();
+        if (added > 0) {
+            beginChange();
+            nextAdd(from, from + added);
+            endChange();
+        }
+    }
+
+    /**
+     * Change the levels of the messages shown
+     *
+     * @param levels the levels to show, or null to show every message
+     */
+    void setLevels(List<Level> levels) {
+        List<String> removed;
+
+        // the removed rows are never looked at by a ListView, so don't read
+        // them in
+        removed = Collections.nCopies(filter.size(), "");
+        filter = store.filter(levels);
+        beginChange();
+        if (!removed.isEmpty()) {
+            nextRemove(0, removed);
+        }
+        if (filter.size() > 0) {
+            nextAdd(0, filter.size());
+        }
+        endChange();
+    }
+}
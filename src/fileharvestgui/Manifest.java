@@ -0,0 +1,335 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * This class is a manifest of the files and directories harvested into a
+ * VEO. Each entry holds the path (relative to the parent of the harvested
+ * directory, i.e. as it appears in the VEO), the size, the last modified time
+ * and the digest of a file. A manifest is written next to the VEOs after each
+ * harvest of a directory, and is used by an incremental harvest to work out
+ * what has changed since the last harvest and to reuse the digests of files
+ * that have not changed.
+ *
+ * The manifest is a binary file: a header (magic number, version, hash
+ * algorithm, name of the VEO, number of entries) followed by the entries.
+ */
+final class Manifest {
+
+    private static final int MAGIC = 0x46484d46; // 'FHMF'
+    private static final int VERSION = 1;
+    private final String hashAlg;   // hash algorithm used for the digests
+    private String recordName;      // name of the VEO built from the directory
+    private final LinkedHashMap<String, Entry> entries; // entries, indexed by path
+
+    /**
+     * A file or directory in the manifest
+     */
+    static final class Entry {
+
+        final String path;          // path relative to the parent of the harvested directory
+        final boolean directory;    // true if this is a directory
+        final long size;            // size of the file (bytes)
+        final long modified;        // last modified time (ms since the epoch)
+        private String digest;      // base64 encoded digest of the file (null if not known)
+        private Future<String> pending; // digest still being calculated
+
+        Entry(String path, boolean directory, long size, long modified) {
+            this.path = path;
+            this.directory = directory;
+            this.size = size;
+            this.modified = modified;
+            digest = null;
+            pending = null;
+        }
+
+        /**
+         * Set the digest of the file. The digest may still be being
+         * calculated.
+         *
+         * @param digest the digest (may be null)
+         */
+        void setDigest(Future<String> digest) {
+            pending = digest;
+        }
+
+        /**
+         * Get the digest of the file
+         *
+         * @return the base64 encoded digest, or null if not known
+         */
+        String getDigest() {
+            if (digest == null && pending != null && pending.isDone()) {
+                try {
+                    digest = pending.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    /* ignore - digest is unknown */
+                }
+                pending = null;
+            }
+            return digest;
+        }
+
+        /**
+         * Test if this entry describes the same file as another (same type,
+         * size, and last modified time)
+         */
+        boolean sameAs(Entry e) {
+            return directory == e.directory && (directory || (size == e.size && modified == e.modified));
+        }
+    }
+
+    /**
+     * The differences between two manifests
+     */
+    static final class Changes {
+
+        final List<String> added;   // files and directories that have been added
+        final List<String> removed; // files and directories that have been removed
+        final List<String> changed; // files that have changed
+
+        Changes() {
+            added = new ArrayList<>();
+            removed = new ArrayList<>();
+            changed = new ArrayList<>();
+        }
+
+        /**
+         * Test if anything has changed
+         *
+         * @return true if there are no differences
+         */
+        boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param hashAlg the hash algorithm used for the digests
+     */
+    Manifest(String hashAlg) {
+        this.hashAlg = hashAlg;
+        recordName = "";
+        entries = new LinkedHashMap<>();
+    }
+
+    /**
+     * Where the manifest for a harvested directory is kept. The name includes
+     * a hash of the real path so that directories with the same name in
+     * different places have different manifests.
+     *
+     * @param outputDir the directory in which the VEOs are created
+     * @param realPath the real path of the harvested directory
+     * @return the manifest file
+     */
+    static Path location(Path outputDir, Path realPath) {
+        return outputDir.resolve("FSC-" + realPath.getFileName().toString() + "-" + String.format("%08x", realPath.toString().hashCode()) + ".manifest");
+    }
+
+    /**
+     * Add an entry (replacing any entry with the same path)
+     *
+     * @param e the entry
+     */
+    void add(Entry e) {
+        entries.put(e.path, e);
+    }
+
+    /**
+     * Get an entry
+     *
+     * @param path the path of the entry
+     * @return the entry, or null if not present
+     */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return the number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    String getHashAlg() {
+        return hashAlg;
+    }
+
+    String getRecordName() {
+        return recordName;
+    }
+
+    void setRecordName(String recordName) {
+        this.recordName = recordName;
+    }
+
+    /**
+     * Get the digest of a file recorded in this manifest, if the file has not
+     * changed
+     *
+     * @param e the current state of the file
+     * @param hashAlg the hash algorithm that will be used
+     * @return the digest, or null if the file has changed or the digest is
+     * not known
+     */
+    String cachedDigest(Entry e, String hashAlg) {
+        Entry old;
+
+        if (!this.hashAlg.equals(hashAlg)) {
+            return null;
+        }
+        old = entries.get(e.path);
+        if (old == null || !old.sameAs(e)) {
+            return null;
+        }
+        return old.getDigest();
+    }
+
+    /**
+     * Compare this (earlier) manifest with the current state of the tree
+     *
+     * @param current a manifest describing the current state of the tree
+     * @return the differences
+     */
+    Changes compare(Manifest current) {
+        Changes c;
+        Iterator<Entry> it;
+        Entry e, old;
+
+        c = new Changes();
+        it = current.entries.values().iterator();
+        while (it.hasNext()) {
+            e = it.next();
+            old = entries.get(e.path);
+            if (old == null) {
+                c.added.add(e.path);
+            } else if (!old.sameAs(e)) {
+                c.changed.add(e.path);
+            }
+        }
+        it = entries.values().iterator();
+        while (it.hasNext()) {
+            e = it.next();
+            if (!current.entries.containsKey(e.path)) {
+                c.removed.add(e.path);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Read a manifest
+     *
+     * @param file the manifest file
+     * @return the manifest
+     * @throws IOException if the file could not be read or is not a manifest
+     */
+    static Manifest read(Path file) throws IOException {
+        DataInputStream dis;
+        Manifest m;
+        Entry e;
+        String path;
+        boolean dir;
+        long size, modified;
+        byte[] digest;
+        int i, n, len;
+
+        dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                throw new IOException("'" + file.toString() + "' is not a FileHarvest manifest");
+            }
+            m = new Manifest(dis.readUTF());
+            m.recordName = dis.readUTF();
+            n = dis.readInt();
+            for (i = 0; i < n; i++) {
+                path = dis.readUTF();
+                dir = dis.readBoolean();
+                size = dis.readLong();
+                modified = dis.readLong();
+                e = new Entry(path, dir, size, modified);
+                len = dis.readUnsignedShort();
+                if (len > 0) {
+                    digest = new byte[len];
+                    dis.readFully(digest);
+                    e.digest = Base64.getEncoder().encodeToString(digest);
+                }
+                m.add(e);
+            }
+        } finally {
+            dis.close();
+        }
+        return m;
+    }
+
+    /**
+     * Write the manifest. It is written to a temporary file which then
+     * replaces any existing manifest, so an old manifest is never left half
+     * overwritten.
+     *
+     * @param file the manifest file
+     * @throws IOException if the manifest could not be written
+     */
+    void write(Path file) throws IOException {
+        DataOutputStream dos;
+        Path tmp;
+        Iterator<Entry> it;
+        Entry e;
+        String digest;
+        byte[] b;
+
+        tmp = file.resolveSibling(file.getFileName().toString() + ".tmp");
+        dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(hashAlg);
+            dos.writeUTF(recordName);
+            dos.writeInt(entries.size());
+            it = entries.values().iterator();
+            while (it.hasNext()) {
+                e = it.next();
+                dos.writeUTF(e.path);
+                dos.writeBoolean(e.directory);
+                dos.writeLong(e.size);
+                dos.writeLong(e.modified);
+                digest = e.getDigest();
+                if (digest == null) {
+                    dos.writeShort(0);
+                } else {
+                    b = Base64.getDecoder().decode(digest);
+                    dos.writeShort(b.length);
+                    dos.write(b);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
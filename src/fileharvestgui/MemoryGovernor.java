@@ -0,0 +1,302 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * This class controls the admission of VEOs into construction based on the
+ * amount of free heap. Rather than forcing garbage collections before each VEO,
+ * a VEO is only started if the heap has at least the specified headroom.
+ *
+ * The headroom is estimated from the memory pools. For pools that support
+ * usage thresholds (i.e. the tenured pools) the current usage is used; for
+ * the other pools (eden and survivor) the usage after the last collection is
+ * used, as anything else in them is garbage that will be collected as soon as
+ * it is needed. A collection usage threshold is set on the tenured pools, so
+ * that the JVM tells us when the heap is still short after a collection. The
+ * pools are shared by the whole JVM, so the thresholds they had before are
+ * put back by close().
+ *
+ * A VEO is always admitted if no other VEO is being constructed, so the
+ * governor never stops a harvest; it only limits how many VEOs run at once.
+ */
+public class MemoryGovernor implements NotificationListener {
+
+    private final static Logger LOG = Logger.getLogger("FileHarvest.MemoryGovernor");
+    private final MemoryMXBean memBean; // the memory system of the JVM
+    private final List<MemoryPoolMXBean> pools; // the heap memory pools
+    private final long[] previous;  // threshold of each pool before it was changed (-1 if not changed)
+    private final long minFree;     // free heap (bytes) required to start a VEO
+    private final Object lock;      // lock protecting active
+    private int active;             // number of VEOs currently being constructed
+    private int delays;             // number of times a VEO was delayed waiting for memory
+    private int waiting;            // number of VEOs currently waiting for memory
+
+    /**
+     * Constructor
+     *
+     * @param minFreePercent percentage of the maximum heap that must be free
+     * before another VEO is started
+     */
+    public MemoryGovernor(int minFreePercent) {
+        MemoryPoolMXBean pool;
+        long max;
+        int i;
+
+        if (minFreePercent < 0) {
+            minFreePercent = 0;
+        } else if (minFreePercent > 90) {
+            minFreePercent = 90;
+        }
+        memBean = ManagementFactory.getMemoryMXBean();
+        pools = heapPools();
+        previous = new long[pools.size()];
+        minFree = maxHeap() / 100 * minFreePercent;
+        lock = new Object();
+        active = 0;
+        delays = 0;
+        waiting = 0;
+
+        // ask to be told when a tenured pool is still short of space after
+        // a collection
+        for (i = 0; i < pools.size(); i++) {
+            pool = pools.get(i);
+            previous[i] = -1;
+            max = pool.getUsage().getMax();
+            if (!pool.isCollectionUsageThresholdSupported() || max <= 0) {
+                continue;
+            }
+            try {
+                previous[i] = pool.getCollectionUsageThreshold();
+                pool.setCollectionUsageThreshold(max - (max / 100 * minFreePercent));
+            } catch (IllegalArgumentException | SecurityException e) {
+                previous[i] = -1;
+                LOG.log(Level.FINE, "Could not set collection usage threshold on memory pool ''{0}'': {1}", new Object[]{pool.getName(), e.getMessage()});
+            }
+        }
+        if (memBean instanceof NotificationEmitter) {
+            ((NotificationEmitter) memBean).addNotificationListener(this, null, null);
+        }
+    }
+
+    /**
+     * Wait until there is enough free heap to start another VEO.
+     *
+     * @return the estimated free heap (in bytes) when the VEO was admitted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long admit() throws InterruptedException {
+        long free;
+        boolean delayed;
+
+        delayed = false;
+        synchronized (lock) {
+            while (true) {
+                free = freeHeap();
+                if (active == 0 || (free >= minFree && !collectionThresholdExceeded())) {
+                    break;
+                }
+                if (!delayed) {
+                    delayed = true;
+                    delays++;
+                    waiting++;
+                    LOG.log(Level.FINE, "Delaying start of VEO as only {0} MB of heap is free", new Object[]{free / (1024 * 1024)});
+                }
+                try {
+                    lock.wait(1000);
+                } catch (InterruptedException ie) {
+                    waiting--;
+                    throw ie;
+                }
+            }
+            if (delayed) {
+                waiting--;
+            }
+            active++;
+        }
+        return free;
+    }
+
+    /**
+     * A VEO admitted by admit() has finished construction
+     */
+    public void release() {
+        synchronized (lock) {
+            active--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Get the number of times a VEO was delayed waiting for free heap
+     *
+     * @return the number of delays
+     */
+    public int getDelays() {
+        synchronized (lock) {
+            return delays;
+        }
+    }
+
+    /**
+     * Get the number of VEOs currently waiting for free heap
+     *
+     * @return the number of VEOs waiting
+     */
+    public int getWaiting() {
+        synchronized (lock) {
+            return waiting;
+        }
+    }
+
+    /**
+     * Get the free heap required to start another VEO
+     *
+     * @return the free heap in bytes
+     */
+    public long getMinFree() {
+        return minFree;
+    }
+
+    /**
+     * Stop listening to the JVM memory notifications, and put back the
+     * collection usage thresholds of the memory pools
+     */
+    public void close() {
+        MemoryPoolMXBean pool;
+        int i;
+
+        for (i = 0; i < pools.size(); i++) {
+            if (previous[i] == -1) {
+                continue;
+            }
+            pool = pools.get(i);
+            try {
+                pool.setCollectionUsageThreshold(previous[i]);
+            } catch (IllegalArgumentException | SecurityException e) {
+                LOG.log(Level.FINE, "Could not restore collection usage threshold on memory pool ''{0}'': {1}", new Object[]{pool.getName(), e.getMessage()});
+            }
+            previous[i] = -1;
+        }
+        if (memBean instanceof NotificationEmitter) {
+            try {
+                ((NotificationEmitter) memBean).removeNotificationListener(this);
+            } catch (ListenerNotFoundException lnfe) {
+                /* ignore */
+            }
+        }
+    }
+
+    /**
+     * Called by the JVM when a memory threshold is crossed. Wake up any
+     * threads waiting for admission so that they reassess the free heap.
+     *
+     * @param n the notification
+     * @param handback ignored
+     */
+    @Override
+    public void handleNotification(Notification n, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(n.getType())) {
+            LOG.log(Level.FINE, "Heap still short of free space after a collection ({0})", n.getMessage());
+        }
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Test if any tenured pool was over its threshold after the last
+     * collection
+     */
+    private boolean collectionThresholdExceeded() {
+        MemoryPoolMXBean pool;
+        int i;
+
+        for (i = 0; i < pools.size(); i++) {
+            pool = pools.get(i);
+            if (pool.isCollectionUsageThresholdSupported() && pool.getCollectionUsageThreshold() > 0 && pool.isCollectionUsageThresholdExceeded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Estimate the amount of free heap. Garbage in the young generation is
+     * not counted as used.
+     *
+     * @return the free heap in bytes
+     */
+    public static long freeHeap() {
+        List<MemoryPoolMXBean> pools;
+        MemoryPoolMXBean pool;
+        MemoryUsage mu;
+        long used;
+        int i;
+
+        pools = heapPools();
+        used = 0;
+        for (i = 0; i < pools.size(); i++) {
+            pool = pools.get(i);
+            mu = null;
+            if (!pool.isUsageThresholdSupported()) {
+                mu = pool.getCollectionUsage();
+            }
+            if (mu == null) {
+                mu = pool.getUsage();
+            }
+            used += mu.getUsed();
+        }
+        return maxHeap() - used;
+    }
+
+    /**
+     * Get the maximum size of the heap
+     *
+     * @return the size in bytes
+     */
+    public static long maxHeap() {
+        long max;
+
+        max = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        if (max <= 0) {
+            max = Runtime.getRuntime().maxMemory();
+        }
+        return max;
+    }
+
+    /**
+     * Get the memory pools that make up the heap
+     */
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> all, heap;
+        int i;
+
+        all = ManagementFactory.getMemoryPoolMXBeans();
+        heap = new ArrayList<>();
+        for (i = 0; i < all.size(); i++) {
+            if (all.get(i).getType() == MemoryType.HEAP && all.get(i).isValid()) {
+                heap.add(all.get(i));
+            }
+        }
+        return heap;
+    }
+}
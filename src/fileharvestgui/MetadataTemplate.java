@@ -0,0 +1,197 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.VEOError;
+import VERSCommon.VEOFatal;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * This class represents a template for a metadata package. It reads the same
+ * template files as VEOCreate.Fragment. The first line of the file contains
+ * the metadata schema identifier and syntax identifier separated by a tab. The
+ * remainder of the file is the text of the metadata package. Within this
+ * text, substitutions are marked by '$$'. As in Fragment, the words of a
+ * substitution are separated by white space, and may be:
+ * <ul>
+ * <li>'$$ date $$' - replaced by the current date and time</li>
+ * <li>'$$ column n $$' - replaced by the n'th value passed to render(),
+ * XML encoded</li>
+ * <li>'$$ column-xml n $$' - replaced by the n'th value passed to render()
+ * as is (the value is XML, and so is not encoded)</li>
+ * <li>'$$ n $$' - the same as '$$ column n $$'</li>
+ * </ul>
+ *
+ * Templates are parsed once and may be rendered by several threads at the
+ * same time.
+ */
+final class MetadataTemplate {
+
+    private static final String classname = "MetadataTemplate";
+    private final String schemaId;  // metadata schema identifier
+    private final String syntaxId;  // metadata syntax identifier
+    private final String[] text;    // text before each substitution (one more than subs)
+    private final int[] subs;       // value to substitute (index into data, or -1 for the date)
+    private final boolean[] xml;    // true if the value is XML, and is substituted without encoding
+
+    private MetadataTemplate(String schemaId, String syntaxId, ArrayList<String> text, ArrayList<Integer> subs, ArrayList<Boolean> xml) {
+        int i;
+
+        this.schemaId = schemaId;
+        this.syntaxId = syntaxId;
+        this.text = text.toArray(new String[text.size()]);
+        this.subs = new int[subs.size()];
+        this.xml = new boolean[subs.size()];
+        for (i = 0; i < subs.size(); i++) {
+            this.subs[i] = subs.get(i);
+            this.xml[i] = xml.get(i);
+        }
+    }
+
+    /**
+     * Parse a template file
+     *
+     * @param file the template file
+     * @return the parsed template
+     * @throws VEOFatal if the template could not be read or was invalid
+     */
+    static MetadataTemplate parse(Path file) throws VEOFatal {
+        BufferedReader br;
+        String line;
+        String[] ids;
+        StringBuilder sb;
+        ArrayList<String> text;
+        ArrayList<Integer> subs;
+        ArrayList<Boolean> xml;
+        String s, sub;
+        String[] words;
+        int i, j, k, col;
+
+        if (Files.isDirectory(file)) {
+            throw new VEOFatal("Template file '" + file.toString() + "' is a directory not a .txt file (" + classname + ")");
+        }
+        if (!Files.exists(file)) {
+            throw new VEOFatal("Template file '" + file.toString() + "' does not exist (" + classname + ")");
+        }
+
+        // read the identifiers and the body of the template
+        sb = new StringBuilder();
+        try {
+            br = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            try {
+                line = br.readLine();
+                if (line == null || (ids = line.split("\t")).length < 2) {
+                    throw new VEOFatal("Error reading template file '" + file.toString() + "': First line must contain two URIs separated by a tab (" + classname + ")");
+                }
+                while ((i = br.read()) != -1) {
+                    sb.append((char) i);
+                }
+            } finally {
+                br.close();
+            }
+        } catch (IOException ioe) {
+            throw new VEOFatal("IO Error reading template file '" + file.toString() + "': " + ioe.getMessage() + " (" + classname + ")");
+        }
+
+        // break the body into text and substitutions
+        s = sb.toString();
+        text = new ArrayList<>();
+        subs = new ArrayList<>();
+        xml = new ArrayList<>();
+        i = 0;
+        while ((j = s.indexOf("$$", i)) != -1 && (k = s.indexOf("$$", j + 2)) != -1) {
+            sub = s.substring(j + 2, k).trim();
+            text.add(s.substring(i, j));
+            words = sub.split("\\s+");
+            if (words.length == 1 && words[0].equalsIgnoreCase("date")) {
+                subs.add(-1);
+                xml.add(false);
+            } else {
+                col = 0;
+                try {
+                    if (words.length == 1) {
+                        col = Integer.parseInt(words[0]);
+                    } else if (words.length == 2 && (words[0].equalsIgnoreCase("column") || words[0].equalsIgnoreCase("column-xml"))) {
+                        col = Integer.parseInt(words[1]);
+                    }
+                } catch (NumberFormatException nfe) {
+                    col = 0;
+                }
+                if (col < 1) {
+                    throw new VEOFatal("Template file '" + file.toString() + "' contains an invalid substitution '$$" + sub + "$$' (" + classname + ")");
+                }
+                subs.add(col - 1);
+                xml.add(words[0].equalsIgnoreCase("column-xml"));
+            }
+            i = k + 2;
+        }
+        text.add(s.substring(i));
+        return new MetadataTemplate(ids[0].trim(), ids[1].trim(), text, subs, xml);
+    }
+
+    /**
+     * Get the metadata schema identifier
+     *
+     * @return the schema identifier
+     */
+    String getSchemaId() {
+        return schemaId;
+    }
+
+    /**
+     * Get the metadata syntax identifier
+     *
+     * @return the syntax identifier
+     */
+    String getSyntaxId() {
+        return syntaxId;
+    }
+
+    /**
+     * Render the template, substituting the data
+     *
+     * @param out where to put the rendered template
+     * @param data the values to substitute
+     * @throws IOException if the output could not be written
+     * @throws VEOError if a value to be substituted is not present
+     */
+    void render(Appendable out, String[] data) throws IOException, VEOError {
+        int i;
+
+        for (i = 0; i < subs.length; i++) {
+            out.append(text[i]);
+            if (subs[i] == -1) {
+                out.append(FileHarvest.versDateTime(false, System.currentTimeMillis()));
+            } else if (data == null || subs[i] >= data.length) {
+                throw new VEOError("Column " + (subs[i] + 1) + " is not available from the data source (" + classname + ")");
+            } else if (data[subs[i]] == null) {
+                throw new VEOError("Column " + (subs[i] + 1) + " in the data is null (" + classname + ")");
+            } else if (xml[i]) {
+                out.append(data[subs[i]]);
+            } else {
+                appendEscaped(out, data[subs[i]]);
+            }
+        }
+        out.append(text[i]);
+    }
+
+    /**
+     * Append a value to the output, encoding the XML special characters
+     *
+     * @param out the output
+     * @param s the value
+     * @throws IOException if the output could not be written
+     */
+    static void appendEscaped(Appendable out, String s) throws IOException {
+        XMLEscaper.escape(out, s);
+    }
+}
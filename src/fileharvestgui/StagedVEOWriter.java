@@ -0,0 +1,180 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VEOCreate.CreateVEO;
+import VERSCommon.PFXUser;
+import VERSCommon.VEOError;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.Future;
+
+/**
+ * This class builds a VEO using VEOCreate.CreateVEO. The VEO is assembled in
+ * a '.veo' directory in the output directory, which is then zipped. This is
+ * slower than writing straight into the zip file, but the staging directory
+ * is useful when debugging.
+ */
+final class StagedVEOWriter implements VEOWriter {
+
+    private final CreateVEO cv; // the VEO being built
+    private final HarvestProgress.Item progress; // counts the content files added (may be null)
+    private final HashMap<String, Path> contentDirs; // content directories added, indexed by name
+
+    /**
+     * Constructor
+     *
+     * @param outputDir the directory in which the VEO is to be created
+     * @param recordName the name of the VEO
+     * @param hashAlg the hash algorithm to use
+     * @param verbose true if verbose output is wanted
+     * @param progress counts the content files as they are added (may be
+     * null)
+     * @throws VEOError if the VEO could not be started
+     */
+    StagedVEOWriter(Path outputDir, String recordName, String hashAlg, boolean verbose, HarvestProgress.Item progress) throws VEOError {
+        cv = new CreateVEO(outputDir, recordName, hashAlg, verbose);
+        this.progress = progress;
+        contentDirs = new HashMap<>();
+    }
+
+    @Override
+    public void addVEOReadme(Path templateDir) throws VEOError {
+        cv.addVEOReadme(templateDir);
+    }
+
+    @Override
+    public void addEvent(String timestamp, String event, String initiator, String[] descriptions, String[] errors) throws VEOError {
+        cv.addEvent(timestamp, event, initiator, descriptions, errors);
+    }
+
+    @Override
+    public void addContent(Path directory) throws VEOError {
+        cv.addContent(directory);
+        contentDirs.put(directory.getFileName().toString(), directory);
+    }
+
+    @Override
+    public void addInformationObject(String type, int depth) throws VEOError {
+        cv.addInformationObject(type, depth);
+    }
+
+    @Override
+    public void addMetadataPackage(MetadataTemplate template, String[] data) throws VEOError {
+        StringBuilder sb;
+
+        sb = new StringBuilder();
+        try {
+            template.render(sb, data);
+        } catch (IOException ioe) {
+            throw new VEOError("Failed rendering metadata template: " + ioe.getMessage());
+        }
+        cv.addMetadataPackage(template.getSchemaId(), template.getSyntaxId(), sb);
+    }
+
+    @Override
+    public void addMetadataPackage(String schemaId, String syntaxId, MetadataBody metadata) throws VEOError {
+        StringBuilder sb;
+
+        // CreateVEO takes the metadata as a whole
+        sb = new StringBuilder();
+        try {
+            metadata.write(new BuilderWriter(sb));
+        } catch (IOException ioe) {
+            throw new VEOError("Failed generating metadata package: " + ioe.getMessage());
+        }
+        cv.addMetadataPackage(schemaId, syntaxId, sb);
+    }
+
+    @Override
+    public void addInformationPiece(String label) throws VEOError {
+        cv.addInformationPiece(label);
+    }
+
+    @Override
+    public Future<String> addContentFile(String file, String hash) throws VEOError {
+        Path dir;
+        String name;
+        int i;
+
+        cv.addContentFile(file);
+
+        // CreateVEO has copied (or linked) the file by now, so count it
+        if (progress != null) {
+            name = file.replace('\\', '/');
+            i = name.indexOf('/');
+            dir = i > 0 ? contentDirs.get(name.substring(0, i)) : null;
+            if (dir != null) {
+                try {
+                    progress.fileDone(Files.size(dir.getParent() != null ? dir.getParent().resolve(file) : dir.resolveSibling(file)));
+                } catch (IOException ioe) {
+                    progress.fileDone(0);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void finishFiles() throws VEOError {
+        cv.finishFiles();
+    }
+
+    @Override
+    public void sign(PFXUser user, String hashAlg) throws VEOError {
+        cv.sign(user, hashAlg);
+    }
+
+    @Override
+    public void finalise() throws VEOError {
+        cv.finalise(true);
+    }
+
+    @Override
+    public void abandon() {
+        cv.abandon(true);
+    }
+
+    /**
+     * A Writer that appends to a StringBuilder (unlike a StringWriter, which
+     * appends to a synchronized StringBuffer)
+     */
+    private static final class BuilderWriter extends Writer {
+
+        private final StringBuilder sb;
+
+        BuilderWriter(StringBuilder sb) {
+            this.sb = sb;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            sb.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            sb.append(str, off, off + len);
+        }
+
+        @Override
+        public void write(int c) {
+            sb.append((char) c);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
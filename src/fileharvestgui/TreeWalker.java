@@ -0,0 +1,263 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.VEOFatal;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * This class walks a directory tree depth first without recursion, so the
+ * depth of the tree is limited only by memory (legacy trees can be hundreds
+ * of levels deep). The caller enters a directory, and then takes its entries
+ * one by one with next(); entering a subdirectory makes next() return the
+ * subdirectory's entries until the caller leaves it, when the entries of the
+ * parent continue. This visits the tree in exactly the order the old
+ * recursive walk did.
+ *
+ * Each directory being walked holds an open DirectoryStream. At most
+ * 'maxOpen' are kept open; when another directory is entered, the remaining
+ * entries of the shallowest open directory are read ahead into memory and
+ * its stream closed. So a deep tree uses a bounded number of file handles,
+ * and only the directories near the root (whose listings are mostly done)
+ * are read ahead.
+ *
+ * The state of each level (a Frame) is reused as the walk goes up and down
+ * the tree. The caller can attach its own state (e.g. a flight recorder
+ * event) to each directory entered. A TreeWalker is used by one thread.
+ *
+ * @param <S> the type of the caller's state for each directory
+ */
+final class TreeWalker<S> implements AutoCloseable {
+
+    static final int DEFAULT_MAX_OPEN = 64; // default maximum number of directories open at once
+
+    private final int maxOpen;      // maximum number of directory streams open at once
+    private final ArrayList<Frame<S>> frames; // the state of each level (reused)
+    private int top;                // index of the directory being listed (-1 if none)
+    private int open;               // number of directory streams open
+    private int shallowest;         // lowest index that may have an open stream
+
+    /**
+     * The state of the listing of one directory
+     */
+    private static final class Frame<S> {
+
+        HarvestEntry dir;           // the directory being listed
+        DirectoryStream<Path> ds;   // the open listing (null if closed)
+        Iterator<Path> it;          // position in the open listing
+        final ArrayList<Path> ahead; // entries read ahead when the listing was closed
+        int next;                   // next entry to return from ahead
+        int entries;                // number of entries returned so far
+        S state;                    // the caller's state for the directory
+
+        Frame() {
+            ahead = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxOpen the maximum number of directories to keep open at once
+     * (at least 1)
+     */
+    TreeWalker(int maxOpen) {
+        this.maxOpen = Math.max(1, maxOpen);
+        frames = new ArrayList<>();
+        top = -1;
+        open = 0;
+        shallowest = 0;
+    }
+
+    /**
+     * Start listing a directory. Subsequent calls to next() return its
+     * entries until it is left.
+     *
+     * @param dir the directory
+     * @param state the caller's state for the directory (returned by leave())
+     * @throws VEOFatal if the directory could not be listed
+     */
+    void enter(HarvestEntry dir, S state) throws VEOFatal {
+        Frame<S> f;
+
+        if (open >= maxOpen) {
+            readAhead();
+        }
+        top++;
+        if (top == frames.size()) {
+            frames.add(new Frame<>());
+        }
+        f = frames.get(top);
+        f.dir = dir;
+        f.ahead.clear();
+        f.next = 0;
+        f.entries = 0;
+        f.state = state;
+        try {
+            f.ds = Files.newDirectoryStream(dir.path);
+        } catch (IOException ioe) {
+            f.ds = null;
+            f.it = null;
+            top--;
+            throw failed(dir, ioe);
+        }
+        f.it = f.ds.iterator();
+        open++;
+    }
+
+    /**
+     * Get the next entry of the directory being listed
+     *
+     * @return the entry, or null if the directory has no more entries (it
+     * should then be left)
+     * @throws VEOFatal if the directory could not be read
+     */
+    Path next() throws VEOFatal {
+        Frame<S> f;
+
+        f = frames.get(top);
+        if (f.it != null) {
+            try {
+                if (f.it.hasNext()) {
+                    f.entries++;
+                    return f.it.next();
+                }
+            } catch (DirectoryIteratorException die) {
+                throw failed(f.dir, die.getCause());
+            }
+            closeStream(f);
+            return null;
+        }
+        if (f.next < f.ahead.size()) {
+            f.entries++;
+            return f.ahead.get(f.next++);
+        }
+        return null;
+    }
+
+    /**
+     * Stop listing the current directory, and continue with its parent
+     *
+     * @return the caller's state for the directory
+     */
+    S leave() {
+        Frame<S> f;
+        S state;
+
+        f = frames.get(top);
+        closeStream(f);
+        state = f.state;
+        f.dir = null;
+        f.state = null;
+        f.ahead.clear();
+        top--;
+        if (shallowest > top + 1) {
+            shallowest = top + 1;
+        }
+        return state;
+    }
+
+    /**
+     * Test if all the directories entered have been left
+     *
+     * @return true if the walk is finished
+     */
+    boolean isEmpty() {
+        return top < 0;
+    }
+
+    /**
+     * Get the directory being listed
+     *
+     * @return the directory
+     */
+    HarvestEntry directory() {
+        return frames.get(top).dir;
+    }
+
+    /**
+     * Get the number of entries of the current directory returned so far
+     *
+     * @return the number of entries
+     */
+    int entries() {
+        return frames.get(top).entries;
+    }
+
+    /**
+     * Get the depth of the entries returned by next(). The first directory
+     * entered is at depth 1, so its entries are at depth 2.
+     *
+     * @return the depth
+     */
+    int depth() {
+        return top + 2;
+    }
+
+    /**
+     * Close any directories still open (e.g. if the walk was abandoned)
+     */
+    @Override
+    public void close() {
+        int i;
+
+        for (i = 0; i <= top; i++) {
+            closeStream(frames.get(i));
+            frames.get(i).ahead.clear();
+            frames.get(i).state = null;
+        }
+        top = -1;
+    }
+
+    /**
+     * Read the rest of the shallowest open directory into memory, and close
+     * its stream
+     */
+    private void readAhead() throws VEOFatal {
+        Frame<S> f;
+
+        while (shallowest <= top && frames.get(shallowest).ds == null) {
+            shallowest++;
+        }
+        if (shallowest > top) {
+            return;
+        }
+        f = frames.get(shallowest);
+        try {
+            while (f.it.hasNext()) {
+                f.ahead.add(f.it.next());
+            }
+        } catch (DirectoryIteratorException die) {
+            throw failed(f.dir, die.getCause());
+        }
+        closeStream(f);
+    }
+
+    private void closeStream(Frame<S> f) {
+        if (f.ds == null) {
+            return;
+        }
+        try {
+            f.ds.close();
+        } catch (IOException ioe) {
+            /* ignore */
+        }
+        f.ds = null;
+        f.it = null;
+        open--;
+    }
+
+    private static VEOFatal failed(HarvestEntry dir, IOException ioe) {
+        return new VEOFatal("Failed to process directory '" + dir.path.toAbsolutePath() + "': " + ioe.getMessage());
+    }
+}
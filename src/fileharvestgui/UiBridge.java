@@ -0,0 +1,109 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * This class passes items (e.g. log messages) from the harvest threads to the
+ * FX application thread. Any number of threads publish items into a bounded,
+ * lock free ring buffer; a single consumer (the UI pulse) drains them in
+ * bulk. This replaces a Platform.runLater per item, which floods the FX event
+ * queue when the harvest logs heavily.
+ *
+ * If the ring is full (i.e. the UI is 'capacity' items behind) a publisher
+ * waits for the consumer to catch up, so items are never lost. Once the
+ * bridge is closed, items published are discarded, so that harvest threads
+ * still running after the window has gone are never held up.
+ *
+ * @param <E> the type of item passed
+ */
+final class UiBridge<E> {
+
+    private final AtomicReferenceArray<E> ring; // the items published but not yet drained
+    private final int mask;         // capacity - 1 (capacity is a power of two)
+    private final AtomicLong tail;  // number of slots claimed by publishers
+    private volatile long head;     // number of slots drained by the consumer
+    private volatile boolean closed; // true if the consumer has gone
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of items the ring holds (rounded up to a
+     * power of two)
+     */
+    UiBridge(int capacity) {
+        int c;
+
+        c = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new AtomicReferenceArray<>(c);
+        mask = c - 1;
+        tail = new AtomicLong(0);
+        head = 0;
+        closed = false;
+    }
+
+    /**
+     * Publish an item. May be called from any thread.
+     *
+     * @param item the item (must not be null)
+     */
+    void publish(E item) {
+        long t;
+
+        while (!closed) {
+            t = tail.get();
+            if (t - head > mask) {
+                // full, wait for the consumer
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            } else if (tail.compareAndSet(t, t + 1)) {
+                ring.set((int) (t & mask), item);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pass the items published so far to the consumer, in the order they were
+     * published. Must only be called from one thread (the consumer).
+     *
+     * @param consumer what to do with each item
+     * @return the number of items drained
+     */
+    int drain(Consumer<E> consumer) {
+        long h;
+        int i, n;
+        E item;
+
+        h = head;
+        n = 0;
+        while (true) {
+            i = (int) (h & mask);
+            // a slot may be claimed but not yet filled; leave it until next time
+            if ((item = ring.get(i)) == null) {
+                break;
+            }
+            ring.set(i, null);
+            h++;
+            head = h;
+            consumer.accept(item);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * The consumer has gone; discard anything published from now on
+     */
+    void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class records where the time went in building a VEO: the time spent
+ * in each phase (in nanoseconds), and counts of the files, directories, bytes
+ * and excluded entries. One instance is kept for each VEO, and is only
+ * updated by the thread building the VEO, so the counters are plain longs;
+ * timing a phase is a call to System.nanoTime() at each end.
+ *
+ * The timings of the VEOs are added into a job total (see add()), which is
+ * reported at the end of the job.
+ */
+final class VEOTimings {
+
+    /**
+     * The phases of building a VEO
+     */
+    enum Phase {
+        SCAN("scan for changes"),       // incremental comparison with the last harvest
+        SETUP("setup"),                 // starting the VEO, README and history
+        WALK("directory walk"),         // listing the directories
+        ATTRIBUTES("attribute reads"),  // reading the attributes of each file and directory
+        EXCLUSIONS("exclusion checks"), // checking the exclusion rules
+        METADATA("metadata"),           // generating the metadata packages
+        CONTENT("content files"),       // adding the content files (hashing and copying, unless done in parallel)
+        FINISH("hash wait/VEOContent"), // waiting for the parallel hashing and completing VEOContent.xml
+        SIGN("signing"),                // signing VEOContent.xml and VEOHistory.xml
+        FINALISE("finalising"),         // completing (zipping) the VEO
+        MANIFEST("manifest");           // writing the manifest for the next incremental harvest
+
+        final String description;
+
+        Phase(String description) {
+            this.description = description;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    final long[] nanos;     // time spent in each phase
+    long elapsed;           // total time to build the VEO(s)
+    long files;             // number of files added
+    long directories;       // number of directories added
+    long bytes;             // bytes of content added
+    long excluded;          // number of files and directories excluded
+    int veos;               // number of VEOs timed (in a total)
+
+    VEOTimings() {
+        nanos = new long[PHASES.length];
+        elapsed = 0;
+        files = 0;
+        directories = 0;
+        bytes = 0;
+        excluded = 0;
+        veos = 0;
+    }
+
+    /**
+     * Add the time since start to a phase
+     *
+     * @param phase the phase
+     * @param start when the phase started (System.nanoTime())
+     * @return the time now, so that the next phase can start from it
+     */
+    long end(Phase phase, long start) {
+        long now;
+
+        now = System.nanoTime();
+        nanos[phase.ordinal()] += now - start;
+        return now;
+    }
+
+    /**
+     * Add the timings of a VEO into this total
+     *
+     * @param t the timings of the VEO
+     */
+    synchronized void add(VEOTimings t) {
+        int i;
+
+        for (i = 0; i < nanos.length; i++) {
+            nanos[i] += t.nanos[i];
+        }
+        elapsed += t.elapsed;
+        files += t.files;
+        directories += t.directories;
+        bytes += t.bytes;
+        excluded += t.excluded;
+        veos++;
+    }
+
+    /**
+     * The header of the CSV file of timings
+     *
+     * @return the column names, comma separated
+     */
+    static String csvHeader() {
+        StringBuilder sb;
+        int i;
+
+        sb = new StringBuilder();
+        sb.append("veo,status,files,directories,bytes,excluded,elapsedMS");
+        for (i = 0; i < PHASES.length; i++) {
+            sb.append(',');
+            sb.append(PHASES[i].name().toLowerCase(Locale.ROOT));
+            sb.append("MS");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The timings as a line of the CSV file
+     *
+     * @param veo the name of the VEO
+     * @param status what happened to the VEO (e.g. 'built')
+     * @return the values, comma separated
+     */
+    String toCSV(String veo, String status) {
+        StringBuilder sb;
+        int i;
+
+        sb = new StringBuilder();
+        sb.append('"');
+        sb.append(veo.replace("\"", "\"\""));
+        sb.append("\",");
+        sb.append(status);
+        sb.append(',');
+        sb.append(files);
+        sb.append(',');
+        sb.append(directories);
+        sb.append(',');
+        sb.append(bytes);
+        sb.append(',');
+        sb.append(excluded);
+        sb.append(',');
+        sb.append(ms(elapsed));
+        for (i = 0; i < nanos.length; i++) {
+            sb.append(',');
+            sb.append(ms(nanos[i]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Describe the total, with the time in each phase and its share of the
+     * total time (the phases of VEOs built in parallel overlap, so the
+     * shares are of the sum of the VEOs' times, not of the job's duration)
+     *
+     * @return the lines of the description
+     */
+    synchronized List<String> describe() {
+        ArrayList<String> l;
+        long other;
+        int i;
+
+        l = new ArrayList<>();
+        l.add(String.format(Locale.ROOT, "Performance: %d VEO(s), %d file(s), %d folder(s), %s, %d excluded, %.1f s building VEOs",
+                veos, files, directories, HarvestProgress.formatBytes(bytes), excluded, elapsed / 1e9));
+        other = elapsed;
+        for (i = 0; i < nanos.length; i++) {
+            if (nanos[i] == 0) {
+                continue;
+            }
+            l.add(String.format(Locale.ROOT, "  %-22s %10.1f s %5.1f%%", PHASES[i].description, nanos[i] / 1e9, share(nanos[i])));
+            other -= nanos[i];
+        }
+        if (other > 0) {
+            l.add(String.format(Locale.ROOT, "  %-22s %10.1f s %5.1f%%", "other", other / 1e9, share(other)));
+        }
+        return l;
+    }
+
+    /**
+     * Get the time spent in a phase
+     *
+     * @param phase the phase
+     * @return the time in milliseconds
+     */
+    synchronized long getMS(Phase phase) {
+        return ms(nanos[phase.ordinal()]);
+    }
+
+    private double share(long n) {
+        return elapsed > 0 ? 100.0 * n / elapsed : 0;
+    }
+
+    private static long ms(long nanos) {
+        return nanos / 1000000;
+    }
+}
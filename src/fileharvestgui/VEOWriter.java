@@ -0,0 +1,146 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.PFXUser;
+import VERSCommon.VEOError;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.concurrent.Future;
+
+/**
+ * This interface is implemented by the classes that build a VEO. The methods
+ * are called in the same order as those of VEOCreate.CreateVEO: the readme,
+ * events and content directories; then the information objects, metadata
+ * packages, information pieces and content files in depth first order; then
+ * finishFiles(), sign(), and finalise(). If anything fails, abandon() is
+ * called.
+ */
+interface VEOWriter {
+
+    /**
+     * Add the VEOReadme.txt file from the template directory
+     *
+     * @param templateDir the template directory
+     * @throws VEOError if the file could not be added
+     */
+    void addVEOReadme(Path templateDir) throws VEOError;
+
+    /**
+     * Add an event to the VEOHistory.xml file
+     *
+     * @param timestamp the date and time of the event
+     * @param event the type of the event
+     * @param initiator who initiated the event
+     * @param descriptions descriptions of the event
+     * @param errors errors that occurred
+     * @throws VEOError if the event could not be added
+     */
+    void addEvent(String timestamp, String event, String initiator, String[] descriptions, String[] errors) throws VEOError;
+
+    /**
+     * Add a directory of content. Content files are referenced relative to
+     * the parent of this directory (i.e. starting with its name).
+     *
+     * @param directory the directory
+     * @throws VEOError if the directory could not be added
+     */
+    void addContent(Path directory) throws VEOError;
+
+    /**
+     * Start a new information object
+     *
+     * @param type a label for the information object
+     * @param depth the depth of the information object in the tree
+     * @throws VEOError if the information object could not be started
+     */
+    void addInformationObject(String type, int depth) throws VEOError;
+
+    /**
+     * Add a metadata package built from a template
+     *
+     * @param template the template
+     * @param data the values to substitute into the template
+     * @throws VEOError if the metadata package could not be added
+     */
+    void addMetadataPackage(MetadataTemplate template, String[] data) throws VEOError;
+
+    /**
+     * Add a metadata package generated by the caller. The metadata is
+     * written straight into the VEO (where possible), so it is never held in
+     * memory as a whole.
+     *
+     * @param schemaId the metadata schema identifier
+     * @param syntaxId the metadata syntax identifier
+     * @param metadata writes the metadata (already encoded as XML)
+     * @throws VEOError if the metadata package could not be added
+     */
+    void addMetadataPackage(String schemaId, String syntaxId, MetadataBody metadata) throws VEOError;
+
+    /**
+     * Generates the body of a metadata package
+     */
+    interface MetadataBody {
+
+        /**
+         * Write the metadata
+         *
+         * @param out where to write the metadata
+         * @throws IOException if the metadata could not be written
+         */
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Start a new information piece in the current information object
+     *
+     * @param label a label for the information piece
+     * @throws VEOError if the information piece could not be started
+     */
+    void addInformationPiece(String label) throws VEOError;
+
+    /**
+     * Add a content file to the current information piece
+     *
+     * @param file the file, relative to the parent of a content directory
+     * @param hash the base64 encoded hash of the file if it is already known
+     * (e.g. from the manifest of a previous harvest), or null
+     * @return the hash of the file (which may still be being calculated), or
+     * null if the writer does not make the hash available
+     * @throws VEOError if the content file could not be added
+     */
+    Future<String> addContentFile(String file, String hash) throws VEOError;
+
+    /**
+     * Complete the VEOContent.xml and VEOHistory.xml files
+     *
+     * @throws VEOError if the files could not be completed
+     */
+    void finishFiles() throws VEOError;
+
+    /**
+     * Sign the VEOContent.xml and VEOHistory.xml files
+     *
+     * @param user the user signing the VEO
+     * @param hashAlg the hash algorithm to use
+     * @throws VEOError if the files could not be signed
+     */
+    void sign(PFXUser user, String hashAlg) throws VEOError;
+
+    /**
+     * Complete the VEO, producing the .veo.zip file
+     *
+     * @throws VEOError if the VEO could not be completed
+     */
+    void finalise() throws VEOError;
+
+    /**
+     * Abandon construction of the VEO, removing anything created
+     */
+    void abandon();
+}
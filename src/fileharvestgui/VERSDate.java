@@ -0,0 +1,70 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * This class formats dates and times in the standard VERS formats (see PROS
+ * 99/007 (Version 2), Specification 2, p146), e.g. '2018-06-12T10:15:30+10:00',
+ * or in a file system safe form without colons, e.g. '2018-06-12T101530+1000'
+ * (used in the names of VEOs).
+ *
+ * The formatters are immutable, so they are created once and shared by all
+ * the threads building VEOs. The time zone is the JVM's default time zone
+ * when the class is loaded; it is looked up once rather than for each date.
+ */
+final class VERSDate {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault(); // the local time zone
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ssxxx").withZone(ZONE);
+    private static final DateTimeFormatter DATE_TIME_FSSAFE = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HHmmssxx").withZone(ZONE);
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZONE);
+    private static final DateTimeFormatter TIME_FSSAFE = DateTimeFormatter.ofPattern("HHmmss").withZone(ZONE);
+
+    private VERSDate() {
+    }
+
+    /**
+     * Format a date and time
+     *
+     * @param fssafe true if the result is to be file system safe
+     * @param ms milliseconds since the epoch (if zero, the current time)
+     * @return the formatted date and time
+     */
+    static String dateTime(boolean fssafe, long ms) {
+        return (fssafe ? DATE_TIME_FSSAFE : DATE_TIME).format(instant(ms));
+    }
+
+    /**
+     * Format a time of day
+     *
+     * @param fssafe true if the result is to be file system safe
+     * @param ms milliseconds since the epoch (if zero, the current time)
+     * @return the formatted time
+     */
+    static String time(boolean fssafe, long ms) {
+        return (fssafe ? TIME_FSSAFE : TIME).format(instant(ms));
+    }
+
+    /**
+     * Append a formatted date and time to a buffer
+     *
+     * @param sb the buffer
+     * @param fssafe true if the result is to be file system safe
+     * @param ms milliseconds since the epoch (if zero, the current time)
+     */
+    static void appendDateTime(StringBuilder sb, boolean fssafe, long ms) {
+        (fssafe ? DATE_TIME_FSSAFE : DATE_TIME).formatTo(instant(ms), sb);
+    }
+
+    private static Instant instant(long ms) {
+        return ms == 0 ? Instant.now() : Instant.ofEpochMilli(ms);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class writes text into XML, encoding the XML special characters. The
+ * text is scanned for the next character that needs encoding, and the run of
+ * clean characters before it is copied in one call, so that text with no
+ * special characters (the usual case) is copied in a single write, and no
+ * intermediate strings are created.
+ *
+ * Text can be written to a Writer (e.g. VEOContent.xml as it is spooled) or
+ * to a StringBuilder. Writers are given the runs with write(String, int, int)
+ * rather than append(CharSequence, int, int), as the latter creates a
+ * substring.
+ *
+ * There are two encodings. escape() encodes every special character. encode()
+ * leaves an '&amp;' alone if it already starts one of the five predefined
+ * entities (e.g. '&amp;amp;'), so that text that has already been encoded is
+ * not encoded twice; this is what FileHarvest.xmlEncode() has always done.
+ */
+final class XMLEscaper {
+
+    private XMLEscaper() {
+    }
+
+    /**
+     * Write text, encoding every XML special character
+     *
+     * @param out where to write the text
+     * @param s the text
+     * @throws IOException if the text could not be written
+     */
+    static void escape(Writer out, String s) throws IOException {
+        write(out, s, false);
+    }
+
+    /**
+     * Append text, encoding every XML special character
+     *
+     * @param out where to append the text
+     * @param s the text
+     */
+    static void escape(StringBuilder out, String s) {
+        append(out, s, false);
+    }
+
+    /**
+     * Append text to any Appendable, encoding every XML special character
+     *
+     * @param out where to append the text
+     * @param s the text
+     * @throws IOException if the text could not be written
+     */
+    static void escape(Appendable out, String s) throws IOException {
+        if (out instanceof Writer) {
+            write((Writer) out, s, false);
+        } else if (out instanceof StringBuilder) {
+            append((StringBuilder) out, s, false);
+        } else {
+            appendTo(out, s, false);
+        }
+    }
+
+    /**
+     * Write text, encoding the XML special characters, but leaving any
+     * predefined entities already in the text alone
+     *
+     * @param out where to write the text
+     * @param s the text
+     * @throws IOException if the text could not be written
+     */
+    static void encode(Writer out, String s) throws IOException {
+        write(out, s, true);
+    }
+
+    /**
+     * Append text, encoding the XML special characters, but leaving any
+     * predefined entities already in the text alone
+     *
+     * @param out where to append the text
+     * @param s the text
+     */
+    static void encode(StringBuilder out, String s) {
+        append(out, s, true);
+    }
+
+    private static void write(Writer out, String s, boolean keepEntities) throws IOException {
+        int i, start, n;
+        String r;
+
+        n = s.length();
+        start = 0;
+        while ((i = next(s, start, n, keepEntities)) < n) {
+            if (i > start) {
+                out.write(s, start, i - start);
+            }
+            r = replacement(s.charAt(i));
+            out.write(r, 0, r.length());
+            start = i + 1;
+        }
+        if (start < n) {
+            out.write(s, start, n - start);
+        }
+    }
+
+    private static void append(StringBuilder out, String s, boolean keepEntities) {
+        int i, start, n;
+
+        n = s.length();
+        start = 0;
+        while ((i = next(s, start, n, keepEntities)) < n) {
+            out.append(s, start, i);
+            out.append(replacement(s.charAt(i)));
+            start = i + 1;
+        }
+        out.append(s, start, n);
+    }
+
+    private static void appendTo(Appendable out, String s, boolean keepEntities) throws IOException {
+        int i, start, n;
+
+        n = s.length();
+        start = 0;
+        while ((i = next(s, start, n, keepEntities)) < n) {
+            out.append(s, start, i);
+            out.append(replacement(s.charAt(i)));
+            start = i + 1;
+        }
+        out.append(s, start, n);
+    }
+
+    /**
+     * Find the next character that needs encoding
+     *
+     * @return its position, or n if there is none
+     */
+    private static int next(String s, int from, int n, boolean keepEntities) {
+        int i;
+
+        for (i = from; i < n; i++) {
+            switch (s.charAt(i)) {
+                case '&':
+                    if (keepEntities && isEntity(s, i)) {
+                        break;
+                    }
+                    return i;
+                case '<':
+                case '>':
+                case '"':
+                case '\'':
+                    return i;
+                default:
+                    break;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Test if the '&amp;' at position i starts one of the predefined entities
+     * (ignoring case). The character after the '&amp;' picks the entities it
+     * could be, so only those are compared.
+     */
+    private static boolean isEntity(String s, int i) {
+        if (i + 1 >= s.length()) {
+            return false;
+        }
+        switch (Character.toLowerCase(s.charAt(i + 1))) {
+            case 'a':
+                return s.regionMatches(true, i, "&amp;", 0, 5) || s.regionMatches(true, i, "&apos;", 0, 6);
+            case 'l':
+                return s.regionMatches(true, i, "&lt;", 0, 4);
+            case 'g':
+                return s.regionMatches(true, i, "&gt;", 0, 4);
+            case 'q':
+                return s.regionMatches(true, i, "&quot;", 0, 6);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get the encoding of a special character
+     */
+    private static String replacement(char c) {
+        switch (c) {
+            case '&':
+                return "&amp;";
+            case '<':
+                return "&lt;";
+            case '>':
+                return "&gt;";
+            case '"':
+                return "&quot;";
+            default:
+                return "&apos;";
+        }
+    }
+}
@@ -0,0 +1,782 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.PFXUser;
+import VERSCommon.VEOError;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class builds a VEO by writing it straight into the final .veo.zip
+ * file, rather than assembling it in a '.veo' directory and then zipping the
+ * directory.
+ *
+ * Content files are written into the zip file as they are added. If a
+ * HashingStage is supplied, the content files are hashed (and written into
+ * the zip file) on its threads while the directory tree is still being
+ * walked; all the hashes are collected when the control files are finished.
+ * The VEOContent.xml file cannot be written into the zip file until it has
+ * been signed, so it is spooled to a temporary file in the output
+ * directory, and is copied into the zip file as it is signed. As the hashes
+ * may not be known when a content file is added, the position of each hash
+ * in the spooled file is recorded, and the hash is inserted there when it
+ * is copied. VEOHistory.xml is small and is held in memory. The zip file is
+ * built as '&lt;record&gt;.veo.zip.tmp' and is renamed when it is complete,
+ * so a partial VEO is never mistaken for a complete one.
+ */
+final class ZipVEOWriter implements VEOWriter {
+
+    private static final String classname = "ZipVEOWriter";
+    private static final int BUFSIZE = 64 * 1024;
+    private final String veoName;   // name of the VEO directory within the zip file
+    private final Path zipFile;     // the final .veo.zip file
+    private final Path tmpZipFile;  // the zip file while it is being built
+    private final Path spoolFile;   // VEOContent.xml while it is being built
+    private final ZipOutputStream zos; // the zip file
+    private final CountingWriter content; // VEOContent.xml
+    private final StringBuilder history; // VEOHistory.xml
+    private final HashMap<String, Path> contentDirs; // content directories added, indexed by name
+    private final HashMap<String, Future<String>> contentHashes; // hashes of the content files already in the zip
+    private final ArrayList<Future<String>> hashes; // hashes in the order they appear in VEOContent.xml
+    private final ArrayList<Long> hashOffsets; // where each hash goes in the spooled VEOContent.xml (in chars)
+    private final HashingStage hs;  // stage that hashes content files in parallel (null if done here)
+    private final HarvestProgress.Item progress; // counts the content files written (may be null)
+    private final String hashAlg;   // hash algorithm used for the content files
+    private final HashSet<String> zipDirs; // directories already in the zip file
+    private final MessageDigest md; // digest used to hash the content files (if not done in parallel)
+    private boolean ioOpen;         // true if an information object is open
+    private boolean ipOpen;         // true if an information piece is open
+    private boolean finished;       // true once finishFiles() has been called
+
+    /**
+     * Constructor
+     *
+     * @param outputDir the directory in which the VEO is to be created
+     * @param recordName the name of the VEO
+     * @param hashAlg the hash algorithm to use
+     * @param hs the stage that hashes the content files (may be null, in
+     * which case the files are hashed by the calling thread)
+     * @param progress counts the content files as they are written (may be
+     * null)
+     * @throws VEOError if the VEO could not be started
+     */
+    ZipVEOWriter(Path outputDir, String recordName, String hashAlg, HashingStage hs, HarvestProgress.Item progress) throws VEOError {
+        OutputStream os;
+        ZipOutputStream z;
+        Path sf;
+
+        this.hs = hs;
+        this.progress = progress;
+        this.hashAlg = hashAlg;
+        hashes = new ArrayList<>();
+        hashOffsets = new ArrayList<>();
+        veoName = recordName + ".veo";
+        zipFile = outputDir.resolve(veoName + ".zip");
+        tmpZipFile = outputDir.resolve(veoName + ".zip.tmp");
+        contentDirs = new HashMap<>();
+        contentHashes = new HashMap<>();
+        zipDirs = new HashSet<>();
+        history = new StringBuilder();
+        ioOpen = false;
+        ipOpen = false;
+        finished = false;
+        try {
+            md = MessageDigest.getInstance(hashAlg);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new VEOError("Hash algorithm '" + hashAlg + "' is not supported (" + classname + ")");
+        }
+
+        // open the zip file and the spool file for VEOContent.xml
+        os = null;
+        z = null;
+        sf = null;
+        try {
+            Files.deleteIfExists(tmpZipFile);
+            os = Files.newOutputStream(tmpZipFile);
+            z = new ZipOutputStream(new BufferedOutputStream(os, BUFSIZE), StandardCharsets.UTF_8);
+            sf = Files.createTempFile(outputDir, veoName, ".VEOContent.xml");
+            content = new CountingWriter(new BufferedWriter(Files.newBufferedWriter(sf, StandardCharsets.UTF_8), BUFSIZE));
+        } catch (IOException ioe) {
+            try {
+                if (z != null) {
+                    z.close();
+                } else if (os != null) {
+                    os.close();
+                }
+                Files.deleteIfExists(tmpZipFile);
+                if (sf != null) {
+                    Files.deleteIfExists(sf);
+                }
+            } catch (IOException e) {
+                /* ignore */
+            }
+            throw new VEOError("Could not create VEO '" + zipFile.toString() + "': " + ioe.getMessage() + " (" + classname + ")");
+        }
+        zos = z;
+        spoolFile = sf;
+        addZipDirectory(veoName + "/");
+
+        // start the control files
+        try {
+            startXML(content, "vers:VEOContent");
+            content.write(" <vers:Version>3.0</vers:Version>\r\n");
+            content.write(" <vers:HashFunctionAlgorithm>");
+            content.write(hashAlg);
+            content.write("</vers:HashFunctionAlgorithm>\r\n");
+            startXML(history, "vers:VEOHistory");
+            history.append(" <vers:Version>3.0</vers:Version>\r\n");
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+    }
+
+    @Override
+    public void addVEOReadme(Path templateDir) throws VEOError {
+        Path p;
+
+        p = templateDir.resolve("VEOReadme.txt");
+        if (!Files.isRegularFile(p)) {
+            throw new VEOError("VEOReadme.txt file '" + p.toString() + "' does not exist (" + classname + ")");
+        }
+        try {
+            synchronized (zos) {
+                zos.putNextEntry(new ZipEntry(veoName + "/VEOReadme.txt"));
+                Files.copy(p, zos);
+                zos.closeEntry();
+            }
+        } catch (IOException ioe) {
+            throw new VEOError("Failed adding '" + p.toString() + "' to VEO: " + ioe.getMessage() + " (" + classname + ")");
+        }
+    }
+
+    @Override
+    public void addEvent(String timestamp, String event, String initiator, String[] descriptions, String[] errors) throws VEOError {
+        int i;
+
+        try {
+            history.append("  <vers:Event>\r\n");
+            history.append("   <vers:EventDateTime>");
+            MetadataTemplate.appendEscaped(history, timestamp);
+            history.append("</vers:EventDateTime>\r\n");
+            history.append("   <vers:EventType>");
+            MetadataTemplate.appendEscaped(history, event);
+            history.append("</vers:EventType>\r\n");
+            history.append("   <vers:Initiator>");
+            MetadataTemplate.appendEscaped(history, initiator);
+            history.append("</vers:Initiator>\r\n");
+            for (i = 0; descriptions != null && i < descriptions.length; i++) {
+                history.append("    <vers:Description>\r\n");
+                MetadataTemplate.appendEscaped(history, descriptions[i]);
+                history.append("   </vers:Description>\r\n");
+            }
+            for (i = 0; errors != null && i < errors.length; i++) {
+                history.append("   <vers:Error>\r\n");
+                MetadataTemplate.appendEscaped(history, errors[i]);
+                history.append("   </vers:Error>\r\n");
+            }
+            history.append("  </vers:Event>\r\n");
+        } catch (IOException ioe) {
+            // cannot happen writing to a StringBuilder
+            throw new VEOError("Failed adding event: " + ioe.getMessage() + " (" + classname + ")");
+        }
+    }
+
+    @Override
+    public void addContent(Path directory) throws VEOError {
+        String name;
+        Path p;
+
+        if (!Files.isDirectory(directory)) {
+            throw new VEOError("Content directory '" + directory.toString() + "' does not exist or is not a directory (" + classname + ")");
+        }
+        name = directory.getFileName().toString();
+        p = contentDirs.get(name);
+        if (p != null && !p.equals(directory)) {
+            throw new VEOError("A content directory named '" + name + "' has already been added from '" + p.toString() + "' (" + classname + ")");
+        }
+        contentDirs.put(name, directory);
+    }
+
+    @Override
+    public void addInformationObject(String type, int depth) throws VEOError {
+        checkNotFinished();
+        try {
+            closeInformationObject();
+            content.write(" <vers:InformationObject>\r\n");
+            content.write("  <vers:InformationObjectType>");
+            MetadataTemplate.appendEscaped(content, type);
+            content.write("</vers:InformationObjectType>\r\n");
+            content.write("  <vers:InformationObjectDepth>");
+            content.write(Integer.toString(depth));
+            content.write("</vers:InformationObjectDepth>\r\n");
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+        ioOpen = true;
+    }
+
+    @Override
+    public void addMetadataPackage(MetadataTemplate template, String[] data) throws VEOError {
+        startMetadataPackage(template.getSchemaId(), template.getSyntaxId());
+        try {
+            template.render(content, data);
+            content.write("  </vers:MetadataPackage>\r\n");
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+    }
+
+    @Override
+    public void addMetadataPackage(String schemaId, String syntaxId, MetadataBody metadata) throws VEOError {
+        startMetadataPackage(schemaId, syntaxId);
+        try {
+            metadata.write(content);
+            content.write("  </vers:MetadataPackage>\r\n");
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+    }
+
+    @Override
+    public void addInformationPiece(String label) throws VEOError {
+        checkNotFinished();
+        if (!ioOpen) {
+            throw new VEOError("Information piece added outside an information object (" + classname + ")");
+        }
+        try {
+            closeInformationPiece();
+            content.write("  <vers:InformationPiece>\r\n");
+            content.write("   <vers:Label>");
+            MetadataTemplate.appendEscaped(content, label);
+            content.write("</vers:Label>\r\n");
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+        ipOpen = true;
+    }
+
+    @Override
+    public Future<String> addContentFile(String file, String knownHash) throws VEOError {
+        String name;
+        Future<String> hash;
+        Path dir, p;
+        int i;
+
+        checkNotFinished();
+        if (!ipOpen) {
+            throw new VEOError("Content file '" + file + "' added outside an information piece (" + classname + ")");
+        }
+
+        // find the content directory the file is in
+        name = file.replace('\\', '/');
+        i = name.indexOf('/');
+        if (i < 1) {
+            throw new VEOError("Content file '" + file + "' must start with the name of a content directory (" + classname + ")");
+        }
+        dir = contentDirs.get(name.substring(0, i));
+        if (dir == null) {
+            throw new VEOError("Content file '" + file + "' is not in a content directory that has been added (" + classname + ")");
+        }
+        p = dir.getParent() != null ? dir.getParent().resolve(file) : dir.resolveSibling(file);
+        if (!Files.isRegularFile(p)) {
+            throw new VEOError("Content file '" + p.toString() + "' does not exist or is not a file (" + classname + ")");
+        }
+
+        // put the file in the zip file (once only) and reference it from the
+        // information piece. The hash is filled in when VEOContent.xml is
+        // copied into the zip file
+        hash = contentHashes.get(name);
+        if (hash == null) {
+            hash = addZipFile(name, p, knownHash);
+            contentHashes.put(name, hash);
+        }
+        hashes.add(hash);
+        try {
+            content.write("   <vers:ContentFile>\r\n");
+            content.write("    <vers:PathName>");
+            MetadataTemplate.appendEscaped(content, name);
+            content.write("</vers:PathName>\r\n");
+            content.write("    <vers:HashValue>");
+            hashOffsets.add(content.count());
+            content.write("</vers:HashValue>\r\n");
+            content.write("   </vers:ContentFile>\r\n");
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+        return hash;
+    }
+
+    @Override
+    public void finishFiles() throws VEOError {
+        checkNotFinished();
+        try {
+            closeInformationObject();
+            content.write("</vers:VEOContent>");
+            content.close();
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+        history.append("</vers:VEOHistory>");
+        finished = true;
+
+        // wait for the content files still being hashed
+        awaitHashes(true);
+    }
+
+    @Override
+    public void sign(PFXUser user, String hashAlg) throws VEOError {
+        Signature sig;
+        Reader r;
+        Writer w;
+        byte[] b;
+        char[] cb;
+        long pos, at;
+        int i, j, k;
+
+        if (!finished) {
+            throw new VEOError("VEO must be finished before it is signed (" + classname + ")");
+        }
+        sig = getSignature(user, hashAlg);
+
+        // copy VEOContent.xml into the zip file, filling in the hashes and
+        // signing it as it goes. All the content files have been written, so
+        // nothing else is using the zip file
+        try {
+            zos.putNextEntry(new ZipEntry(veoName + "/VEOContent.xml"));
+            w = new BufferedWriter(new OutputStreamWriter(new SigningOutputStream(zos, sig), StandardCharsets.UTF_8), BUFSIZE);
+            r = Files.newBufferedReader(spoolFile, StandardCharsets.UTF_8);
+            cb = new char[BUFSIZE];
+            pos = 0;
+            k = 0;
+            try {
+                while ((i = r.read(cb)) != -1) {
+                    j = 0;
+                    while (k < hashOffsets.size() && (at = hashOffsets.get(k)) <= pos + i) {
+                        w.write(cb, j, (int) (at - pos) - j);
+                        j = (int) (at - pos);
+                        w.write(getHash(k));
+                        k++;
+                    }
+                    w.write(cb, j, i - j);
+                    pos += i;
+                }
+                if (k < hashOffsets.size()) {
+                    throw new IOException("VEOContent.xml is shorter than expected");
+                }
+            } finally {
+                r.close();
+            }
+            w.flush();
+            zos.closeEntry();
+            writeSignature(user, sig, "VEOContentSignature1.xml", hashAlg);
+
+            // then VEOHistory.xml
+            b = history.toString().getBytes(StandardCharsets.UTF_8);
+            zos.putNextEntry(new ZipEntry(veoName + "/VEOHistory.xml"));
+            zos.write(b);
+            zos.closeEntry();
+            sig.update(b);
+            writeSignature(user, sig, "VEOHistorySignature1.xml", hashAlg);
+        } catch (IOException ioe) {
+            throw new VEOError("Failed writing control files to VEO: " + ioe.getMessage() + " (" + classname + ")");
+        } catch (GeneralSecurityException gse) {
+            throw new VEOError("Failed signing control files: " + gse.getMessage() + " (" + classname + ")");
+        }
+    }
+
+    @Override
+    public void finalise() throws VEOError {
+        try {
+            zos.close();
+            Files.move(tmpZipFile, zipFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            throw new VEOError("Failed completing VEO '" + zipFile.toString() + "': " + ioe.getMessage() + " (" + classname + ")");
+        } finally {
+            try {
+                Files.deleteIfExists(spoolFile);
+            } catch (IOException e) {
+                /* ignore */
+            }
+        }
+    }
+
+    @Override
+    public void abandon() {
+        try {
+            content.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+
+        // the hashing threads may still be writing into the zip file
+        try {
+            awaitHashes(false);
+        } catch (VEOError ve) {
+            /* ignore */
+        }
+        try {
+            zos.close();
+        } catch (IOException e) {
+            /* ignore */
+        }
+        try {
+            Files.deleteIfExists(spoolFile);
+            Files.deleteIfExists(tmpZipFile);
+        } catch (IOException e) {
+            /* ignore */
+        }
+    }
+
+    /**
+     * Write the XML declaration and the start of the root element
+     */
+    private static void startXML(Appendable out, String root) throws IOException {
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\" ?>\r\n");
+        out.append("<");
+        out.append(root);
+        out.append("\r\n  xmlns:vers=\"http://www.prov.vic.gov.au/VERS\">\r\n");
+    }
+
+    /**
+     * Start a metadata package in the current information object
+     */
+    private void startMetadataPackage(String schemaId, String syntaxId) throws VEOError {
+        checkNotFinished();
+        if (!ioOpen || ipOpen) {
+            throw new VEOError("Metadata package must be added to an information object before any information pieces (" + classname + ")");
+        }
+        try {
+            content.write("  <vers:MetadataPackage");
+            if (syntaxId.contains("rdf")) {
+                content.write(" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"");
+            }
+            content.write(">\r\n");
+            content.write("   <vers:MetadataSchemaIdentifier>");
+            MetadataTemplate.appendEscaped(content, schemaId);
+            content.write("</vers:MetadataSchemaIdentifier>\r\n");
+            content.write("   <vers:MetadataSyntaxIdentifier>");
+            MetadataTemplate.appendEscaped(content, syntaxId);
+            content.write("</vers:MetadataSyntaxIdentifier>\r\n");
+        } catch (IOException ioe) {
+            throw contentError(ioe);
+        }
+    }
+
+    /**
+     * Close the current information piece (if one is open)
+     */
+    private void closeInformationPiece() throws IOException {
+        if (ipOpen) {
+            content.write("  </vers:InformationPiece>\r\n");
+            ipOpen = false;
+        }
+    }
+
+    /**
+     * Close the current information object (if one is open)
+     */
+    private void closeInformationObject() throws IOException {
+        closeInformationPiece();
+        if (ioOpen) {
+            content.write(" </vers:InformationObject>\r\n");
+            ioOpen = false;
+        }
+    }
+
+    /**
+     * Copy a content file into the zip file, hashing it as it is copied. If
+     * there is a HashingStage, this is done on one of its threads. If the
+     * hash is already known, the file is just copied.
+     *
+     * @param name the name of the file relative to the VEO directory
+     * @param p the file
+     * @param knownHash the hash of the file, if known (otherwise null)
+     * @return the base64 encoded hash of the file (when it is available)
+     */
+    private Future<String> addZipFile(String name, Path p, String knownHash) throws VEOError {
+        HarvestEvents.FileHashed event;
+        ZipEntry ze;
+        byte[] hash;
+        int i;
+
+        // create the parent directories in the zip file
+        i = 0;
+        while ((i = name.indexOf('/', i) + 1) > 0) {
+            addZipDirectory(veoName + "/" + name.substring(0, i));
+        }
+
+        // hash the file in parallel
+        if (hs != null) {
+            return hs.submit(p, veoName + "/" + name, hashAlg, knownHash, zos, progress);
+        }
+
+        // or read the file once, both hashing it and writing it to the zip file
+        event = new HarvestEvents.FileHashed();
+        event.begin();
+        try {
+            ze = new ZipEntry(veoName + "/" + name);
+            synchronized (zos) {
+                zos.putNextEntry(ze);
+                if (knownHash != null) {
+                    Files.copy(p, zos);
+                    hash = null;
+                } else {
+                    hash = ContentPipe.transfer(p, md, zos);
+                }
+                zos.closeEntry();
+            }
+            if (progress != null) {
+                progress.fileDone(ze.getSize());
+            }
+        } catch (IOException ioe) {
+            throw new VEOError("Failed adding content file '" + p.toString() + "' to VEO: " + ioe.getMessage() + " (" + classname + ")");
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = p.toString();
+            event.size = ze.getSize();
+            event.copied = (knownHash != null);
+            event.commit();
+        }
+        return CompletableFuture.completedFuture(hash == null ? knownHash : Base64.getEncoder().encodeToString(hash));
+    }
+
+    /**
+     * Wait for all the content files to be hashed and written
+     *
+     * @param report true if a failure to hash a file is to be reported
+     * @throws VEOError if a file could not be hashed
+     */
+    private void awaitHashes(boolean report) throws VEOError {
+        VEOError err;
+        int i;
+
+        err = null;
+        for (i = 0; i < hashes.size(); i++) {
+            try {
+                hashes.get(i).get();
+            } catch (ExecutionException ee) {
+                if (err == null) {
+                    err = new VEOError("Failed adding content file to VEO: " + ee.getCause().getMessage() + " (" + classname + ")");
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                err = new VEOError("Interrupted waiting for content files to be hashed (" + classname + ")");
+                break;
+            }
+        }
+        if (report && err != null) {
+            throw err;
+        }
+    }
+
+    /**
+     * Get the hash of the n'th content file in VEOContent.xml
+     */
+    private String getHash(int n) throws IOException {
+        if (n >= hashes.size()) {
+            throw new IOException("VEOContent.xml refers to more content files than were added");
+        }
+        try {
+            return hashes.get(n).get();
+        } catch (ExecutionException | InterruptedException e) {
+            throw new IOException("Content file was not hashed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Add a directory entry to the zip file (if it has not already been
+     * added)
+     */
+    private void addZipDirectory(String name) throws VEOError {
+        if (!zipDirs.add(name)) {
+            return;
+        }
+        try {
+            synchronized (zos) {
+                zos.putNextEntry(new ZipEntry(name));
+                zos.closeEntry();
+            }
+        } catch (IOException ioe) {
+            throw new VEOError("Failed adding directory '" + name + "' to VEO: " + ioe.getMessage() + " (" + classname + ")");
+        }
+    }
+
+    /**
+     * Get a Signature initialised with the user's private key
+     */
+    private Signature getSignature(PFXUser user, String hashAlg) throws VEOError {
+        Signature sig;
+        String alg;
+
+        alg = user.getPrivate().getAlgorithm();
+        if (alg.equals("EC")) {
+            alg = "ECDSA";
+        }
+        alg = hashAlg.replace("-", "") + "with" + alg;
+        try {
+            sig = Signature.getInstance(alg);
+            sig.initSign(user.getPrivate());
+        } catch (GeneralSecurityException gse) {
+            throw new VEOError("Cannot sign VEO using '" + alg + "': " + gse.getMessage() + " (" + classname + ")");
+        }
+        return sig;
+    }
+
+    /**
+     * Write a signature file into the zip file. The signature is completed,
+     * which resets it ready to sign the next control file.
+     */
+    private void writeSignature(PFXUser user, Signature sig, String name, String hashAlg) throws IOException, GeneralSecurityException {
+        StringBuilder sb;
+        Base64.Encoder b64;
+        int i;
+
+        b64 = Base64.getMimeEncoder();
+        sb = new StringBuilder();
+        startXML(sb, "vers:SignatureBlock");
+        sb.append(" <vers:Version>3.0</vers:Version>\r\n");
+        sb.append(" <vers:SignatureAlgorithm>");
+        sb.append(sig.getAlgorithm());
+        sb.append("</vers:SignatureAlgorithm>\r\n");
+        sb.append(" <vers:SignatureDateTime>");
+        VERSDate.appendDateTime(sb, false, System.currentTimeMillis());
+        sb.append("</vers:SignatureDateTime>\r\n");
+        sb.append(" <vers:Signer>\r\n");
+        MetadataTemplate.appendEscaped(sb, user.getX509Certificate().getSubjectX500Principal().getName());
+        sb.append("</vers:Signer>\r\n");
+        sb.append(" <vers:Signature>\r\n");
+        sb.append(b64.encodeToString(sig.sign()));
+        sb.append("  </vers:Signature>\r\n");
+        sb.append(" <vers:CertificateChain>\r\n");
+        for (i = 0; i < user.getCertificateChainLength(); i++) {
+            sb.append("  <vers:Certificate>\r\n");
+            sb.append(b64.encodeToString(user.getCertificateFromChain(i)));
+            sb.append("  </vers:Certificate>\r\n");
+        }
+        sb.append(" </vers:CertificateChain>\r\n");
+        sb.append("</vers:SignatureBlock>");
+        zos.putNextEntry(new ZipEntry(veoName + "/" + name));
+        zos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        zos.closeEntry();
+    }
+
+    /**
+     * Check that the control files have not been finished
+     */
+    private void checkNotFinished() throws VEOError {
+        if (finished) {
+            throw new VEOError("VEO has already been finished (" + classname + ")");
+        }
+    }
+
+    /**
+     * Report a failure writing VEOContent.xml
+     */
+    private VEOError contentError(IOException ioe) {
+        return new VEOError("Failed writing VEOContent.xml: " + ioe.getMessage() + " (" + classname + ")");
+    }
+
+    /**
+     * A writer that counts the characters written through it
+     */
+    private static class CountingWriter extends FilterWriter {
+
+        private long count; // number of characters written
+
+        CountingWriter(Writer out) {
+            super(out);
+            count = 0;
+        }
+
+        /**
+         * Get the number of characters written so far
+         *
+         * @return the count
+         */
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * An output stream that signs everything written through it
+     */
+    private static class SigningOutputStream extends FilterOutputStream {
+
+        private final Signature sig; // the signature being calculated
+
+        SigningOutputStream(OutputStream out, Signature sig) {
+            super(out);
+            this.sig = sig;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                sig.update((byte) b);
+            } catch (SignatureException se) {
+                throw new IOException(se.getMessage());
+            }
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                sig.update(b, off, len);
+            } catch (SignatureException se) {
+                throw new IOException(se.getMessage());
+            }
+            out.write(b, off, len);
+        }
+    }
+}
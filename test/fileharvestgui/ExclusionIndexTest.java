@@ -0,0 +1,162 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Tests that ExclusionIndex.matchName() finds the same pattern as the
+ * original sequential loop, which ran each pattern against the file name in
+ * order and reported the first that matched.
+ */
+public class ExclusionIndexTest {
+
+    // a mix of literal, prefix, suffix and general patterns, some of which
+    // overlap so that the order of the patterns matters
+    private static final String[] PATTERNS = {
+        "Thumbs\\.db",
+        ".*\\.db",
+        "~\\$.*",
+        "\\.DS_Store",
+        ".*\\.tmp",
+        "[a-z]+\\.tmp",
+        "^desktop\\.ini$",
+        "backup.*",
+        "backup-[0-9]+\\.zip",
+        ".*~",
+        "(?i)readme\\.txt",
+        "[0-9]{4}-[0-9]{2}-[0-9]{2}.*",
+        ".*\\.(bak|old)",
+        "a.*b",
+        ".*"
+    };
+
+    private static final String[] NAMES = {
+        "Thumbs.db", "thumbs.db", "data.db", "~$report.docx", ".DS_Store",
+        "x.tmp", "abc.tmp", "ABC.tmp", "desktop.ini", "Desktop.ini",
+        "backup", "backup-12.zip", "backup-x.zip", "notes.txt~", "README.TXT",
+        "readme.txt", "2018-06-01 minutes.docx", "2018-6-1.docx", "old.bak",
+        "report.old", "ab", "axxb", "ba", "", "plain", "file.with.dots.db",
+        "~", "$", ".tmp", "db", "a.b.c"
+    };
+
+    /**
+     * The original way of finding the first pattern that matches
+     */
+    private static int sequential(List<Pattern> patterns, String filename) {
+        int i;
+
+        for (i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(filename).matches()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Pattern> compile(List<String> regexes) {
+        List<Pattern> patterns;
+        int i;
+
+        patterns = new ArrayList<>();
+        for (i = 0; i < regexes.size(); i++) {
+            patterns.add(Pattern.compile(regexes.get(i)));
+        }
+        return patterns;
+    }
+
+    private static ExclusionIndex index(List<Pattern> patterns) {
+        return new ExclusionIndex(patterns, new HashMap<>(), new ArrayList<>(), false);
+    }
+
+    /**
+     * Check the index against the sequential loop for every name
+     */
+    private static void compare(List<Pattern> patterns, String[] names) {
+        ExclusionIndex ei;
+        ExclusionIndex.Rule r;
+        int i, expected;
+
+        ei = index(patterns);
+        for (i = 0; i < names.length; i++) {
+            expected = sequential(patterns, names[i]);
+            r = ei.matchName(names[i]);
+            assertEquals("pattern matching '" + names[i] + "' with " + patterns, expected, r == null ? -1 : r.index);
+            if (r != null) {
+                assertEquals(patterns.get(expected).pattern(), r.text);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSequentialLoop() {
+        compare(compile(Arrays.asList(PATTERNS)), NAMES);
+    }
+
+    @Test
+    public void testFirstMatchWins() {
+        ExclusionIndex ei;
+        ExclusionIndex.Rule r;
+
+        // the suffix pattern is listed before the literal, so it is reported
+        ei = index(compile(Arrays.asList(".*\\.db", "Thumbs\\.db")));
+        r = ei.matchName("Thumbs.db");
+        assertNotNull(r);
+        assertEquals(0, r.index);
+
+        // and the other way round
+        ei = index(compile(Arrays.asList("Thumbs\\.db", ".*\\.db")));
+        r = ei.matchName("Thumbs.db");
+        assertNotNull(r);
+        assertEquals(0, r.index);
+
+        // a general pattern listed first beats a later literal
+        ei = index(compile(Arrays.asList("[A-Z][a-z]+\\.db", "Thumbs\\.db")));
+        assertEquals(0, ei.matchName("Thumbs.db").index);
+
+        // of two general patterns, the first listed is reported
+        ei = index(compile(Arrays.asList("x", "T.*s\\.db", "[A-Z][a-z]+\\.db")));
+        assertEquals(1, ei.matchName("Thumbs.db").index);
+    }
+
+    @Test
+    public void testNoMatch() {
+        ExclusionIndex ei;
+
+        ei = index(compile(Arrays.asList("Thumbs\\.db", "~\\$.*", ".*\\.tmp", "[0-9]+")));
+        assertNull(ei.matchName("report.docx"));
+        assertNull(ei.matchName("thumbs.db"));
+        assertNull(ei.matchName("12a"));
+        ei = index(new ArrayList<>());
+        assertNull(ei.matchName("anything"));
+    }
+
+    @Test
+    public void testRandomOrders() {
+        ArrayList<String> regexes;
+        Random r;
+        int i, n;
+
+        r = new Random(42);
+        regexes = new ArrayList<>(Arrays.asList(PATTERNS));
+        for (i = 0; i < 200; i++) {
+            Collections.shuffle(regexes, r);
+            n = 1 + r.nextInt(regexes.size());
+            compare(compile(regexes.subList(0, n)), NAMES);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.PFXUser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a VEO built straight into the zip file is the same as one
+ * staged in a '.veo' directory and zipped by CreateVEO. The test fixture
+ * 'test/Vol 40 (2017)/S-40-1' is harvested in both modes, and the control
+ * files compared once the dates and times (and the record name, which
+ * contains the time) are removed. The signatures differ, as they contain the
+ * time of signing, so each is checked instead.
+ */
+public class FileHarvestTest {
+
+    private static final Path ITEM = Paths.get("test", "Vol 40 (2017)", "S-40-1");
+    private static final Path TEMPLATES = Paths.get("test", "Templates");
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d\\d-\\d\\dT\\d\\d:?\\d\\d:?\\d\\d(\\.\\d+)?(Z|[+-]\\d\\d:?\\d\\d)?");
+
+    @ClassRule
+    public static TemporaryFolder keys = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Path pfx;        // the key used to sign the VEOs
+    private static PFXUser user;    // the signer
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        pfx = TestFixtures.pfx(keys.getRoot().toPath());
+        user = new PFXUser(pfx.toString(), TestFixtures.PFX_PASSWORD);
+    }
+
+    /**
+     * Harvest the fixture
+     *
+     * @param stage true if the VEO is to be staged in a directory
+     * @return the files in the VEO, indexed by their name within the VEO
+     * directory
+     */
+    private HashMap<String, byte[]> harvest(boolean stage) throws Exception {
+        HashMap<String, byte[]> files, veo;
+        Iterator<Map.Entry<String, byte[]>> it;
+        Map.Entry<String, byte[]> e;
+        FileHarvest fh;
+        Job job;
+        Path zip;
+
+        job = new Job();
+        job.templateDir = TEMPLATES;
+        job.outputDir = tmp.newFolder(stage ? "staged" : "zip").toPath();
+        job.pfxFile = pfx;
+        job.pfxFilePassword = TestFixtures.PFX_PASSWORD;
+        job.hashAlg = "SHA-512";
+        job.stageVEOs = stage;
+        fh = new FileHarvest(job, new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        try {
+            assertTrue("harvest failed", fh.process(ITEM));
+        } finally {
+            fh.close();
+        }
+        zip = veo(job.outputDir);
+
+        // strip the VEO directory (named after the record) from the names
+        files = TestFixtures.unzip(zip);
+        veo = new HashMap<>();
+        it = files.entrySet().iterator();
+        while (it.hasNext()) {
+            e = it.next();
+            veo.put(e.getKey().substring(e.getKey().indexOf('/') + 1), e.getValue());
+        }
+        return veo;
+    }
+
+    /**
+     * Find the VEO in an output directory
+     */
+    private static Path veo(Path dir) throws IOException {
+        DirectoryStream<Path> ds;
+        Path zip;
+
+        zip = null;
+        ds = Files.newDirectoryStream(dir, "*.veo.zip");
+        try {
+            for (Path p : ds) {
+                assertEquals("more than one VEO", null, zip);
+                zip = p;
+            }
+        } finally {
+            ds.close();
+        }
+        assertNotNull("no VEO was created", zip);
+        return zip;
+    }
+
+    /**
+     * Remove the dates and times from a control file
+     */
+    private static String undated(byte[] b) {
+        return DATE.matcher(new String(b, StandardCharsets.UTF_8)).replaceAll("<date>");
+    }
+
+    @Test
+    public void testZipMatchesStaged() throws Exception {
+        HashMap<String, byte[]> zip, staged;
+        Iterator<String> it;
+        String name;
+
+        zip = harvest(false);
+        staged = harvest(true);
+        assertEquals(new TreeSet<>(staged.keySet()), new TreeSet<>(zip.keySet()));
+        assertEquals(undated(staged.get("VEOContent.xml")), undated(zip.get("VEOContent.xml")));
+        assertEquals(undated(staged.get("VEOHistory.xml")), undated(zip.get("VEOHistory.xml")));
+
+        // the content files (and VEOReadme.txt) are identical
+        it = zip.keySet().iterator();
+        while (it.hasNext()) {
+            name = it.next();
+            if (!name.startsWith("VEO")) {
+                assertArrayEquals("content file '" + name + "'", staged.get(name), zip.get(name));
+            }
+        }
+        assertArrayEquals(staged.get("VEOReadme.txt"), zip.get("VEOReadme.txt"));
+
+        // and both are signed with the key
+        TestFixtures.assertSigned(zip.get("VEOContentSignature1.xml"), zip.get("VEOContent.xml"), user.getX509Certificate());
+        TestFixtures.assertSigned(zip.get("VEOHistorySignature1.xml"), zip.get("VEOHistory.xml"), user.getX509Certificate());
+        TestFixtures.assertSigned(staged.get("VEOContentSignature1.xml"), staged.get("VEOContent.xml"), user.getX509Certificate());
+        TestFixtures.assertSigned(staged.get("VEOHistorySignature1.xml"), staged.get("VEOHistory.xml"), user.getX509Certificate());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a resumed run replays the journal of the previous run correctly
+ */
+public class HarvestJournalTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path out;   // the output directory holding the journal
+
+    private static final Path A = Paths.get("/src/A");
+    private static final Path B = Paths.get("/src/B");
+    private static final Path C = Paths.get("/src/C");
+    private static final Path D = Paths.get("/src/D");
+    private static final Path ODD = Paths.get("/src/tab\there\nand a newline \\");
+
+    @Before
+    public void setUp() {
+        out = tmp.getRoot().toPath();
+    }
+
+    /**
+     * A run in which A is built, B fails, C is interrupted part way through,
+     * and D is unchanged
+     */
+    private void firstRun() throws AppFatal, IOException {
+        HarvestJournal j;
+        Path veo;
+
+        j = new HarvestJournal(out, false);
+        try {
+            j.started(A, "RecA");
+            veo = Files.write(out.resolve("RecA.veo.zip"), new byte[10]);
+            j.finalised(A, veo);
+            j.started(B, "RecB");
+            j.failed(B, "Failed\tbecause\nof something");
+            j.unchanged(D);
+            j.started(C, "RecC");
+            Files.write(out.resolve("RecC.veo.zip.tmp"), new byte[10]);
+            Files.createDirectories(out.resolve("RecC.veo"));
+            Files.write(out.resolve("RecC.veo").resolve("VEOContent.xml"), new byte[10]);
+            Files.write(out.resolve("RecC.veo.zip.VEOContent.xml"), new byte[10]);
+        } finally {
+            j.close();
+        }
+    }
+
+    @Test
+    public void testResume() throws AppFatal, IOException {
+        HarvestJournal j;
+
+        firstRun();
+        j = new HarvestJournal(out, true);
+        try {
+            assertTrue(j.isCompleted(A));
+            assertTrue(j.isCompleted(D));
+            assertFalse("a failed item is retried", j.isCompleted(B));
+            assertFalse("an interrupted item is rebuilt", j.isCompleted(C));
+            assertFalse(Files.exists(out.resolve("RecC.veo.zip.tmp")));
+            assertFalse(Files.exists(out.resolve("RecC.veo")));
+            assertFalse(Files.exists(out.resolve("RecC.veo.zip.VEOContent.xml")));
+            assertTrue("a finished VEO is kept", Files.exists(out.resolve("RecA.veo.zip")));
+
+            // the resumed run finishes C
+            j.started(C, "RecC");
+            j.finalised(C, Files.write(out.resolve("RecC.veo.zip"), new byte[10]));
+        } finally {
+            j.close();
+        }
+
+        // a second resume remembers what both runs completed
+        j = new HarvestJournal(out, true);
+        try {
+            assertTrue(j.isCompleted(A));
+            assertTrue(j.isCompleted(C));
+            assertTrue(j.isCompleted(D));
+            assertFalse(j.isCompleted(B));
+            assertTrue(Files.exists(out.resolve("RecC.veo.zip")));
+        } finally {
+            j.close();
+        }
+    }
+
+    @Test
+    public void testNewRunForgetsPreviousRun() throws AppFatal, IOException {
+        HarvestJournal j;
+
+        firstRun();
+
+        // a run that doesn't resume doesn't remove anything...
+        j = new HarvestJournal(out, false);
+        try {
+            assertFalse(j.isCompleted(A));
+            assertTrue(Files.exists(out.resolve("RecC.veo.zip.tmp")));
+        } finally {
+            j.close();
+        }
+
+        // ...and a later resume only sees that run (which did nothing)
+        j = new HarvestJournal(out, true);
+        try {
+            assertFalse(j.isCompleted(A));
+            assertFalse(j.isCompleted(D));
+            assertTrue(Files.exists(out.resolve("RecC.veo.zip.tmp")));
+        } finally {
+            j.close();
+        }
+    }
+
+    @Test
+    public void testEscapedValues() throws AppFatal, IOException {
+        HarvestJournal j;
+
+        j = new HarvestJournal(out, false);
+        try {
+            j.started(ODD, "RecOdd");
+            j.unchanged(ODD);
+        } finally {
+            j.close();
+        }
+        j = new HarvestJournal(out, true);
+        try {
+            assertTrue(j.isCompleted(ODD));
+            assertFalse(j.isCompleted(Paths.get("/src/tab")));
+        } finally {
+            j.close();
+        }
+    }
+
+    @Test
+    public void testLocked() throws AppFatal {
+        HarvestJournal j, k;
+
+        j = new HarvestJournal(out, false);
+        try {
+            k = new HarvestJournal(out, false);
+            k.close();
+            fail("opened a journal that was in use");
+        } catch (AppFatal af) {
+            // expected
+        } finally {
+            j.close();
+        }
+
+        // once closed, it can be opened again
+        j = new HarvestJournal(out, true);
+        j.close();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests writing, reading and comparing manifests
+ */
+public class ManifestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String DIGEST1 = "2jmj7l5rSw0yVb/vlWAYkK/YBwk="; // SHA-1 of nothing
+    private static final String DIGEST2 = "qUqP5cyxm6YcTAhz05Hph5gvu9M="; // SHA-1 of 'test'
+
+    private static Manifest.Entry file(String path, long size, long modified, String digest) {
+        Manifest.Entry e;
+
+        e = new Manifest.Entry(path, false, size, modified);
+        if (digest != null) {
+            e.setDigest(CompletableFuture.completedFuture(digest));
+        }
+        return e;
+    }
+
+    private static Manifest.Entry dir(String path) {
+        return new Manifest.Entry(path, true, 0, 0);
+    }
+
+    private static Manifest sample() {
+        Manifest m;
+
+        m = new Manifest("SHA-1");
+        m.setRecordName("FSC-S-40-1-2018-06-01T120000+1000");
+        m.add(dir("S-40-1"));
+        m.add(file("S-40-1/a.pdf", 1234, 1527811200000L, DIGEST1));
+        m.add(file("S-40-1/sub dir/b \u00e9.txt", 0, 1527811201000L, DIGEST2));
+        m.add(file("S-40-1/no digest.doc", 99, 1527811202000L, null));
+        return m;
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        Manifest m, r;
+        Manifest.Entry e;
+        Path p;
+
+        m = sample();
+        p = tmp.getRoot().toPath().resolve("test.manifest");
+        m.write(p);
+        assertFalse("temporary file left behind", Files.exists(p.resolveSibling("test.manifest.tmp")));
+        r = Manifest.read(p);
+        assertEquals("SHA-1", r.getHashAlg());
+        assertEquals(m.getRecordName(), r.getRecordName());
+        assertEquals(4, r.size());
+        assertTrue(r.get("S-40-1").directory);
+        e = r.get("S-40-1/a.pdf");
+        assertFalse(e.directory);
+        assertEquals(1234, e.size);
+        assertEquals(1527811200000L, e.modified);
+        assertEquals(DIGEST1, e.getDigest());
+        assertEquals(DIGEST2, r.get("S-40-1/sub dir/b \u00e9.txt").getDigest());
+        assertNull(r.get("S-40-1/no digest.doc").getDigest());
+        assertTrue(r.compare(m).isEmpty());
+
+        // rewriting replaces the old manifest
+        m.add(file("S-40-1/c.pdf", 1, 1, null));
+        m.write(p);
+        assertEquals(5, Manifest.read(p).size());
+    }
+
+    @Test
+    public void testNotAManifest() throws IOException {
+        Path p;
+
+        p = tmp.getRoot().toPath().resolve("bad.manifest");
+        Files.write(p, "this is not a manifest".getBytes("UTF-8"));
+        try {
+            Manifest.read(p);
+            fail("read a file that was not a manifest");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompare() {
+        Manifest before, after;
+        Manifest.Changes c;
+
+        before = sample();
+        after = new Manifest("SHA-1");
+        after.add(dir("S-40-1"));
+        after.add(file("S-40-1/a.pdf", 1234, 1527811200000L, null));   // unchanged
+        after.add(file("S-40-1/sub dir/b \u00e9.txt", 0, 1527811209000L, null)); // modified later
+        after.add(file("S-40-1/new.pdf", 5, 1527811203000L, null));    // added
+        c = before.compare(after);
+        assertFalse(c.isEmpty());
+        assertEquals(Arrays.asList("S-40-1/new.pdf"), c.added);
+        assertEquals(Arrays.asList("S-40-1/sub dir/b \u00e9.txt"), c.changed);
+        assertEquals(Arrays.asList("S-40-1/no digest.doc"), c.removed);
+
+        // a file that has become a directory has changed
+        after = sample();
+        after.add(dir("S-40-1/a.pdf"));
+        assertEquals(Arrays.asList("S-40-1/a.pdf"), before.compare(after).changed);
+    }
+
+    @Test
+    public void testCachedDigest() {
+        Manifest m;
+
+        m = sample();
+        assertEquals(DIGEST1, m.cachedDigest(file("S-40-1/a.pdf", 1234, 1527811200000L, null), "SHA-1"));
+        assertNull("size changed", m.cachedDigest(file("S-40-1/a.pdf", 1235, 1527811200000L, null), "SHA-1"));
+        assertNull("modified", m.cachedDigest(file("S-40-1/a.pdf", 1234, 1527811200001L, null), "SHA-1"));
+        assertNull("different algorithm", m.cachedDigest(file("S-40-1/a.pdf", 1234, 1527811200000L, null), "SHA-256"));
+        assertNull("not in manifest", m.cachedDigest(file("S-40-1/z.pdf", 1234, 1527811200000L, null), "SHA-1"));
+    }
+
+    @Test
+    public void testLocation() {
+        Path out, a, b;
+
+        out = Paths.get("out");
+        a = Manifest.location(out, Paths.get("/x/S-40-1"));
+        b = Manifest.location(out, Paths.get("/y/S-40-1"));
+        assertEquals(out, a.getParent());
+        assertTrue(a.getFileName().toString().startsWith("FSC-S-40-1-"));
+        assertTrue(a.getFileName().toString().endsWith(".manifest"));
+        assertNotEquals(a, b);
+    }
+}
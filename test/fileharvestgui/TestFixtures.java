@@ -0,0 +1,129 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Things shared by the tests that build VEOs
+ */
+final class TestFixtures {
+
+    static final String PFX_PASSWORD = "password";
+    private static final Pattern SIGNATURE = Pattern.compile("<vers:SignatureAlgorithm>(.*?)</vers:SignatureAlgorithm>.*<vers:Signature>(.*?)</vers:Signature>", Pattern.DOTALL);
+
+    private TestFixtures() {
+    }
+
+    /**
+     * Generate a PFX file (a self signed RSA key) with keytool
+     *
+     * @param dir the directory in which to create it
+     * @return the PFX file
+     * @throws IOException if keytool failed
+     */
+    static Path pfx(Path dir) throws IOException {
+        Path pfx, keytool;
+        Process p;
+        int res;
+
+        pfx = dir.resolve("test.pfx");
+        keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool");
+        p = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "test",
+                "-keyalg", "RSA", "-keysize", "2048", "-sigalg", "SHA256withRSA",
+                "-dname", "CN=FileHarvest Test", "-validity", "3650",
+                "-storetype", "PKCS12", "-keystore", pfx.toString(),
+                "-storepass", PFX_PASSWORD, "-keypass", PFX_PASSWORD)
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            res = p.waitFor();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted running keytool");
+        }
+        if (res != 0) {
+            throw new IOException("keytool failed (" + res + ")");
+        }
+        return pfx;
+    }
+
+    /**
+     * Read every file in a zip file
+     *
+     * @param zip the zip file
+     * @return the contents of the files, indexed by name (directories are
+     * not included)
+     * @throws IOException if the zip file could not be read
+     */
+    static HashMap<String, byte[]> unzip(Path zip) throws IOException {
+        HashMap<String, byte[]> files;
+        ZipEntry ze;
+
+        files = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(zip))) {
+            while ((ze = zis.getNextEntry()) != null) {
+                if (!ze.isDirectory()) {
+                    files.put(ze.getName(), readAll(zis));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Read the rest of a stream
+     *
+     * @param is the stream
+     * @return the bytes read
+     * @throws IOException if the stream could not be read
+     */
+    static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream baos;
+        byte[] b;
+        int i;
+
+        baos = new ByteArrayOutputStream();
+        b = new byte[8192];
+        while ((i = is.read(b)) != -1) {
+            baos.write(b, 0, i);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Check that a signature file is a valid signature of a control file
+     *
+     * @param signature the contents of the signature file
+     * @param signed the contents of the control file
+     * @param cert the certificate of the signer
+     * @throws Exception if the signature could not be checked
+     */
+    static void assertSigned(byte[] signature, byte[] signed, X509Certificate cert) throws Exception {
+        Matcher m;
+        Signature sig;
+
+        m = SIGNATURE.matcher(new String(signature, "UTF-8"));
+        assertTrue("signature file is not a signature block", m.find());
+        sig = Signature.getInstance(m.group(1));
+        sig.initVerify(cert.getPublicKey());
+        sig.update(signed);
+        assertTrue("signature does not verify", sig.verify(Base64.getMimeDecoder().decode(m.group(2).trim())));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.VEOFatal;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that TreeWalker visits a tree in the same order as the old recursive
+ * walk, however few directories it is allowed to keep open
+ */
+public class TreeWalkerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path root;  // the tree walked
+
+    /**
+     * Build a tree with a mix of files and directories at each level
+     */
+    @Before
+    public void setUp() throws IOException {
+        root = tmp.newFolder("root").toPath();
+        build(root, 0, new Random(7));
+    }
+
+    private static void build(Path dir, int depth, Random r) throws IOException {
+        int i, n;
+
+        n = 1 + r.nextInt(5);
+        for (i = 0; i < n; i++) {
+            Files.write(dir.resolve("file" + i + ".txt"), new byte[]{(byte) i});
+        }
+        if (depth < 5) {
+            n = r.nextInt(4);
+            for (i = 0; i < n; i++) {
+                build(Files.createDirectory(dir.resolve("dir" + i)), depth + 1, r);
+            }
+        }
+    }
+
+    /**
+     * The old recursive walk: each directory's entries in the order listed,
+     * with a subdirectory's contents following it
+     */
+    private static void recursive(Path dir, int depth, List<String> visited) throws IOException {
+        DirectoryStream<Path> ds;
+
+        ds = Files.newDirectoryStream(dir);
+        try {
+            for (Path p : ds) {
+                visited.add(depth + " " + p.toString());
+                if (Files.isDirectory(p)) {
+                    recursive(p, depth + 1, visited);
+                }
+            }
+        } finally {
+            ds.close();
+        }
+    }
+
+    /**
+     * Walk the tree as FileHarvest.processTree() does
+     */
+    private static List<String> walk(Path dir, int maxOpen) throws IOException, VEOFatal {
+        ArrayList<String> visited;
+        HarvestEntry e;
+        Path p;
+
+        visited = new ArrayList<>();
+        try (TreeWalker<Path> tw = new TreeWalker<>(maxOpen)) {
+            e = HarvestEntry.read(dir, null);
+            tw.enter(e, e.path);
+            while (!tw.isEmpty()) {
+                if ((p = tw.next()) == null) {
+                    assertEquals(tw.directory().path, tw.leave());
+                    continue;
+                }
+                visited.add(tw.depth() + " " + p.toString());
+                e = HarvestEntry.read(p, tw.directory().realPath);
+                if (e.directory) {
+                    tw.enter(e, e.path);
+                }
+            }
+        }
+        return visited;
+    }
+
+    @Test
+    public void testSameOrderAsRecursiveWalk() throws IOException, VEOFatal {
+        ArrayList<String> expected;
+
+        expected = new ArrayList<>();
+        recursive(root, 2, expected);
+        assertTrue(expected.size() > 20);
+        assertEquals("maxOpen 1", expected, walk(root, 1));
+        assertEquals("maxOpen 2", expected, walk(root, 2));
+        assertEquals("maxOpen 3", expected, walk(root, 3));
+        assertEquals("default maxOpen", expected, walk(root, TreeWalker.DEFAULT_MAX_OPEN));
+    }
+
+    @Test
+    public void testDeepTree() throws IOException, VEOFatal {
+        ArrayList<String> expected;
+        Path p;
+        int i;
+
+        // a chain of directories much deeper than the number allowed open,
+        // with a file either side of each subdirectory
+        p = tmp.newFolder("deep").toPath();
+        for (i = 0; i < 200; i++) {
+            Files.write(p.resolve("a"), new byte[0]);
+            Files.write(p.resolve("z"), new byte[0]);
+            p = Files.createDirectory(p.resolve("d"));
+        }
+        p = tmp.getRoot().toPath().resolve("deep");
+        expected = new ArrayList<>();
+        recursive(p, 2, expected);
+        assertEquals(600, expected.size());
+        assertEquals(expected, walk(p, 1));
+        assertEquals(expected, walk(p, 8));
+    }
+
+    @Test
+    public void testEntriesAndEmptyDirectory() throws IOException, VEOFatal {
+        Path empty;
+        HarvestEntry e;
+
+        empty = tmp.newFolder("empty").toPath();
+        try (TreeWalker<String> tw = new TreeWalker<>(1)) {
+            e = HarvestEntry.read(empty, null);
+            tw.enter(e, "state");
+            assertEquals(2, tw.depth());
+            assertEquals(null, tw.next());
+            assertEquals(0, tw.entries());
+            assertEquals("state", tw.leave());
+            assertTrue(tw.isEmpty());
+        }
+    }
+}
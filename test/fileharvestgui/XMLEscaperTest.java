@@ -0,0 +1,161 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests that XMLEscaper produces exactly what FileHarvest.xmlEncode() used to,
+ * apart from the one deliberate change: the original dropped the '&amp;' of
+ * an entity already in the text ('&amp;amp;' became 'amp;'), whereas it is
+ * now left as it is.
+ */
+public class XMLEscaperTest {
+
+    // fragments that random strings are built from, chosen to produce
+    // entities, near misses, and runs of clean text
+    private static final String[] FRAGMENTS = {
+        "&", "<", ">", "\"", "'", "amp;", "AMP;", "lt;", "gt;", "quot;", "apos;",
+        "Apos;", "am", "a", "l", "g", "q", ";", "abc", " ", "\n", "\t", "\u00e9", "\uD83D\uDE00", ""
+    };
+
+    /**
+     * The original FileHarvest.xmlEncode(), with the '&amp;' of an existing
+     * entity kept
+     */
+    private static void xmlEncode(StringBuilder out, String in) {
+        int i;
+        char c;
+
+        if (in == null) {
+            return;
+        }
+        for (i = 0; i < in.length(); i++) {
+            c = in.charAt(i);
+            switch (c) {
+                case '&':
+                    if (!in.regionMatches(true, i, "&amp;", 0, 5)
+                            && !in.regionMatches(true, i, "&lt;", 0, 4)
+                            && !in.regionMatches(true, i, "&gt;", 0, 4)
+                            && !in.regionMatches(true, i, "&quot;", 0, 6)
+                            && !in.regionMatches(true, i, "&apos;", 0, 6)) {
+                        out.append("&amp;");
+                    } else {
+                        out.append(c); // the original appended nothing
+                    }
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\'':
+                    out.append("&apos;");
+                    break;
+                default:
+                    out.append(c);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The original encoding with every '&amp;' encoded
+     */
+    private static String fullEscape(String in) {
+        return in.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    /**
+     * Check both encodings of a string, written to each kind of output
+     */
+    private static void check(String s) throws IOException {
+        StringBuilder expected, sb;
+        StringWriter sw;
+        CharBuffer cb;
+        String full;
+
+        expected = new StringBuilder("prefix");
+        xmlEncode(expected, s);
+        sb = new StringBuilder("prefix");
+        XMLEscaper.encode(sb, s);
+        assertEquals("encode '" + s + "'", expected.toString(), sb.toString());
+        sw = new StringWriter();
+        sw.write("prefix");
+        XMLEscaper.encode(sw, s);
+        assertEquals("encode '" + s + "' to a Writer", expected.toString(), sw.toString());
+
+        full = "prefix" + fullEscape(s);
+        sb = new StringBuilder("prefix");
+        XMLEscaper.escape(sb, s);
+        assertEquals("escape '" + s + "'", full, sb.toString());
+        sw = new StringWriter();
+        sw.write("prefix");
+        XMLEscaper.escape(sw, s);
+        assertEquals("escape '" + s + "' to a Writer", full, sw.toString());
+
+        // an Appendable that is neither a Writer nor a StringBuilder
+        cb = CharBuffer.allocate(full.length() + 16);
+        cb.append("prefix");
+        XMLEscaper.escape((Appendable) cb, s);
+        cb.flip();
+        assertEquals("escape '" + s + "' to an Appendable", full, cb.toString());
+    }
+
+    @Test
+    public void testExamples() throws IOException {
+        check("");
+        check("plain text with no special characters");
+        check("&");
+        check("&&");
+        check("a & b");
+        check("&amp;");
+        check("&AMP;&Lt;&gT;&QUOT;&aPoS;");
+        check("&amp");
+        check("&ampx;");
+        check("&nbsp;");
+        check("<tag attr=\"value\" other='x'>text</tag>");
+        check("C:\\Users\\x\\'Bob's' <file> & \"copy\".txt");
+        check("ends with &");
+        check("&lt");
+    }
+
+    @Test
+    public void testEntitiesKept() {
+        StringBuilder sb;
+
+        sb = new StringBuilder();
+        XMLEscaper.encode(sb, "a &amp; b &LT; c & d");
+        assertEquals("a &amp; b &LT; c &amp; d", sb.toString());
+    }
+
+    @Test
+    public void testRandomStrings() throws IOException {
+        StringBuilder sb;
+        Random r;
+        int i, j, n;
+
+        r = new Random(1234);
+        for (i = 0; i < 20000; i++) {
+            sb = new StringBuilder();
+            n = r.nextInt(12);
+            for (j = 0; j < n; j++) {
+                sb.append(FRAGMENTS[r.nextInt(FRAGMENTS.length)]);
+            }
+            check(sb.toString());
+        }
+    }
+}
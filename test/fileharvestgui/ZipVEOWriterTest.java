@@ -0,0 +1,227 @@
+/*
+ * Copyright Public Record Office Victoria 2018
+ * Licensed under the CC-BY license http://creativecommons.org/licenses/by/3.0/au/
+ * Author Andrew Waugh
+ * Version 1.0 June 2018
+ */
+package fileharvestgui;
+
+import VERSCommon.PFXUser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that ZipVEOWriter puts the right hash in the right place in
+ * VEOContent.xml, whether the content files are hashed by the calling thread
+ * or in parallel by a HashingStage (and whether they are small enough to be
+ * read into memory or are streamed). The hashes are inserted at recorded
+ * offsets as VEOContent.xml is copied into the zip file, so the metadata is
+ * made long (so the offsets fall in different copy buffers) and contains
+ * NULs, multi-byte characters and surrogate pairs.
+ */
+public class ZipVEOWriterTest {
+
+    private static final String HASH_ALG = "SHA-256";
+    private static final Pattern CONTENT_FILE = Pattern.compile("<vers:PathName>(.*?)</vers:PathName>\r\n    <vers:HashValue>(.*?)</vers:HashValue>");
+
+    @ClassRule
+    public static TemporaryFolder keys = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static PFXUser user; // the signer
+    private Path src;       // the content directory
+    private Path out;       // the output directory
+    private String metadata; // awkward metadata text
+    private ArrayList<String> files; // the content files (relative to the parent of src)
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        user = new PFXUser(TestFixtures.pfx(keys.getRoot().toPath()).toString(), TestFixtures.PFX_PASSWORD);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder sb;
+        Random r;
+        byte[] b;
+        int i;
+
+        r = new Random(99);
+        src = tmp.newFolder("src", "S-1").toPath();
+        out = tmp.newFolder("out").toPath();
+        files = new ArrayList<>();
+        Files.createDirectories(src.resolve("sub dir"));
+        for (i = 0; i < 150; i++) {
+            b = new byte[r.nextInt(5000)];
+            r.nextBytes(b);
+            Files.write(src.resolve(i % 2 == 0 ? "file" + i + ".bin" : "sub dir/x & 'y' " + i + ".bin"), b);
+            files.add(i % 2 == 0 ? "S-1/file" + i + ".bin" : "S-1/sub dir/x & 'y' " + i + ".bin");
+        }
+        Files.write(src.resolve("empty.txt"), new byte[0]);
+        files.add("S-1/empty.txt");
+        b = new byte[3 * 1024 * 1024 + 17]; // bigger than ContentPipe.BUFSIZE, so streamed
+        r.nextBytes(b);
+        Files.write(src.resolve("big.bin"), b);
+        files.add("S-1/big.bin");
+
+        sb = new StringBuilder();
+        for (i = 0; i < 5000; i++) {
+            sb.append("\u0000 metadata \u00e9\u20ac\uD83D\uDE00 ").append(i).append('\u0000');
+        }
+        metadata = sb.toString();
+    }
+
+    private static String hash(byte[] b) throws Exception {
+        return Base64.getEncoder().encodeToString(MessageDigest.getInstance(HASH_ALG).digest(b));
+    }
+
+    /**
+     * Build a VEO containing every content file, one file in each
+     * information piece, with the long metadata package between information
+     * objects. The first file is referenced twice, and the second is given
+     * its (known) hash.
+     */
+    private Path build(HashingStage hs) throws Exception {
+        ZipVEOWriter w;
+        Future<String> f;
+        String known;
+        int i;
+
+        w = new ZipVEOWriter(out, "Rec", HASH_ALG, hs, null);
+        w.addVEOReadme(Paths.get("test", "Templates"));
+        w.addEvent("2018-06-01T12:00:00+10:00", "Created", "Test", new String[]{"a <test> & 'event'"}, null);
+        w.addContent(src);
+        known = hash(Files.readAllBytes(src.getParent().resolve(files.get(1))));
+        for (i = 0; i < files.size(); i++) {
+            if (i % 40 == 0) {
+                w.addInformationObject("Record", 1);
+                w.addMetadataPackage("http://example.com/schema", "http://www.w3.org/1999/02/22-rdf-syntax-ns", mw -> mw.write(metadata));
+            }
+            w.addInformationPiece("Piece " + i);
+            f = w.addContentFile(files.get(i), i == 1 ? known : null);
+            assertNotNull(f);
+            if (i == 0) {
+                w.addContentFile(files.get(0), null);
+            }
+        }
+        w.finishFiles();
+        w.sign(user, HASH_ALG);
+        w.finalise();
+        return out.resolve("Rec.veo.zip");
+    }
+
+    private void check(Path zip) throws Exception {
+        HashMap<String, byte[]> zipped;
+        ArrayList<String> found;
+        byte[] content, b;
+        String xml, name;
+        Matcher m;
+
+        assertTrue(Files.exists(zip));
+        try (Stream<Path> s = Files.list(out)) {
+            assertEquals("spool or temporary files left behind", 1, s.count());
+        }
+        zipped = TestFixtures.unzip(zip);
+        content = zipped.get("Rec.veo/VEOContent.xml");
+        assertNotNull(content);
+        xml = new String(content, StandardCharsets.UTF_8);
+
+        // every content file is in the zip file, unchanged, and the hash in
+        // VEOContent.xml is its hash
+        found = new ArrayList<>();
+        m = CONTENT_FILE.matcher(xml);
+        while (m.find()) {
+            name = m.group(1).replace("&apos;", "'").replace("&amp;", "&");
+            found.add(name);
+            b = zipped.get("Rec.veo/" + name);
+            assertNotNull("'" + name + "' is not in the zip file", b);
+            assertArrayEquals(Files.readAllBytes(src.getParent().resolve(name)), b);
+            assertEquals("hash of '" + name + "'", hash(b), m.group(2));
+        }
+        assertEquals(files.size() + 1, found.size());
+        assertEquals(files.get(0), found.get(0));
+        assertEquals(files.get(0), found.get(1));
+        assertEquals(files.subList(1, files.size()), found.subList(2, found.size()));
+
+        // the metadata is intact, NULs and all
+        assertEquals(4, xml.split(Pattern.quote(metadata), -1).length - 1);
+
+        // and the control files are signed
+        TestFixtures.assertSigned(zipped.get("Rec.veo/VEOContentSignature1.xml"), content, user.getX509Certificate());
+        TestFixtures.assertSigned(zipped.get("Rec.veo/VEOHistorySignature1.xml"), zipped.get("Rec.veo/VEOHistory.xml"), user.getX509Certificate());
+        assertArrayEquals(Files.readAllBytes(Paths.get("test", "Templates", "VEOReadme.txt")), zipped.get("Rec.veo/VEOReadme.txt"));
+    }
+
+    @Test
+    public void testHashedByCaller() throws Exception {
+        check(build(null));
+    }
+
+    @Test
+    public void testHashingStage() throws Exception {
+        HashingStage hs;
+
+        hs = new HashingStage(4, 64 * 1024);
+        try {
+            check(build(hs));
+        } finally {
+            hs.shutdown();
+        }
+    }
+
+    @Test
+    public void testHashingStageLargeBudget() throws Exception {
+        HashingStage hs;
+
+        hs = new HashingStage(2, 64L * 1024 * 1024);
+        try {
+            check(build(hs));
+        } finally {
+            hs.shutdown();
+        }
+    }
+
+    @Test
+    public void testAbandon() throws Exception {
+        ZipVEOWriter w;
+        HashingStage hs;
+
+        hs = new HashingStage(2, HashingStage.defaultBudget());
+        try {
+            w = new ZipVEOWriter(out, "Rec", HASH_ALG, hs, null);
+            w.addContent(src);
+            w.addInformationObject("Record", 1);
+            w.addInformationPiece("Piece");
+            w.addContentFile(files.get(files.size() - 1), null);
+            w.abandon();
+        } finally {
+            hs.shutdown();
+        }
+        try (Stream<Path> s = Files.list(out)) {
+            assertEquals(Arrays.asList(), Arrays.asList(s.toArray()));
+        }
+    }
+}